@@ -48,6 +48,14 @@ public interface ICorfuSMRProxy<T> {
      */
     void sync();
 
+    /**
+     * Update the proxy to the given version, which was obtained from the sequencer,
+     * e.g., when resolving the tails of several objects at once.
+     *
+     * @param timestamp The version to update the proxy to.
+     */
+    void sync(long timestamp);
+
     /** Get the ID of the stream this proxy is subscribed to.
      *
      * @return  The UUID of the stream this proxy is subscribed to.
@@ -1,9 +1,12 @@
 package org.corfudb.infrastructure;
 
+import com.codahale.metrics.Timer;
 import com.github.benmanes.caffeine.cache.CacheWriter;
 import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.io.IOException;
+import java.util.EnumMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
@@ -11,6 +14,8 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 
@@ -18,20 +23,83 @@ import lombok.extern.slf4j.Slf4j;
 
 import org.corfudb.infrastructure.log.StreamLog;
 import org.corfudb.protocols.wireprotocol.LogData;
+import org.corfudb.protocols.wireprotocol.SyncPolicy;
 import org.corfudb.runtime.exceptions.DataOutrankedException;
 import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.exceptions.TrimmedException;
+import org.corfudb.runtime.exceptions.unrecoverable.UnrecoverableCorfuInterruptedError;
 
 /**
  * BatchWriter is a class that will intercept write-through calls to batch and
  * sync writes.
+ *
+ * <p>By default, a batch is synced once the queue runs dry or it holds {@link #BATCH_SIZE}
+ * operations. In group-commit mode, the batch is instead bounded by its size in bytes
+ * ({@link #GROUP_COMMIT_MAX_BYTES}) and by the time since its first operation
+ * ({@link #GROUP_COMMIT_MAX_DELAY_NANOS}), so that batches grow with the load and the
+ * latency of the disk. Writes submitted with {@link #writeAsync(long, LogData)} do not
+ * block the caller: their futures are completed by the write processor after the sync.
+ *
+ * <p>The operations queue is bounded by {@link #QUEUE_CAPACITY}. Once it is full, callers
+ * block until the write processor catches up, which pushes back on clients, except for
+ * {@link #writeAsync(long, LogData)}, which rejects the write rather than block its caller.
+ *
+ * <p>A batch is synced according to the most durable {@link SyncPolicy} of its writes,
+ * where {@link SyncPolicy#DEFAULT} is the policy of the batch writer. Writes with the
+ * {@link SyncPolicy#INTERVAL} policy are acknowledged once written, and the log is forced
+ * at most {@code syncInterval} later, even if no more operations arrive.
+ *
+ * <p>If a sync fails, every operation of its batch fails with the cause, and the write
+ * processor carries on with the next batch.
  */
 @Slf4j
 public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
 
     static final int BATCH_SIZE = 50;
+
+    /**
+     * The maximum number of operations waiting for the write processor.
+     */
+    static final int QUEUE_CAPACITY = 4096;
+
+    /**
+     * In group-commit mode, the number of bytes after which a batch is synced.
+     */
+    static final int GROUP_COMMIT_MAX_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * In group-commit mode, the time after which a batch is synced, even if more
+     * operations are waiting.
+     */
+    static final long GROUP_COMMIT_MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    /**
+     * The default interval between the syncs of writes with the interval sync policy.
+     */
+    static final long DEFAULT_SYNC_INTERVAL_MS = 1000;
+
     private StreamLog streamLog;
     private BlockingQueue<BatchWriterOperation> operationsQueue;
+    private final boolean groupCommit;
+
+    /**
+     * The policy of the operations which don't request one.
+     */
+    private final SyncPolicy syncPolicy;
+
+    private final long syncIntervalNanos;
+
+    /**
+     * The time by which the writes synced with the interval policy must be forced, or 0 if
+     * there are none. Only accessed by the write processor.
+     */
+    private long intervalSyncDeadline = 0;
+
+    /**
+     * The latency of the syncs of each policy.
+     */
+    private final EnumMap<SyncPolicy, Timer> syncTimers = new EnumMap<>(SyncPolicy.class);
+
     final ExecutorService writerService = Executors
             .newSingleThreadExecutor(new ThreadFactoryBuilder()
                     .setDaemon(false)
@@ -44,17 +112,67 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
      * @param streamLog stream log for writes (can be in memory or file)
      */
     public BatchWriter(StreamLog streamLog) {
+        this(streamLog, false);
+    }
+
+    /**
+     * Returns a new BatchWriter for a stream log.
+     *
+     * @param streamLog   stream log for writes (can be in memory or file)
+     * @param groupCommit whether batches are bounded by bytes and time rather than count
+     */
+    public BatchWriter(StreamLog streamLog, boolean groupCommit) {
+        this(streamLog, groupCommit, SyncPolicy.FORCE, DEFAULT_SYNC_INTERVAL_MS);
+    }
+
+    /**
+     * Returns a new BatchWriter for a stream log.
+     *
+     * @param streamLog      stream log for writes (can be in memory or file)
+     * @param groupCommit    whether batches are bounded by bytes and time rather than count
+     * @param syncPolicy     the sync policy of the operations which don't request one
+     * @param syncIntervalMs the maximum time in milliseconds before writes with the
+     *                       interval sync policy are forced
+     */
+    public BatchWriter(StreamLog streamLog, boolean groupCommit, SyncPolicy syncPolicy,
+                       long syncIntervalMs) {
+        if (syncPolicy == SyncPolicy.DEFAULT) {
+            throw new IllegalArgumentException("The default sync policy must be explicit");
+        }
+
         this.streamLog = streamLog;
-        operationsQueue = new LinkedBlockingQueue<>();
+        this.groupCommit = groupCommit;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMs);
+        for (SyncPolicy policy : SyncPolicy.values()) {
+            if (policy != SyncPolicy.DEFAULT && policy != SyncPolicy.OS_MANAGED) {
+                syncTimers.put(policy, ServerContext.getMetrics().timer("logunit.sync."
+                        + policy.name().toLowerCase().replace('_', '-')));
+            }
+        }
+        operationsQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
         writerService.submit(this::batchWriteProcessor);
     }
 
+    /**
+     * Add an operation to the queue, waiting for space if it is full.
+     *
+     * @param operation the operation to add
+     */
+    private void enqueue(BatchWriterOperation operation) {
+        try {
+            operationsQueue.put(operation);
+        } catch (InterruptedException ie) {
+            throw new UnrecoverableCorfuInterruptedError(ie);
+        }
+    }
+
     @Override
     public void write(@Nonnull K key, @Nonnull V value) {
         try {
             CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.WRITE,
-                    (Long) key, (LogData) value, null, cf));
+            enqueue(new BatchWriterOperation(BatchWriterOperation.Type.WRITE,
+                    (Long) key, (LogData) value, null, null, cf));
             cf.get();
         } catch (Exception e) {
             log.trace("Write Exception {}", e);
@@ -66,11 +184,34 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
         }
     }
 
+    /**
+     * Write an entry without waiting for it to be synced.
+     *
+     * <p>The returned future is completed by the write processor once the batch containing
+     * the write is synced, or exceptionally if the write failed (e.g., with an
+     * {@link OverwriteException}). Callbacks attached to it therefore run on the write
+     * processor thread and must not block. If the queue is full, the future is completed
+     * at once with a {@link RejectedExecutionException}, and the write can be retried.
+     *
+     * @param address the address to write to
+     * @param logData the entry to write
+     * @return a future which completes once the write is durable
+     */
+    public CompletableFuture<Void> writeAsync(long address, @Nonnull LogData logData) {
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        if (!operationsQueue.offer(new BatchWriterOperation(BatchWriterOperation.Type.WRITE,
+                address, logData, null, null, cf))) {
+            cf.completeExceptionally(new RejectedExecutionException(
+                    "The write queue is full"));
+        }
+        return cf;
+    }
+
     public void bulkWrite(List<LogData> entries) {
         try {
             CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.RANGE_WRITE,
-                    null, null, entries, cf));
+            enqueue(new BatchWriterOperation(BatchWriterOperation.Type.RANGE_WRITE,
+                    null, null, entries, null, cf));
         } catch (Exception e) {
             log.trace("Write Exception {}", e);
             if (e.getCause() instanceof RuntimeException) {
@@ -89,8 +230,24 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
     public void trim(@Nonnull long address) {
         try {
             CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.TRIM,
-                    address, null, null, cf));
+            enqueue(new BatchWriterOperation(BatchWriterOperation.Type.TRIM,
+                    address, null, null, null, cf));
+            cf.get();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Trim several addresses from the log in a single operation.
+     *
+     * @param addresses log addresses to trim
+     */
+    public void trim(@Nonnull List<Long> addresses) {
+        try {
+            CompletableFuture<Void> cf = new CompletableFuture();
+            enqueue(new BatchWriterOperation(BatchWriterOperation.Type.MULTIPLE_TRIM,
+                    null, null, null, addresses, cf));
             cf.get();
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -105,8 +262,8 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
     public void prefixTrim(@Nonnull long address) {
         try {
             CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.PREFIX_TRIM,
-                    address, null, null, cf));
+            enqueue(new BatchWriterOperation(BatchWriterOperation.Type.PREFIX_TRIM,
+                    address, null, null, null, cf));
             cf.get();
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -125,30 +282,205 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
         }
     }
 
+    /**
+     * Fail the operations of a batch which could not be synced, so that their callers are
+     * not told that the operations are durable.
+     *
+     * @param batch the operations of the batch
+     * @param cause the reason the sync failed
+     */
+    private static void failBatch(List<BatchWriterOperation> batch, Exception cause) {
+        for (BatchWriterOperation operation : batch) {
+            if (operation.getException() == null) {
+                operation.setException(cause);
+            }
+        }
+    }
+
+    /**
+     * The number of bytes an operation adds to a batch.
+     */
+    private static long sizeOf(BatchWriterOperation operation) {
+        switch (operation.getType()) {
+            case WRITE:
+                return sizeOf(operation.getLogData());
+            case RANGE_WRITE:
+                return operation.getEntries().stream().mapToLong(BatchWriter::sizeOf).sum();
+            default:
+                return 0;
+        }
+    }
+
+    private static long sizeOf(LogData logData) {
+        return logData.getData() == null ? 0 : logData.getData().length;
+    }
+
+    /**
+     * The sync policy of an operation, which is the policy of the batch writer unless its
+     * writes request another one.
+     */
+    private SyncPolicy syncPolicyOf(BatchWriterOperation operation) {
+        switch (operation.getType()) {
+            case WRITE:
+                return resolve(operation.getLogData().getSyncPolicy());
+            case RANGE_WRITE:
+                return operation.getEntries().stream()
+                        .map(logData -> resolve(logData.getSyncPolicy()))
+                        .reduce(SyncPolicy.OS_MANAGED, BatchWriter::mostDurable);
+            default:
+                return syncPolicy;
+        }
+    }
+
+    /**
+     * Remove the sync policy from the entries of an operation once it is resolved, so that
+     * it is neither stored nor returned to readers, which may not know it.
+     */
+    private static void clearSyncPolicy(BatchWriterOperation operation) {
+        switch (operation.getType()) {
+            case WRITE:
+                operation.getLogData().setSyncPolicy(SyncPolicy.DEFAULT);
+                break;
+            case RANGE_WRITE:
+                operation.getEntries().forEach(logData ->
+                        logData.setSyncPolicy(SyncPolicy.DEFAULT));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private SyncPolicy resolve(SyncPolicy policy) {
+        return policy == SyncPolicy.DEFAULT ? syncPolicy : policy;
+    }
+
+    /**
+     * The most durable of two explicit policies, which are declared from the most durable.
+     */
+    private static SyncPolicy mostDurable(SyncPolicy policy, SyncPolicy other) {
+        return policy.compareTo(other) <= 0 ? policy : other;
+    }
+
+    /**
+     * Whether the current batch must be synced before more operations are added to it.
+     *
+     * @param processed  the number of operations in the batch
+     * @param batchBytes the number of bytes written by the batch
+     * @param batchStart the time the first operation of the batch was processed
+     */
+    private boolean isBatchFull(int processed, long batchBytes, long batchStart) {
+        if (!groupCommit) {
+            return processed == BATCH_SIZE;
+        }
+        return batchBytes >= GROUP_COMMIT_MAX_BYTES
+                || System.nanoTime() - batchStart >= GROUP_COMMIT_MAX_DELAY_NANOS;
+    }
+
+    /**
+     * Sync a batch according to a policy.
+     *
+     * @param policy the most durable policy of the operations of the batch
+     */
+    private void syncBatch(SyncPolicy policy) throws IOException {
+        switch (policy) {
+            case FORCE:
+                try (Timer.Context context = syncTimers.get(policy).time()) {
+                    streamLog.sync(true);
+                }
+                intervalSyncDeadline = 0;
+                break;
+            case FORCE_DATA:
+                try (Timer.Context context = syncTimers.get(policy).time()) {
+                    streamLog.sync(true, false);
+                }
+                intervalSyncDeadline = 0;
+                break;
+            case INTERVAL:
+                if (intervalSyncDeadline == 0) {
+                    intervalSyncDeadline = System.nanoTime() + syncIntervalNanos;
+                }
+                break;
+            default:
+                // The operating system flushes the writes
+                break;
+        }
+
+        if (intervalSyncDeadline != 0 && System.nanoTime() - intervalSyncDeadline >= 0) {
+            syncInterval();
+        }
+    }
+
+    /**
+     * Force the writes synced with the interval policy.
+     */
+    private void syncInterval() throws IOException {
+        try (Timer.Context context = syncTimers.get(SyncPolicy.INTERVAL).time()) {
+            streamLog.sync(true);
+        }
+        intervalSyncDeadline = 0;
+    }
+
+    /**
+     * Wait for the next operation while the write processor is idle.
+     *
+     * @return the next operation, or null if writes synced with the interval policy
+     *     are due to be forced first
+     */
+    private BatchWriterOperation takeOperation() throws InterruptedException {
+        if (intervalSyncDeadline == 0) {
+            return operationsQueue.take();
+        }
+        final long remaining = intervalSyncDeadline - System.nanoTime();
+        return remaining <= 0 ? null : operationsQueue.poll(remaining, TimeUnit.NANOSECONDS);
+    }
+
     private void batchWriteProcessor() {
         try {
             BatchWriterOperation lastOp = null;
             int processed = 0;
+            long batchBytes = 0;
+            long batchStart = 0;
+            SyncPolicy batchPolicy = SyncPolicy.OS_MANAGED;
             List<BatchWriterOperation> res = new LinkedList();
 
             while (true) {
                 BatchWriterOperation currOp;
 
                 if (lastOp == null) {
-                    currOp = operationsQueue.take();
+                    currOp = takeOperation();
+                    if (currOp == null) {
+                        try {
+                            syncInterval();
+                        } catch (Exception e) {
+                            // The writes were acknowledged already, retry once the interval
+                            // elapsed again rather than spinning on the failing sync
+                            log.error("batchWriteProcessor: Failed to sync the log", e);
+                            intervalSyncDeadline = System.nanoTime() + syncIntervalNanos;
+                        }
+                        continue;
+                    }
                 } else {
                     currOp = operationsQueue.poll();
 
-                    if (currOp == null || processed == BATCH_SIZE
+                    if (currOp == null || isBatchFull(processed, batchBytes, batchStart)
                             || currOp == BatchWriterOperation.SHUTDOWN) {
-                        streamLog.sync(true);
-                        log.trace("Sync'd {} writes", processed);
+                        try {
+                            syncBatch(batchPolicy);
+                            log.trace("Sync'd {} writes ({} bytes) with policy {}", processed,
+                                    batchBytes, batchPolicy);
+                        } catch (Exception e) {
+                            log.error("batchWriteProcessor: Failed to sync {} operations",
+                                    processed, e);
+                            failBatch(res, e);
+                        }
 
                         for (BatchWriterOperation operation : res) {
                             handleOperationResults(operation);
                         }
                         res.clear();
                         processed = 0;
+                        batchBytes = 0;
+                        batchPolicy = SyncPolicy.OS_MANAGED;
                     }
                 }
 
@@ -160,12 +492,23 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
                     streamLog.sync(true);
                     break;
                 } else {
+                    if (processed == 0) {
+                        batchStart = System.nanoTime();
+                    }
+                    batchBytes += sizeOf(currOp);
+                    batchPolicy = mostDurable(batchPolicy, syncPolicyOf(currOp));
+                    clearSyncPolicy(currOp);
+
                     try {
                         switch (currOp.getType()) {
                             case TRIM:
                                 streamLog.trim(currOp.getAddress());
                                 res.add(currOp);
                                 break;
+                            case MULTIPLE_TRIM:
+                                streamLog.trim(currOp.getAddresses());
+                                res.add(currOp);
+                                break;
                             case PREFIX_TRIM:
                                 streamLog.prefixTrim(currOp.getAddress());
                                 res.add(currOp);
@@ -197,7 +540,7 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
 
     @Override
     public void close() {
-        operationsQueue.add(BatchWriterOperation.SHUTDOWN);
+        enqueue(BatchWriterOperation.SHUTDOWN);
         writerService.shutdown();
     }
 
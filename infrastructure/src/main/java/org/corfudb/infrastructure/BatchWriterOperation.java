@@ -18,6 +18,7 @@ public class BatchWriterOperation {
         WRITE,
         RANGE_WRITE,
         TRIM,
+        MULTIPLE_TRIM,
         PREFIX_TRIM
     }
 
@@ -25,10 +26,11 @@ public class BatchWriterOperation {
     private final Long address;
     private final LogData logData;
     private final List<LogData> entries;
+    private final List<Long> addresses;
     private final CompletableFuture future;
     private Exception exception;
 
 
     public static BatchWriterOperation SHUTDOWN = new BatchWriterOperation(Type.SHUTDOWN,
-            null, null, null, null);
+            null, null, null, null, null);
 }
\ No newline at end of file
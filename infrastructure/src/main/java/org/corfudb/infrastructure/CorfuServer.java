@@ -81,7 +81,14 @@ public class CorfuServer {
                     + "<truststore_password_file>] [-b] [-g -o <username_file> -j <password_file>] "
                     + "[-k <seqcache>] [-T <threads>] [-i <channel-implementation>] [-H <seconds>] "
                     + "[-I <cluster-id>] [-x <ciphers>] [-z <tls-protocols>]] [-P <prefix>]"
-                    + " [--agent] <port>\n"
+                    + " [--sequencer-lock-free] [--sequencer-snapshot-interval=<seconds>]"
+                    + " [--group-commit] [--mmap-segments=<count>] [--zero-copy-reads]"
+                    + " [--log-compression=<codec>] [--compression-threshold=<bytes>]"
+                    + " [--compaction-rate=<bytes-per-second>] [--data-dirs=<paths>]"
+                    + " [--segment-placement=<policy>] [--sync-policy=<policy>]"
+                    + " [--sync-interval=<ms>] [--max-open-segments=<count>] [--cache-off-heap]"
+                    + " [--cache-off-heap-size=<bytes>] [--read-ahead=<records>] [--read-ahead-budget=<bytes>]"
+                    + " [--memory-limit=<bytes>] [--spill-dir=<path>] [--agent] <port>\n"
                     + "\n"
                     + "Options:\n"
                     + " -l <path>, --log-path=<path>                                             "
@@ -111,6 +118,16 @@ public class CorfuServer {
                     + "              Run the unit in-memory (non-persistent).\n"
                     + "                                                                          "
                     + "              Data will be lost when the server exits!\n"
+                    + " --memory-limit=<bytes>                                                   "
+                    + "              In-memory, keep the log entries serialized in direct memory\n"
+                    + "                                                                          "
+                    + "              up to this size and spill the coldest address ranges to\n"
+                    + "                                                                          "
+                    + "              disk, or 0 to keep them on the heap [default: 0].\n"
+                    + " --spill-dir=<path>                                                       "
+                    + "              The directory in which in-memory log entries are spilled,\n"
+                    + "                                                                          "
+                    + "              instead of the default temporary directory.\n"
                     + " -c <ratio>, --cache-heap-ratio=<ratio>                                   "
                     + "              The ratio of jvm max heap size we will use for the the "
                     + "in-memory cache to serve requests from -\n"
@@ -121,6 +138,24 @@ public class CorfuServer {
                     + "              If there is no log, then this will be the size of the log unit"
                     + "\n                                                                        "
                     + "                evicted entries will be auto-trimmed. [default: 0.5].\n"
+                    + " --cache-off-heap                                                         "
+                    + "              Keep the cached log entries serialized in direct memory,\n"
+                    + "                                                                          "
+                    + "              sized by --cache-off-heap-size, and decode them on a hit.\n"
+                    + " --cache-off-heap-size=<bytes>                                            "
+                    + "              The size of the off-heap cache, which does not depend on\n"
+                    + "                                                                          "
+                    + "              the jvm max heap size [default: 1073741824].\n"
+                    + " --read-ahead=<records>                                                   "
+                    + "              The number of log entries prefetched into the cache ahead\n"
+                    + "                                                                          "
+                    + "              of clients which read sequentially, or 0 to disable\n"
+                    + "                                                                          "
+                    + "              read-ahead [default: 64].\n"
+                    + " --read-ahead-budget=<bytes>                                              "
+                    + "              The maximum size of the prefetched log entries which were\n"
+                    + "                                                                          "
+                    + "              not read yet [default: 67108864].\n"
                     + " -H <seconds>, --HandshakeTimeout=<sceonds>                               "
                     + "              Handshake timeout in seconds [default: 10].\n               "
                     + " -t <token>, --initial-token=<token>                                      "
@@ -130,6 +165,14 @@ public class CorfuServer {
                     + "                                                                          "
                     + " -k <seqcache>, --sequencer-cache-size=<seqcache>                         "
                     + "               The size of the sequencer's cache. [default: 250000].\n    "
+                    + " --sequencer-lock-free                                                    "
+                    + "              Serve sequencer queries and non-transactional tokens\n"
+                    + "                                                                          "
+                    + "              concurrently, serializing only transaction resolution.\n"
+                    + " --sequencer-snapshot-interval=<seconds>                                  "
+                    + "              How often the sequencer persists a snapshot of its state\n"
+                    + "                                                                          "
+                    + "              to speed up failover, or 0 to disable. [default: 30].\n"
                     + " -p <seconds>, --compact=<seconds>                                        "
                     + "              The rate the log unit should compact entries (find the,\n"
                     + "                                                                          "
@@ -142,6 +185,52 @@ public class CorfuServer {
                     + "              Layout endpoint to seed Management Server\n"
                     + " -n, --no-verify                                                          "
                     + "              Disable checksum computation and verification.\n"
+                    + " --group-commit                                                           "
+                    + "              Sync log unit writes in batches bounded by size and time,\n"
+                    + "                                                                          "
+                    + "              acknowledging each write once its batch is durable.\n"
+                    + " --mmap-segments=<count>                                                  "
+                    + "              Serve reads of up to <count> sealed log segments from\n"
+                    + "                                                                          "
+                    + "              read-only memory mappings, or 0 to disable [default: 0].\n"
+                    + " --zero-copy-reads                                                        "
+                    + "              Send large uncached log entries to plaintext connections\n"
+                    + "                                                                          "
+                    + "              straight from the log files, without copying them.\n"
+                    + " --log-compression=<codec>                                                "
+                    + "              Compress the payloads of new log entries with one of\n"
+                    + "                                                                          "
+                    + "              none, deflate or snappy [default: none].\n"
+                    + " --compression-threshold=<bytes>                                          "
+                    + "              Payloads smaller than this are not compressed\n"
+                    + "                                                                          "
+                    + "              [default: 1024].\n"
+                    + " --compaction-rate=<bytes-per-second>                                     "
+                    + "              The rate at which compaction reads log files, or 0 for\n"
+                    + "                                                                          "
+                    + "              no limit [default: 67108864].\n"
+                    + " --data-dirs=<paths>                                                      "
+                    + "              Comma-separated directories, e.g. one per disk, to place\n"
+                    + "                                                                          "
+                    + "              log segments in besides the log path.\n"
+                    + " --segment-placement=<policy>                                             "
+                    + "              How new log segments are placed in the directories, one of\n"
+                    + "                                                                          "
+                    + "              round-robin or free-space [default: round-robin].\n"
+                    + " --sync-policy=<policy>                                                   "
+                    + "              How log unit writes which don't request a policy are made\n"
+                    + "                                                                          "
+                    + "              durable, one of force, force-data, interval or os-managed\n"
+                    + "                                                                          "
+                    + "              [default: force].\n"
+                    + " --sync-interval=<ms>                                                     "
+                    + "              The maximum time before writes with the interval sync\n"
+                    + "                                                                          "
+                    + "              policy are forced to disk [default: 1000].\n"
+                    + " --max-open-segments=<count>                                              "
+                    + "              The number of open log segments beyond which idle sealed\n"
+                    + "                                                                          "
+                    + "              segments are closed, or 0 for no limit [default: 256].\n"
                     + " -e, --enable-tls                                                         "
                     + "              Enable TLS.\n"
                     + " -u <keystore>, --keystore=<keystore>                                     "
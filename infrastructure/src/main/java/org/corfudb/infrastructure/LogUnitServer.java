@@ -1,37 +1,68 @@
 package org.corfudb.infrastructure;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.ReferenceCountUtil;
 
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import org.corfudb.infrastructure.log.InMemoryStreamLog;
+import org.corfudb.infrastructure.log.LogDataRegion;
+import org.corfudb.infrastructure.log.SpillingStreamLog;
 import org.corfudb.infrastructure.log.StreamLog;
 import org.corfudb.infrastructure.log.StreamLogFiles;
+import org.corfudb.protocols.logprotocol.MultiObjectSMREntry;
 import org.corfudb.protocols.wireprotocol.CorfuMsg;
 import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.CorfuPayloadMsg;
+import org.corfudb.protocols.wireprotocol.DataType;
+import org.corfudb.protocols.wireprotocol.ExceptionMsg;
+import org.corfudb.protocols.wireprotocol.FilteredReadRequest;
+import org.corfudb.protocols.wireprotocol.ICorfuPayload;
 import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.protocols.wireprotocol.MultipleReadRequest;
+import org.corfudb.protocols.wireprotocol.MultipleTrimRequest;
 import org.corfudb.protocols.wireprotocol.RangeWriteMsg;
 import org.corfudb.protocols.wireprotocol.ReadRequest;
 import org.corfudb.protocols.wireprotocol.ReadResponse;
+import org.corfudb.protocols.wireprotocol.StreamAddressSpaceRequest;
+import org.corfudb.protocols.wireprotocol.StreamAddressSpaceResponse;
+import org.corfudb.protocols.wireprotocol.SyncPolicy;
 import org.corfudb.protocols.wireprotocol.TrimRequest;
 import org.corfudb.protocols.wireprotocol.WriteRequest;
 import org.corfudb.runtime.exceptions.DataCorruptionException;
@@ -39,6 +70,7 @@ import org.corfudb.runtime.exceptions.DataOutrankedException;
 import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.exceptions.TrimmedException;
 import org.corfudb.runtime.exceptions.ValueAdoptedException;
+import org.corfudb.util.MetricsUtils;
 import org.corfudb.util.Utils;
 
 
@@ -97,21 +129,72 @@ public class LogUnitServer extends AbstractServer {
     private final LoadingCache<Long, ILogData> dataCache;
     private final long maxCacheSize;
 
+    /**
+     * Whether the data cache stores entries serialized in direct memory, as
+     * {@link OffHeapLogData}, rather than decoded on the heap.
+     */
+    private final boolean offHeapCache;
+
+    private static final String CACHE_METRICS_PREFIX = "logunit.cache.";
+
+    /**
+     * Prefetches entries into the data cache for clients which read sequentially, or null
+     * if read-ahead is disabled.
+     */
+    @Nullable
+    private final ReadAhead readAhead;
+
     private final StreamLog streamLog;
 
     private final BatchWriter<Long, ILogData> batchWriter;
 
+    /**
+     * Whether writes are acknowledged asynchronously, once their group commit is durable.
+     */
+    private final boolean groupCommit;
+
+    /**
+     * Whether large entries which are not cached are sent to plaintext connections straight
+     * from the segment files.
+     */
+    private final boolean zeroCopyReads;
+
     /**
      * Returns a new LogUnitServer.
      * @param serverContext context object providing settings and objects
      */
     public LogUnitServer(ServerContext serverContext) {
+        this(serverContext, null);
+    }
+
+    /**
+     * Returns a new LogUnitServer, which stores its entries in the given log.
+     * @param serverContext context object providing settings and objects
+     * @param backingLog    the log to store entries in, or null to open the configured one
+     */
+    @VisibleForTesting
+    LogUnitServer(ServerContext serverContext, @Nullable StreamLog backingLog) {
         this.opts = serverContext.getServerConfig();
         double cacheSizeHeapRatio = Double.parseDouble((String) opts.get("--cache-heap-ratio"));
 
-        maxCacheSize = (long) (Runtime.getRuntime().maxMemory() * cacheSizeHeapRatio);
+        offHeapCache = (Boolean) opts.get("--cache-off-heap");
+        if (offHeapCache) {
+            // Direct memory is not bounded by the heap size
+            maxCacheSize = Long.parseLong((String) opts.get("--cache-off-heap-size"));
+        } else {
+            maxCacheSize = (long) (Runtime.getRuntime().maxMemory() * cacheSizeHeapRatio);
+        }
 
-        if ((Boolean) opts.get("--memory")) {
+        final long memoryLimit = Long.parseLong((String) opts.get("--memory-limit"));
+        if (backingLog != null) {
+            streamLog = backingLog;
+        } else if ((Boolean) opts.get("--memory") && memoryLimit > 0) {
+            log.warn("Log unit opened in-memory mode, keeping up to {} of entries in direct "
+                    + "memory and spilling the rest to disk. "
+                    + "The unit WILL LOSE ALL DATA if it exits.", Utils
+                    .convertToByteStringRepresentation(memoryLimit));
+            streamLog = new SpillingStreamLog(memoryLimit, (String) opts.get("--spill-dir"));
+        } else if ((Boolean) opts.get("--memory")) {
             log.warn("Log unit opened in-memory mode (Maximum size={}). "
                     + "This should be run for testing purposes only. "
                     + "If you exceed the maximum size of the unit, old entries will be "
@@ -123,18 +206,45 @@ public class LogUnitServer extends AbstractServer {
             streamLog = new StreamLogFiles(serverContext, (Boolean) opts.get("--no-verify"));
         }
 
-        batchWriter = new BatchWriter(streamLog);
+        groupCommit = (Boolean) opts.get("--group-commit");
+        batchWriter = new BatchWriter(streamLog, groupCommit,
+                SyncPolicy.of((String) opts.get("--sync-policy")),
+                Long.parseLong((String) opts.get("--sync-interval")));
+        zeroCopyReads = (Boolean) opts.get("--zero-copy-reads");
 
-        dataCache = Caffeine.<Long, ILogData>newBuilder()
-                .<Long, ILogData>weigher((k, v) -> ((LogData) v).getData() == null ? 1 : (
-                        (LogData) v).getData().length)
+        Caffeine<Long, ILogData> cacheBuilder = Caffeine.newBuilder()
                 .maximumWeight(maxCacheSize)
-                .removalListener(this::handleEviction)
-                .writer(batchWriter)
-                .build(this::handleRetrieval);
+                .recordStats()
+                .removalListener(this::handleEviction);
+        cacheBuilder.<Long, ILogData>weigher((k, v) -> weigh(v));
+        if (!offHeapCache) {
+            // Off-heap, writes go to the batch writer before their entry is copied
+            cacheBuilder.writer(batchWriter);
+        }
+        dataCache = cacheBuilder.build(new CacheLoader<Long, ILogData>() {
+            @Override
+            public ILogData load(@Nonnull Long address) {
+                return toCacheEntry(handleRetrieval(address));
+            }
 
-        MetricRegistry metrics = serverContext.getMetrics();
-//        MetricsUtils.addCacheGauges(metrics, metricsPrefix + "cache.", dataCache);
+            @Override
+            public Map<Long, ILogData> loadAll(@Nonnull Iterable<? extends Long> addresses) {
+                Map<Long, ILogData> entries = handleBulkRetrieval(addresses);
+                entries.replaceAll((address, entry) -> toCacheEntry(entry));
+                return entries;
+            }
+        });
+
+        registerCacheMetrics(serverContext.getMetrics());
+
+        final int readAheadWindow = Integer.parseInt((String) opts.get("--read-ahead"));
+        if (readAheadWindow > 0 && streamLog instanceof StreamLogFiles) {
+            readAhead = new ReadAhead(readAheadWindow,
+                    Long.parseLong((String) opts.get("--read-ahead-budget")), dataCache,
+                    streamLog, LogUnitServer::weigh);
+        } else {
+            readAhead = null;
+        }
 
         Runnable task = () -> streamLog.compact();
         compactor = scheduler.scheduleAtFixedRate(task, 10, 45, TimeUnit.MINUTES);
@@ -164,8 +274,14 @@ public class LogUnitServer extends AbstractServer {
         log.debug("log write: global: {}, streams: {}, backpointers: {}", msg
                 .getPayload().getGlobalAddress(), msg.getPayload().getData().getBackpointerMap());
 
+        if (groupCommit) {
+            writeAsync(msg, ctx, r);
+            return;
+        }
+
         try {
-            dataCache.put(msg.getPayload().getGlobalAddress(), msg.getPayload().getData());
+            cacheWrite(msg.getPayload().getGlobalAddress(),
+                    (LogData) msg.getPayload().getData());
             r.sendResponse(ctx, msg, CorfuMsgType.WRITE_OK.msg());
 
         } catch (OverwriteException ex) {
@@ -178,21 +294,124 @@ public class LogUnitServer extends AbstractServer {
         }
     }
 
+    /**
+     * Write an entry through the data cache. The heap cache hands the entry to the batch
+     * writer itself, while the off-heap cache stores its copy once the write succeeded.
+     * Both write within the computation of the address, so concurrent writes to an address,
+     * e.g. ranked overwrites, are cached in the order in which they are written to the log.
+     *
+     * @param address the address of the entry
+     * @param entry   the entry to write
+     */
+    private void cacheWrite(long address, LogData entry) {
+        if (!offHeapCache) {
+            dataCache.put(address, entry);
+            return;
+        }
+        dataCache.asMap().compute(address, (a, cached) -> {
+            batchWriter.write(address, entry);
+            return OffHeapLogData.of(entry);
+        });
+    }
+
+    /**
+     * @param entry an entry of the data cache
+     * @return the weight of the entry in the data cache
+     */
+    private static int weigh(ILogData entry) {
+        if (entry instanceof OffHeapLogData) {
+            return ((OffHeapLogData) entry).getWeight();
+        }
+        byte[] data = ((LogData) entry).getData();
+        return data == null ? 1 : data.length;
+    }
+
+    /**
+     * @param entry an entry read from the log, or null
+     * @return the entry as it is stored in the data cache
+     */
+    private ILogData toCacheEntry(ILogData entry) {
+        return offHeapCache && entry != null ? OffHeapLogData.of((LogData) entry) : entry;
+    }
+
+    /**
+     * @param address the address of an entry of the data cache
+     * @param entry   the entry, as stored in the data cache
+     * @return the entry, decoded if it is stored off the heap
+     */
+    private LogData fromCacheEntry(long address, ILogData entry) {
+        if (!(entry instanceof OffHeapLogData)) {
+            return (LogData) entry;
+        }
+        LogData decoded = ((OffHeapLogData) entry).decode();
+        // The entry was evicted since it was looked up
+        return decoded == null ? streamLog.read(address) : decoded;
+    }
+
+    /**
+     * Export the hit rate, the number of bytes used and the evictions of the data cache.
+     * The gauges of a previous server, e.g. in tests, are replaced.
+     *
+     * @param metrics the server metric registry
+     */
+    private void registerCacheMetrics(MetricRegistry metrics) {
+        metrics.removeMatching((name, metric) -> name.startsWith(CACHE_METRICS_PREFIX));
+        MetricsUtils.addCacheGauges(metrics, CACHE_METRICS_PREFIX, dataCache);
+        metrics.register(CACHE_METRICS_PREFIX + "bytes-used", (Gauge<Long>) () ->
+                dataCache.policy().eviction()
+                        .map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L));
+    }
+
+    /**
+     * Hand a write to the batch writer without blocking the server thread, and respond
+     * once the group commit which contains it is durable. If the batch writer is backed
+     * up, the client is told the server is not ready, and retries.
+     *
+     * <p>The write bypasses the data cache, but a read of the address which misses the
+     * cache loads the entry as soon as it is appended, which may be before it is synced,
+     * as it is with the interval and OS managed sync policies. Once the entry is synced,
+     * a cached entry of the address, e.g. a hole or an entry of a lower rank, is
+     * invalidated, and the next read loads the entry from the log.
+     */
+    private void writeAsync(CorfuPayloadMsg<WriteRequest> msg, ChannelHandlerContext ctx,
+                            IServerRouter r) {
+        batchWriter.writeAsync(msg.getPayload().getGlobalAddress(),
+                (LogData) msg.getPayload().getData()).whenComplete((v, ex) -> {
+                    if (ex == null) {
+                        dataCache.invalidate(msg.getPayload().getGlobalAddress());
+                        r.sendResponse(ctx, msg, CorfuMsgType.WRITE_OK.msg());
+                        return;
+                    }
+
+                    Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                    if (cause instanceof RejectedExecutionException) {
+                        r.sendResponse(ctx, msg, CorfuMsgType.NOT_READY.msg());
+                    } else if (cause instanceof OverwriteException) {
+                        r.sendResponse(ctx, msg, CorfuMsgType.ERROR_OVERWRITE.msg());
+                    } else if (cause instanceof DataOutrankedException) {
+                        r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_OUTRANKED.msg());
+                    } else if (cause instanceof ValueAdoptedException) {
+                        r.sendResponse(ctx, msg, CorfuMsgType.ERROR_VALUE_ADOPTED.payloadMsg(
+                                ((ValueAdoptedException) cause).getReadResponse()));
+                    } else {
+                        log.error("writeAsync: Failed to write address {}",
+                                msg.getPayload().getGlobalAddress(), cause);
+                        r.sendResponse(ctx, msg, CorfuMsgType.ERROR_SERVER_EXCEPTION
+                                .payloadMsg(new ExceptionMsg(cause)));
+                    }
+                });
+    }
+
     @ServerHandler(type = CorfuMsgType.READ_REQUEST)
     private void read(CorfuPayloadMsg<ReadRequest> msg, ChannelHandlerContext ctx, IServerRouter r) {
         log.trace("read: {}", msg.getPayload().getRange());
-        ReadResponse rr = new ReadResponse();
         try {
+            List<Long> addresses = new ArrayList<>();
             for (Long l = msg.getPayload().getRange().lowerEndpoint();
                     l < msg.getPayload().getRange().upperEndpoint() + 1L; l++) {
-                ILogData e = dataCache.get(l);
-                if (e == null) {
-                    rr.put(l, LogData.getEmpty(l));
-                } else {
-                    rr.put(l, (LogData) e);
-                }
+                addresses.add(l);
             }
-            r.sendResponse(ctx, msg, CorfuMsgType.READ_RESPONSE.payloadMsg(rr));
+            sendReadResponse(msg, ctx, r, addresses);
         } catch (DataCorruptionException e) {
             r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_CORRUPTION.msg());
         }
@@ -202,28 +421,241 @@ public class LogUnitServer extends AbstractServer {
     private void multiRead(CorfuPayloadMsg<MultipleReadRequest> msg, ChannelHandlerContext ctx, IServerRouter r) {
         log.trace("multiRead: {}", msg.getPayload().getAddresses());
 
-        ReadResponse rr = new ReadResponse();
         try {
-            for (Long l : msg.getPayload().getAddresses()) {
-                ILogData e = dataCache.get(l);
-                if (e == null) {
-                    rr.put(l, LogData.getEmpty(l));
-                } else {
-                    rr.put(l, (LogData) e);
-                }
+            sendReadResponse(msg, ctx, r, msg.getPayload().getAddresses());
+        } catch (DataCorruptionException e) {
+            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_CORRUPTION.msg());
+        }
+    }
+
+    /**
+     * Service a read of the entries of some streams in a range. The entries of other
+     * streams are replaced by placeholders, and the updates of other streams are removed
+     * from transactions if the request asks for it, so that they are neither sent nor
+     * deserialized by the reader.
+     */
+    @ServerHandler(type = CorfuMsgType.FILTERED_READ_REQUEST)
+    private void filteredRead(CorfuPayloadMsg<FilteredReadRequest> msg, ChannelHandlerContext ctx,
+                              IServerRouter r) {
+        FilteredReadRequest request = msg.getPayload();
+        log.trace("filteredRead: {} of {}", request.getRange(), request.getStreams());
+        try {
+            List<Long> addresses = new ArrayList<>();
+            for (Long l = request.getRange().lowerEndpoint();
+                    l < request.getRange().upperEndpoint() + 1L; l++) {
+                addresses.add(l);
+            }
+            if (readAhead != null) {
+                readAhead.onRead(msg.getClientID(), addresses);
             }
+
+            ReadResponse rr = readAll(addresses);
+            rr.getAddresses().replaceAll((address, entry) -> filterEntry(entry, request));
             r.sendResponse(ctx, msg, CorfuMsgType.READ_RESPONSE.payloadMsg(rr));
         } catch (DataCorruptionException e) {
             r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_CORRUPTION.msg());
         }
     }
 
+    /**
+     * Filter an entry of a filtered read.
+     *
+     * @param entry   the entry read
+     * @param request the filtered read
+     * @return a placeholder if the entry has none of the streams requested, a copy of the
+     *     entry which only holds their updates if the payloads are filtered, or the entry
+     */
+    private static LogData filterEntry(LogData entry, FilteredReadRequest request) {
+        if (entry.getType() != DataType.DATA) {
+            return entry;
+        }
+        if (Collections.disjoint(entry.getStreams(), request.getStreams())) {
+            return LogData.getFiltered(entry.getGlobalAddress());
+        }
+
+        final byte[] data = entry.getData();
+        if (!request.isFilterPayloads() || data == null) {
+            return entry;
+        }
+        final byte[] filteredData = MultiObjectSMREntry.filterStreams(data, request.getStreams());
+        if (filteredData == data) {
+            return entry;
+        }
+        LogData filtered = new LogData(DataType.DATA, Unpooled.wrappedBuffer(filteredData));
+        filtered.getMetadataMap().putAll(entry.getMetadataMap());
+        return filtered;
+    }
+
+    /**
+     * Respond to a read. Unless zero-copy reads are disabled or the connection is encrypted,
+     * the payloads of large entries which are not cached are written from the segment files
+     * to the socket with file regions, rather than decoded and encoded again. The read is
+     * accounted for by the read-ahead, which may prefetch the addresses following it.
+     *
+     * @param msg       the read request
+     * @param ctx       the context of the channel handler
+     * @param r         the server router
+     * @param addresses the addresses to read
+     */
+    private void sendReadResponse(CorfuMsg msg, ChannelHandlerContext ctx, IServerRouter r,
+                                  Collection<Long> addresses) {
+        if (readAhead != null) {
+            readAhead.onRead(msg.getClientID(), addresses);
+        }
+
+        if (!zeroCopyReads || !isPlaintext(ctx)) {
+            r.sendResponse(ctx, msg, CorfuMsgType.READ_RESPONSE.payloadMsg(readAll(addresses)));
+            return;
+        }
+
+        Set<Long> uniqueAddresses = new LinkedHashSet<>(addresses);
+        Map<Long, LogDataRegion> regions = new HashMap<>();
+        List<Long> buffered = new ArrayList<>();
+        try {
+            for (Long address : uniqueAddresses) {
+                LogDataRegion region = dataCache.getIfPresent(address) == null
+                        ? streamLog.readRegion(address) : null;
+                if (region == null) {
+                    buffered.add(address);
+                } else {
+                    regions.put(address, region);
+                }
+            }
+        } catch (RuntimeException e) {
+            regions.values().forEach(ReferenceCountUtil::release);
+            throw e;
+        }
+
+        if (regions.isEmpty()) {
+            r.sendResponse(ctx, msg, CorfuMsgType.READ_RESPONSE.payloadMsg(readAll(addresses)));
+            return;
+        }
+
+        Map<Long, LogData> entries;
+        try {
+            entries = readAll(buffered).getAddresses();
+        } catch (RuntimeException e) {
+            regions.values().forEach(ReferenceCountUtil::release);
+            throw e;
+        }
+        writeReadResponse(ctx, msg, uniqueAddresses, entries, regions);
+    }
+
+    /**
+     * @param ctx the context of the channel handler
+     * @return true, if messages are framed by a length field and the connection is not
+     *     encrypted, so file regions can be written to the socket as they are
+     */
+    private static boolean isPlaintext(ChannelHandlerContext ctx) {
+        if (ctx == null) {
+            return false;
+        }
+        ChannelPipeline pipeline = ctx.pipeline();
+        return pipeline.get(SslHandler.class) == null
+                && pipeline.get(LengthFieldPrepender.class) != null;
+    }
+
+    /**
+     * Write a READ_RESPONSE frame in several parts, bypassing the message encoder and the
+     * frame length prepender: the payload of each region is written as a file region, and
+     * everything around it is serialized to buffers. The frame is exactly the one the
+     * encoders would produce for the response.
+     *
+     * @param ctx       the context of the channel handler
+     * @param request   the read request
+     * @param addresses the addresses of the response, in order
+     * @param entries   the entries which are sent from buffers
+     * @param regions   the entries which are sent from file regions, released once written
+     */
+    @VisibleForTesting
+    static void writeReadResponse(ChannelHandlerContext ctx, CorfuMsg request,
+                                  Collection<Long> addresses, Map<Long, LogData> entries,
+                                  Map<Long, LogDataRegion> regions) {
+        CorfuMsg response = CorfuMsgType.READ_RESPONSE.payloadMsg(new ReadResponse());
+        response.copyBaseFields(request);
+
+        List<Object> parts = new ArrayList<>();
+        ByteBuf buf = ctx.alloc().buffer();
+        // The frame length is set once every part is serialized
+        buf.writeInt(0);
+        response.serialize(buf);
+        // Replace the size of the empty map by the number of entries
+        buf.writerIndex(buf.writerIndex() - Integer.BYTES);
+        buf.writeInt(addresses.size());
+
+        long frameLength = -Integer.BYTES;
+        for (Long address : addresses) {
+            ICorfuPayload.serialize(buf, address);
+            LogDataRegion region = regions.get(address);
+            if (region == null) {
+                ICorfuPayload.serialize(buf, entries.get(address));
+                continue;
+            }
+
+            // The entry is serialized with an empty payload, i.e. its type is followed by a
+            // payload length of 0, then by its metadata. The payload goes in between.
+            final int entryIndex = buf.writerIndex();
+            ICorfuPayload.serialize(buf, region.getHeader());
+            final int dataIndex = entryIndex + Byte.BYTES + Integer.BYTES;
+            buf.setInt(entryIndex + Byte.BYTES, (int) region.count());
+
+            ByteBuf metadata = ctx.alloc().buffer();
+            metadata.writeBytes(buf, dataIndex, buf.writerIndex() - dataIndex);
+            buf.writerIndex(dataIndex);
+            parts.add(buf);
+            parts.add(region);
+            frameLength += buf.readableBytes() + region.count();
+            buf = metadata;
+        }
+        parts.add(buf);
+        frameLength += buf.readableBytes();
+        ((ByteBuf) parts.get(0)).setInt(0, (int) frameLength);
+
+        // The parts of the frame must not interleave with other responses, so they are all
+        // written by a single task of the event loop.
+        final ChannelHandlerContext framer = ctx.pipeline().context(LengthFieldPrepender.class);
+        Runnable write = () -> {
+            for (Object part : parts) {
+                // A partially written frame can't be recovered from
+                framer.write(part).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            }
+            framer.flush();
+        };
+        if (ctx.executor().inEventLoop()) {
+            write.run();
+        } else {
+            ctx.executor().execute(write);
+        }
+        log.trace("Sent response: {} with {} file regions", response, regions.size());
+    }
+
+    /**
+     * Read several addresses through the cache, loading all the misses with one bulk read.
+     *
+     * @param addresses the addresses to read
+     * @return a response with an entry for every address, empty if it was not written
+     */
+    private ReadResponse readAll(Iterable<Long> addresses) {
+        Map<Long, ILogData> entries = dataCache.getAll(addresses);
+        ReadResponse rr = new ReadResponse();
+        for (Long l : addresses) {
+            ILogData e = entries.get(l);
+            LogData entry = e == null ? null : fromCacheEntry(l, e);
+            if (entry == null) {
+                rr.put(l, LogData.getEmpty(l));
+            } else {
+                rr.put(l, entry);
+            }
+        }
+        return rr;
+    }
+
     @ServerHandler(type = CorfuMsgType.FILL_HOLE)
     private void fillHole(CorfuPayloadMsg<TrimRequest> msg, ChannelHandlerContext ctx,
         IServerRouter r) {
         try {
             long address = msg.getPayload().getAddress();
-            dataCache.put(address, LogData.getHole(address));
+            cacheWrite(address, LogData.getHole(address));
             r.sendResponse(ctx, msg, CorfuMsgType.WRITE_OK.msg());
 
         } catch (OverwriteException e) {
@@ -244,6 +676,13 @@ public class LogUnitServer extends AbstractServer {
         r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
     }
 
+    @ServerHandler(type = CorfuMsgType.MULTIPLE_TRIM)
+    private void multipleTrim(CorfuPayloadMsg<MultipleTrimRequest> msg, ChannelHandlerContext ctx,
+                              IServerRouter r) {
+        batchWriter.trim(msg.getPayload().getAddresses());
+        r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
+    }
+
     @ServerHandler(type = CorfuMsgType.PREFIX_TRIM)
     private void prefixTrim(CorfuPayloadMsg<TrimRequest> msg, ChannelHandlerContext ctx,
                             IServerRouter r) {
@@ -255,6 +694,24 @@ public class LogUnitServer extends AbstractServer {
         }
     }
 
+    /**
+     * Service a request for the addresses of a stream in a range, which this log unit
+     * stores. The trim mark is sent along, since the addresses below it are left out. A log
+     * which does not index its streams sends no addresses, rather than reading the range.
+     */
+    @ServerHandler(type = CorfuMsgType.STREAM_ADDRESS_SPACE_REQUEST)
+    private void getStreamAddressSpace(CorfuPayloadMsg<StreamAddressSpaceRequest> msg,
+                                       ChannelHandlerContext ctx, IServerRouter r) {
+        StreamAddressSpaceRequest request = msg.getPayload();
+        long trimMark = streamLog.getTrimMark();
+        List<Long> addresses = streamLog.getStreamAddresses(request.getStreamId(),
+                request.getStart(), request.getEnd());
+        r.sendResponse(ctx, msg, CorfuMsgType.STREAM_ADDRESS_SPACE_RESPONSE
+                .payloadMsg(addresses == null
+                        ? new StreamAddressSpaceResponse(trimMark, false, Collections.emptyList())
+                        : new StreamAddressSpaceResponse(trimMark, true, addresses)));
+    }
+
     @ServerHandler(type = CorfuMsgType.COMPACT_REQUEST)
     private void compact(CorfuMsg msg, ChannelHandlerContext ctx, IServerRouter r) {
         try {
@@ -310,16 +767,35 @@ public class LogUnitServer extends AbstractServer {
      *     the read() and append(). Any address that cannot be retrieved should be returned as
      *     unwritten (null).
      */
-    public synchronized ILogData handleRetrieval(long address) {
+    public ILogData handleRetrieval(long address) {
         LogData entry = streamLog.read(address);
         log.trace("Retrieved[{} : {}]", address, entry);
         return entry;
     }
 
+    /**
+     * Retrieve the entries of several addresses from disk, reading the addresses of each
+     * segment in one pass.
+     *
+     * @param addresses The addresses to retrieve the entries from.
+     * @return The entries of the addresses which were written.
+     */
+    public Map<Long, ILogData> handleBulkRetrieval(Iterable<? extends Long> addresses) {
+        Map<Long, ILogData> entries = new HashMap<>(streamLog.readAll(addresses));
+        log.trace("Retrieved {} entries", entries.size());
+        return entries;
+    }
 
-    public synchronized void handleEviction(long address, ILogData entry, RemovalCause cause) {
+    public void handleEviction(long address, ILogData entry, RemovalCause cause) {
         log.trace("Eviction[{}]: {}", address, cause);
-        streamLog.release(address, (LogData) entry);
+        if (readAhead != null) {
+            readAhead.onEviction(address);
+        }
+        if (entry instanceof OffHeapLogData) {
+            ((OffHeapLogData) entry).release();
+        } else {
+            streamLog.release(address, (LogData) entry);
+        }
     }
 
     /**
@@ -330,6 +806,13 @@ public class LogUnitServer extends AbstractServer {
         compactor.cancel(true);
         scheduler.shutdownNow();
         batchWriter.close();
+        if (readAhead != null) {
+            readAhead.close();
+        }
+        if (offHeapCache) {
+            // Return the memory of the entries
+            dataCache.invalidateAll();
+        }
     }
 
     @VisibleForTesting
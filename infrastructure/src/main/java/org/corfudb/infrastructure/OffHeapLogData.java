@@ -0,0 +1,138 @@
+package org.corfudb.infrastructure;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.util.EnumMap;
+
+import javax.annotation.Nullable;
+
+import lombok.Getter;
+
+import org.corfudb.protocols.wireprotocol.DataType;
+import org.corfudb.protocols.wireprotocol.ICorfuPayload;
+import org.corfudb.protocols.wireprotocol.ILogData;
+import org.corfudb.protocols.wireprotocol.LogData;
+import org.corfudb.runtime.CorfuRuntime;
+
+/**
+ * A log entry of the data cache kept off the heap: the entry is stored serialized, in
+ * direct memory allocated from the slabs (chunks) of a dedicated pooled allocator, and is
+ * decoded on every hit into a new {@link LogData}, which is garbage once the read is served.
+ *
+ * <p>The entry is weighed by its serialized size, i.e. the number of bytes it holds in
+ * direct memory. Its memory is returned to the allocator when it is evicted from the cache;
+ * a hit which raced with the eviction finds the entry released and reads it from the log.
+ */
+class OffHeapLogData implements ILogData {
+
+    /**
+     * Allocates the memory of all off-heap entries, apart from the buffers of the server.
+     */
+    private static final PooledByteBufAllocator ALLOCATOR = new PooledByteBufAllocator(true);
+
+    @Getter
+    private final DataType type;
+
+    private final int size;
+
+    private ByteBuf buffer;
+
+    private OffHeapLogData(DataType type, ByteBuf buffer) {
+        this.type = type;
+        this.size = buffer.readableBytes();
+        this.buffer = buffer;
+    }
+
+    /**
+     * Copy an entry off the heap.
+     *
+     * @param entry the entry to store
+     * @return the off-heap copy of the entry
+     */
+    static OffHeapLogData of(LogData entry) {
+        ByteBuf serialized = ALLOCATOR.directBuffer();
+        try {
+            ICorfuPayload.serialize(serialized, entry);
+            ByteBuf buffer = ALLOCATOR.directBuffer(serialized.readableBytes(),
+                    serialized.readableBytes());
+            buffer.writeBytes(serialized);
+            return new OffHeapLogData(entry.getType(), buffer);
+        } finally {
+            serialized.release();
+        }
+    }
+
+    /**
+     * @return the number of bytes the entry holds in direct memory
+     */
+    int getWeight() {
+        return size;
+    }
+
+    /**
+     * Decode the entry.
+     *
+     * @return a new copy of the entry on the heap, or null if the entry was released
+     */
+    @Nullable
+    synchronized LogData decode() {
+        if (buffer == null) {
+            return null;
+        }
+        return new LogData(buffer.duplicate());
+    }
+
+    /**
+     * Return the memory of the entry to the allocator.
+     */
+    synchronized void release() {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+    }
+
+    private LogData decodeOrThrow() {
+        LogData entry = decode();
+        if (entry == null) {
+            throw new IllegalStateException("Entry was evicted from the cache");
+        }
+        return entry;
+    }
+
+    @Override
+    public Object getPayload(CorfuRuntime t) {
+        return decodeOrThrow().getPayload(t);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The map is decoded from the stored entry, so changes to it are not kept.
+     */
+    @Override
+    public EnumMap<LogUnitMetadataType, Object> getMetadataMap() {
+        return decodeOrThrow().getMetadataMap();
+    }
+
+    @Override
+    public int getSizeEstimate() {
+        return size;
+    }
+
+    @Override
+    public void releaseBuffer() {
+        // The entry is always serialized
+    }
+
+    @Override
+    public void acquireBuffer() {
+        // The entry is always serialized
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapLogData[" + size + " bytes]";
+    }
+}
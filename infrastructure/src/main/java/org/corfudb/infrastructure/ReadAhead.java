@@ -0,0 +1,232 @@
+package org.corfudb.infrastructure;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+import javax.annotation.Nullable;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.corfudb.infrastructure.log.StreamLog;
+import org.corfudb.protocols.wireprotocol.ILogData;
+
+/**
+ * Prefetches log entries into the data cache of a log unit, for clients which read the
+ * log in ascending order, e.g. to replay the log, a stream or the state of a node.
+ *
+ * <p>A client reads sequentially once a read starts right after the end of its previous
+ * read. The addresses following the read, up to the global tail, are then loaded into the
+ * cache by a separate thread, so that the next reads of the client hit the cache rather
+ * than wait for the disk. A client is prefetched at most one window of addresses ahead of
+ * its reads, and the next window is prefetched once it read half of the current one.
+ *
+ * <p>Prefetched entries which were not read yet are bounded by a budget in bytes. Once it
+ * is exhausted, nothing is prefetched until reads or evictions from the cache free some
+ * of it.
+ */
+@Slf4j
+class ReadAhead implements AutoCloseable {
+
+    /**
+     * The number of clients whose reads are tracked.
+     */
+    private static final int MAX_CLIENTS = 1024;
+
+    private static final String METRICS_PREFIX = "logunit.read-ahead.";
+
+    /**
+     * The number of addresses prefetched ahead of the reads of a client.
+     */
+    private final int window;
+
+    private final long budget;
+
+    private final LoadingCache<Long, ILogData> dataCache;
+
+    private final StreamLog streamLog;
+
+    private final ToIntFunction<ILogData> weigher;
+
+    /**
+     * The weight of each prefetched entry which was not read yet.
+     */
+    private final Map<Long, Integer> prefetched = new ConcurrentHashMap<>();
+
+    private final AtomicLong prefetchedBytes = new AtomicLong();
+
+    private final Cache<UUID, Cursor> cursors = Caffeine.newBuilder()
+            .maximumSize(MAX_CLIENTS)
+            .expireAfterAccess(1, TimeUnit.MINUTES)
+            .build();
+
+    private final Counter prefetchedEntries;
+
+    private final Counter hits;
+
+    private final Counter wasted;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("LogUnit-ReadAhead-%d")
+                    .build());
+
+    /**
+     * Returns a new ReadAhead for the data cache of a log unit.
+     *
+     * @param window    the number of addresses prefetched ahead of the reads of a client
+     * @param budget    the maximum number of bytes of prefetched entries not read yet
+     * @param dataCache the data cache, which loads entries from the stream log
+     * @param streamLog the stream log
+     * @param weigher   the weight of an entry in the data cache, in bytes
+     */
+    ReadAhead(int window, long budget, LoadingCache<Long, ILogData> dataCache,
+              StreamLog streamLog, ToIntFunction<ILogData> weigher) {
+        this.window = window;
+        this.budget = budget;
+        this.dataCache = dataCache;
+        this.streamLog = streamLog;
+        this.weigher = weigher;
+
+        MetricRegistry metrics = ServerContext.getMetrics();
+        prefetchedEntries = metrics.counter(METRICS_PREFIX + "prefetched");
+        hits = metrics.counter(METRICS_PREFIX + "hits");
+        wasted = metrics.counter(METRICS_PREFIX + "wasted");
+        // The gauges of a previous log unit, e.g. in tests, are replaced
+        metrics.remove(METRICS_PREFIX + "hit-rate");
+        metrics.register(METRICS_PREFIX + "hit-rate", (Gauge<Double>) () ->
+                prefetchedEntries.getCount() == 0 ? 0.0
+                        : (double) hits.getCount() / prefetchedEntries.getCount());
+        metrics.remove(METRICS_PREFIX + "bytes");
+        metrics.register(METRICS_PREFIX + "bytes", (Gauge<Long>) prefetchedBytes::get);
+    }
+
+    /**
+     * Account for a read, and prefetch the addresses which follow it if the client reads
+     * sequentially.
+     *
+     * @param clientId  the client which reads, if known
+     * @param addresses the addresses read
+     */
+    void onRead(@Nullable UUID clientId, Collection<Long> addresses) {
+        if (addresses.isEmpty()) {
+            return;
+        }
+
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (long address : addresses) {
+            first = Math.min(first, address);
+            last = Math.max(last, address);
+            Integer weight = prefetched.remove(address);
+            if (weight != null) {
+                hits.inc();
+                prefetchedBytes.addAndGet(-weight);
+            }
+        }
+
+        if (clientId == null) {
+            return;
+        }
+
+        final Cursor cursor = cursors.get(clientId, id -> new Cursor());
+        final long from;
+        final long to;
+        synchronized (cursor) {
+            final boolean sequential = first == cursor.next;
+            cursor.next = last + 1;
+            if (!sequential) {
+                cursor.prefetchedUpTo = last;
+                return;
+            }
+            if (cursor.prefetchedUpTo - last > window / 2
+                    || prefetchedBytes.get() >= budget) {
+                return;
+            }
+            from = Math.max(last, cursor.prefetchedUpTo) + 1;
+            to = Math.min(last + window, streamLog.getGlobalTail());
+            if (from > to) {
+                return;
+            }
+            cursor.prefetchedUpTo = to;
+        }
+        executor.execute(() -> prefetch(from, to));
+    }
+
+    /**
+     * Account for an entry which left the data cache.
+     *
+     * @param address the address of the entry
+     */
+    void onEviction(long address) {
+        Integer weight = prefetched.remove(address);
+        if (weight != null) {
+            wasted.inc();
+            prefetchedBytes.addAndGet(-weight);
+        }
+    }
+
+    /**
+     * Load the entries of a range of addresses which are not cached yet into the cache.
+     *
+     * @param from the first address
+     * @param to   the last address
+     */
+    private void prefetch(long from, long to) {
+        List<Long> addresses = new ArrayList<>();
+        for (long address = from; address <= to; address++) {
+            if (!dataCache.asMap().containsKey(address)) {
+                addresses.add(address);
+            }
+        }
+
+        try {
+            for (Map.Entry<Long, ILogData> entry : dataCache.getAll(addresses).entrySet()) {
+                final int weight = weigher.applyAsInt(entry.getValue());
+                if (prefetched.putIfAbsent(entry.getKey(), weight) == null) {
+                    prefetchedBytes.addAndGet(weight);
+                    prefetchedEntries.inc();
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("prefetch: Failed to read ahead [{}, {}]", from, to, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The reads of a client.
+     */
+    private static class Cursor {
+        /**
+         * The address after the last read of the client.
+         */
+        long next = Long.MIN_VALUE;
+
+        /**
+         * The last address prefetched for the client.
+         */
+        long prefetchedUpTo = Long.MIN_VALUE;
+    }
+}
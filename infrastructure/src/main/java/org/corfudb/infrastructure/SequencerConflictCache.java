@@ -0,0 +1,325 @@
+package org.corfudb.infrastructure;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.function.LongConsumer;
+
+import net.openhft.hashing.LongHashFunction;
+
+import org.corfudb.runtime.view.Address;
+
+/**
+ * A fixed-capacity cache of the latest global address at which each conflict parameter
+ * was written, used by the sequencer to resolve transactions.
+ *
+ * <p>A (stream, conflict parameter) pair is identified by a 128-bit key, built from two
+ * 64-bit hashes of the parameter combined with the two halves of the stream ID. Keys,
+ * and the addresses they map to, are kept in primitive arrays, so neither lookups nor
+ * updates allocate.
+ *
+ * <p>Entries are kept in a ring in the order in which they were written. Since the
+ * sequencer writes conflict parameters with monotonically increasing addresses, the
+ * ring is also ordered by address: the oldest entry is the one with the smallest address.
+ * When the cache is full, the oldest entry is evicted; trimming evicts entries from the
+ * head of the ring until it reaches the trim mark. Every eviction is reported to the
+ * eviction listener, which the sequencer uses to maintain its conflict wildcard.
+ *
+ * <p>An open-addressing index (linear probing, backward-shift deletion) maps keys to
+ * their position in the ring. Updating a key marks its old ring entry as dead, and
+ * appends a new one at the tail.
+ *
+ * <p>This class is not thread-safe, callers must provide their own synchronization.
+ */
+public class SequencerConflictCache {
+
+    /** Hash function for the high 64 bits of a key. */
+    private static final LongHashFunction HASH_HI = LongHashFunction.xx(0x6a09e667f3bcc908L);
+
+    /** Hash function for the low 64 bits of a key. */
+    private static final LongHashFunction HASH_LO = LongHashFunction.xx(0xbb67ae8584caa73bL);
+
+    /** Marks a ring entry whose key has since been rewritten. */
+    private static final long DEAD = Long.MIN_VALUE;
+
+    /** The maximum number of entries in the ring. */
+    private final int capacity;
+
+    /** The high 64 bits of the key at each ring position. */
+    private final long[] ringHi;
+
+    /** The low 64 bits of the key at each ring position. */
+    private final long[] ringLo;
+
+    /** The address at each ring position, or {@link #DEAD}. */
+    private final long[] ringAddress;
+
+    /** Ring position + 1 of each key, or 0 for an empty slot. */
+    private final int[] index;
+
+    /** Mask to map hashes to index slots. */
+    private final int indexMask;
+
+    /** Sequence number of the oldest ring entry. */
+    private long head = 0;
+
+    /** Sequence number of the next ring entry. */
+    private long tail = 0;
+
+    /** Number of live (not dead) entries. */
+    private int size = 0;
+
+    /** Receives the address of every evicted entry. */
+    private final LongConsumer evictionListener;
+
+    /**
+     * Create a new conflict cache.
+     *
+     * @param capacity         the maximum number of entries
+     * @param evictionListener receives the address of every entry evicted from the cache
+     */
+    public SequencerConflictCache(int capacity, LongConsumer evictionListener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Conflict cache capacity must be positive, got "
+                    + capacity);
+        }
+        this.capacity = capacity;
+        this.evictionListener = evictionListener;
+        ringHi = new long[capacity];
+        ringLo = new long[capacity];
+        ringAddress = new long[capacity];
+
+        // Keep the index at most half full.
+        int indexSize = Integer.highestOneBit(capacity) << 2;
+        index = new int[indexSize];
+        indexMask = indexSize - 1;
+    }
+
+    /**
+     * Get the latest address a conflict parameter was written at.
+     *
+     * @param streamId      the stream of the conflict parameter
+     * @param conflictParam the conflict parameter
+     * @return the latest address, or {@link Address#NON_EXIST} if it is not in the cache
+     */
+    public long get(UUID streamId, byte[] conflictParam) {
+        final long hi = hashHi(streamId, conflictParam);
+        final long lo = hashLo(streamId, conflictParam);
+        final int slot = findSlot(hi, lo);
+        return slot < 0 ? Address.NON_EXIST : ringAddress[index[slot] - 1];
+    }
+
+    /**
+     * Record that a conflict parameter was written at the given address, which must not
+     * be smaller than any address previously recorded.
+     *
+     * @param streamId      the stream of the conflict parameter
+     * @param conflictParam the conflict parameter
+     * @param address       the address it was written at
+     */
+    public void put(UUID streamId, byte[] conflictParam, long address) {
+        put(hashHi(streamId, conflictParam), hashLo(streamId, conflictParam), address);
+    }
+
+    /**
+     * Record the address of an already hashed key, e.g. one restored from a snapshot.
+     *
+     * @param hi      the high 64 bits of the key
+     * @param lo      the low 64 bits of the key
+     * @param address the address it was written at
+     */
+    void put(long hi, long lo, long address) {
+        final int existing = findSlot(hi, lo);
+        if (existing >= 0) {
+            ringAddress[index[existing] - 1] = DEAD;
+            removeSlot(existing);
+            size--;
+        }
+
+        if (tail - head == capacity) {
+            evictHead();
+        }
+
+        final int pos = (int) (tail++ % capacity);
+        ringHi[pos] = hi;
+        ringLo[pos] = lo;
+        ringAddress[pos] = address;
+        size++;
+
+        int slot = home(hi, lo);
+        while (index[slot] != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        index[slot] = pos + 1;
+    }
+
+    /**
+     * Evict every entry with an address below the trim mark.
+     *
+     * @param trimMark the trim mark
+     * @return the number of entries evicted
+     */
+    public long trim(long trimMark) {
+        return trim(trimMark, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Evict entries with an address below the trim mark, visiting at most the given
+     * number of ring entries, so that a large trim can be split into short steps.
+     *
+     * @param trimMark   the trim mark
+     * @param maxEntries the maximum number of ring entries (live or dead) to remove
+     * @return the number of entries evicted
+     */
+    public long trim(long trimMark, int maxEntries) {
+        long evicted = 0;
+        for (int visited = 0; visited < maxEntries && hasEntriesBelow(trimMark); visited++) {
+            if (evictHead()) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * @param trimMark the trim mark
+     * @return true, if a trim to the given mark would remove anything
+     */
+    public boolean hasEntriesBelow(long trimMark) {
+        if (head == tail) {
+            return false;
+        }
+        final long address = ringAddress[(int) (head % capacity)];
+        return address == DEAD || address < trimMark;
+    }
+
+    /**
+     * Remove every entry, without notifying the eviction listener.
+     */
+    public void clear() {
+        Arrays.fill(index, 0);
+        head = 0;
+        tail = 0;
+        size = 0;
+    }
+
+    /**
+     * Visit every entry of the cache, oldest (smallest address) first.
+     *
+     * @param consumer receives the key and address of each entry
+     */
+    void forEach(EntryConsumer consumer) {
+        for (long seq = head; seq != tail; seq++) {
+            final int pos = (int) (seq % capacity);
+            if (ringAddress[pos] != DEAD) {
+                consumer.accept(ringHi[pos], ringLo[pos], ringAddress[pos]);
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries in the cache
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of entries in the cache
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Remove the oldest ring entry, notifying the listener if it was live.
+     *
+     * @return true, if the removed entry was live
+     */
+    private boolean evictHead() {
+        final int pos = (int) (head++ % capacity);
+        final long address = ringAddress[pos];
+        if (address == DEAD) {
+            return false;
+        }
+        removeSlot(findSlot(ringHi[pos], ringLo[pos]));
+        size--;
+        evictionListener.accept(address);
+        return true;
+    }
+
+    /**
+     * Find the index slot of a key.
+     *
+     * @return the slot, or -1 if the key is not present
+     */
+    private int findSlot(long hi, long lo) {
+        int slot = home(hi, lo);
+        while (true) {
+            final int ref = index[slot];
+            if (ref == 0) {
+                return -1;
+            }
+            if (ringHi[ref - 1] == hi && ringLo[ref - 1] == lo) {
+                return slot;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    /**
+     * Remove an index slot, shifting back any entries of its probe sequence.
+     */
+    private void removeSlot(int slot) {
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & indexMask;
+            final int ref = index[next];
+            if (ref == 0) {
+                break;
+            }
+            final int home = home(ringHi[ref - 1], ringLo[ref - 1]);
+            // Leave the entry in place if its home lies cyclically in (hole, next].
+            final boolean inRange = hole <= next
+                    ? hole < home && home <= next
+                    : hole < home || home <= next;
+            if (!inRange) {
+                index[hole] = ref;
+                hole = next;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    private int home(long hi, long lo) {
+        return (int) mix(hi ^ lo) & indexMask;
+    }
+
+    private static long hashHi(UUID streamId, byte[] conflictParam) {
+        return mix(HASH_HI.hashBytes(conflictParam) ^ streamId.getMostSignificantBits());
+    }
+
+    private static long hashLo(UUID streamId, byte[] conflictParam) {
+        return mix(HASH_LO.hashBytes(conflictParam) ^ streamId.getLeastSignificantBits());
+    }
+
+    /**
+     * Receives the hashed key and the address of a cache entry.
+     */
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long hi, long lo, long address);
+    }
+
+    /**
+     * A bijective 64-bit finalizer (from MurmurHash3).
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -2,20 +2,32 @@ package org.corfudb.infrastructure;
 
 import static org.corfudb.protocols.wireprotocol.TokenType.TX_ABORT_SEQ_OVERFLOW;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.channel.ChannelHandlerContext;
+import java.io.File;
+import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -24,11 +36,14 @@ import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.CorfuPayloadMsg;
 import org.corfudb.protocols.wireprotocol.SequencerTailsRecoveryMsg;
 import org.corfudb.protocols.wireprotocol.Token;
+import org.corfudb.protocols.wireprotocol.TokenBatchRequest;
+import org.corfudb.protocols.wireprotocol.TokenBatchResponse;
 import org.corfudb.protocols.wireprotocol.TokenRequest;
 import org.corfudb.protocols.wireprotocol.TokenResponse;
 import org.corfudb.protocols.wireprotocol.TokenType;
 import org.corfudb.protocols.wireprotocol.TxResolutionInfo;
 import org.corfudb.runtime.view.Address;
+import org.corfudb.util.MetricsUtils;
 import org.corfudb.util.Utils;
 
 /**
@@ -38,6 +53,10 @@ import org.corfudb.util.Utils;
  *
  * <p>TOKEN_REQ - Request the next address.
  *
+ * <p>TOKEN_BATCH_REQ - Several token requests coalesced by a client into one message.
+ *
+ * <p>SEQUENCER_SNAPSHOT_REQ - Query the latest snapshot persisted by this sequencer.
+ *
  * <p>The sequencer server maintains the current tail of the log, the current
  * tail of every stream, and a cache of timestamps of updates on recent
  * conflict-parameters.
@@ -67,6 +86,16 @@ import org.corfudb.util.Utils;
  * commits, the sequencer updates the tails of all the streams and the cache
  * of conflict parameters.
  *
+ * <p>By default every token request is serialized. When the server is started with
+ * --sequencer-lock-free, queries and raw tokens are served without any lock, multi-stream
+ * allocations only share a read lock with each other, and only the TK_TX conflict check
+ * plus its allocation (along with trims and resets) take the exclusive lock.
+ *
+ * <p>Unless running in memory, the sequencer periodically persists a {@link SequencerSnapshot}
+ * of its state (every --sequencer-snapshot-interval seconds, and on shutdown). A new primary
+ * sequencer only needs to scan the log written after its snapshot to rebuild the stream
+ * tails, and restores its conflict cache if nothing was written after the snapshot.
+ *
  * <p>Created by mwei on 12/8/15.
  */
 @Slf4j
@@ -90,15 +119,14 @@ public class SequencerServer extends AbstractServer {
     private final AtomicLong globalLogTail = new AtomicLong(Address
             .getMinAddress());
 
-    private long trimMark = Address.NON_ADDRESS;
+    private volatile long trimMark = Address.NON_ADDRESS;
 
     /**
      * - {@link SequencerServer::streamTailToGlobalTailMap}:
      * per streams map to last issued global-log position. used for
      * backpointers.
      */
-    private final ConcurrentHashMap<UUID, Long> streamTailToGlobalTailMap = new
-            ConcurrentHashMap<>();
+    private final StreamTailMap streamTailToGlobalTailMap = new StreamTailMap();
 
     /**
      * TX conflict-resolution information:
@@ -111,9 +139,74 @@ public class SequencerServer extends AbstractServer {
      * a "wildcard" representing the maximal update timestamp of
      * all the confict keys which were evicted from the cache
      */
-    private long maxConflictWildcard = Address.NOT_FOUND;
+    private volatile long maxConflictWildcard = Address.NOT_FOUND;
+
+    private final SequencerConflictCache conflictToGlobalTailCache;
+
+    /**
+     * Whether token requests are dispatched without the exclusive lock.
+     */
+    @Getter
+    private final boolean lockFree;
+
+    /**
+     * Guards the stream tails and the conflict cache against concurrent updates.
+     *
+     * <p>Multi-stream allocations hold the read lock, so that they may proceed in parallel
+     * while a transaction can never observe a global address without the stream tails that
+     * it carries. Transaction resolution, trims and resets hold the write lock.
+     */
+    private final ReentrantReadWriteLock tokenLock = new ReentrantReadWriteLock();
+
+    /**
+     * The number of stripes used to order allocations on the same stream.
+     */
+    private static final int STREAM_LOCK_STRIPES = 256;
+
+    /**
+     * Orders concurrent multi-stream allocations which touch the same streams.
+     */
+    private final Striped<Lock> streamLocks = Striped.lock(STREAM_LOCK_STRIPES);
 
-    private final Cache<String, Long> conflictToGlobalTailCache;
+    /**
+     * The maximum number of conflict cache entries evicted while holding the write lock.
+     */
+    private static final int TRIM_CHUNK_SIZE = 4096;
+
+    /**
+     * Duration of conflict cache trims.
+     */
+    private final Timer trimTimer = ServerContext.getMetrics()
+            .timer("sequencer.conflict-cache.trim");
+
+    /**
+     * Number of conflict cache entries evicted by trims.
+     */
+    private final Counter trimEvictedCounter = ServerContext.getMetrics()
+            .counter("sequencer.conflict-cache.trim-evicted");
+
+    /**
+     * Where snapshots of the sequencer state are persisted, or null in memory mode.
+     */
+    private final Path snapshotFile;
+
+    /**
+     * Takes periodic snapshots of the sequencer state.
+     */
+    private final ScheduledExecutorService snapshotScheduler =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("Sequencer-Snapshot-%d")
+                            .build());
+
+    private ScheduledFuture<?> snapshotTask;
+
+    /**
+     * The global tail of the last snapshot written, to skip snapshots of an idle sequencer.
+     * Only accessed by {@link #writeSnapshot()}, which is synchronized.
+     */
+    private long lastSnapshotTail = Address.NON_ADDRESS;
 
     /**
      * Handler for this server.
@@ -130,7 +223,8 @@ public class SequencerServer extends AbstractServer {
     @Override
     public boolean isServerReadyToHandleMsg(CorfuMsg msg) {
         if ((readyStateEpoch != serverContext.getServerEpoch())
-                && (!msg.getMsgType().equals(CorfuMsgType.BOOTSTRAP_SEQUENCER))) {
+                && (!msg.getMsgType().equals(CorfuMsgType.BOOTSTRAP_SEQUENCER))
+                && (!msg.getMsgType().equals(CorfuMsgType.SEQUENCER_SNAPSHOT_REQ))) {
             log.warn("Rejecting msg at sequencer : sequencerStateEpoch:{}, serverEpoch:{}, "
                     + "msg:{}", readyStateEpoch, serverContext.getServerEpoch(), msg);
             return false;
@@ -159,29 +253,96 @@ public class SequencerServer extends AbstractServer {
 
         }
 
-        conflictToGlobalTailCache = Caffeine.newBuilder()
-                .maximumSize(cacheSize)
-                .removalListener((String k, Long v, RemovalCause cause) -> {
-                    if (!RemovalCause.REPLACED.equals(cause)) {
-                        log.trace("Updating maxConflictWildcard. Old value = '{}', new value='{}'"
-                                        + " conflictParam = '{}'. Removal cause = '{}'",
-                                maxConflictWildcard, v, k, cause);
-                        maxConflictWildcard = Math.max(v, maxConflictWildcard);
-                    }
-                })
-                .recordStats()
-                .build();
+        lockFree = opts.get("--sequencer-lock-free") != null
+                && (Boolean) opts.get("--sequencer-lock-free");
+
+        conflictToGlobalTailCache = new SequencerConflictCache(Math.toIntExact(cacheSize),
+                evicted -> {
+                    log.trace("Updating maxConflictWildcard. Old value = '{}', new value='{}'",
+                            maxConflictWildcard, evicted);
+                    maxConflictWildcard = Math.max(evicted, maxConflictWildcard);
+                });
+
+        final boolean memory = opts.get("--memory") != null && (Boolean) opts.get("--memory");
+        if (memory || opts.get("--log-path") == null) {
+            snapshotFile = null;
+        } else {
+            snapshotFile = Paths.get((String) opts.get("--log-path"), "sequencer",
+                    SequencerSnapshot.FILE_NAME);
+
+            long snapshotInterval = 30;
+            if (opts.get("--sequencer-snapshot-interval") != null) {
+                snapshotInterval = Long.parseLong(
+                        (String) opts.get("--sequencer-snapshot-interval"));
+            }
+            if (snapshotInterval > 0) {
+                snapshotTask = snapshotScheduler.scheduleWithFixedDelay(this::writeSnapshot,
+                        snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Persist a snapshot of the sequencer state, unless it has not changed since the
+     * last snapshot or the sequencer has not been bootstrapped yet.
+     *
+     * <p>The global tail is read first, and the conflict cache, which only transactions,
+     * trims and resets change under the exclusive lock, is copied under the shared lock, so
+     * allocations which don't need the exclusive lock carry on. The stream tails are copied
+     * last, without any lock: they may include tails issued after the global tail of the
+     * snapshot, which recovery takes into account.
+     */
+    @VisibleForTesting
+    synchronized void writeSnapshot() {
+        if (snapshotFile == null || readyStateEpoch < 0) {
+            return;
+        }
+
+        SequencerSnapshot snapshot;
+        tokenLock.readLock().lock();
+        try {
+            if (globalLogTail.get() == lastSnapshotTail) {
+                return;
+            }
+            snapshot = SequencerSnapshot.of(readyStateEpoch, globalLogTail.get(), trimMark,
+                    maxConflictWildcard, conflictToGlobalTailCache);
+        } finally {
+            tokenLock.readLock().unlock();
+        }
+
+        snapshot = snapshot.withStreamTails(streamTailToGlobalTailMap.toMap());
+        if (snapshot.getEpoch() != readyStateEpoch) {
+            // The sequencer was reset while the stream tails were copied
+            return;
+        }
+
+        try {
+            snapshot.write(snapshotFile);
+            lastSnapshotTail = snapshot.getGlobalTail();
+            log.debug("writeSnapshot: Wrote snapshot at global tail {} with {} streams and {} "
+                            + "conflict keys", snapshot.getGlobalTail(),
+                    snapshot.getStreamTails().size(), snapshot.conflictCacheSize());
+        } catch (IOException e) {
+            log.warn("writeSnapshot: Failed to write sequencer snapshot {}", snapshotFile, e);
+        }
     }
 
     /**
-    * Get the conflict hash code for a stream ID and conflict param.
-    *
-    * @param streamId      The stream ID.
-    * @param conflictParam The conflict parameter.
-    * @return A conflict hash code.
-    */
-    private String getConflictHashCode(UUID streamId, byte[] conflictParam) {
-        return streamId.toString() + Utils.bytesToHex(conflictParam);
+     * Service a query for the latest snapshot persisted by this sequencer.
+     *
+     * <p>The response carries the global tail, the stream tails and the epoch of the
+     * snapshot. If there is no snapshot, the global tail is {@link Address#NON_ADDRESS}.
+     */
+    @ServerHandler(type = CorfuMsgType.SEQUENCER_SNAPSHOT_REQ)
+    public void snapshotRequest(CorfuMsg msg, ChannelHandlerContext ctx, IServerRouter r) {
+        SequencerSnapshot snapshot = snapshotFile == null ? null
+                : SequencerSnapshot.read(snapshotFile);
+        SequencerTailsRecoveryMsg response = snapshot == null
+                ? new SequencerTailsRecoveryMsg(Address.NON_ADDRESS, Collections.emptyMap(),
+                        Address.NON_ADDRESS)
+                : new SequencerTailsRecoveryMsg(snapshot.getGlobalTail(),
+                        snapshot.getStreamTails(), snapshot.getEpoch());
+        r.sendResponse(ctx, msg, CorfuMsgType.SEQUENCER_SNAPSHOT_RES.payloadMsg(response));
     }
 
     /**
@@ -224,13 +385,11 @@ public class SequencerServer extends AbstractServer {
                 // if not present, check against the wildcard
                 for (byte[] conflictParam : conflictParamSet) {
 
-                    String conflictKeyHash = getConflictHashCode(entry.getKey(),
-                            conflictParam);
-                    Long v = conflictToGlobalTailCache.getIfPresent(conflictKeyHash);
+                    long v = conflictToGlobalTailCache.get(entry.getKey(), conflictParam);
 
                     log.trace("Commit-ck[{}] conflict-key[{}](ts={})", txInfo, conflictParam, v);
 
-                    if (v != null && v > txSnapshotTimestamp) {
+                    if (v != Address.NON_EXIST && v > txSnapshotTimestamp) {
                         log.debug("ABORT[{}] conflict-key[{}](ts={})", txInfo, conflictParam, v);
                         conflictKey.set(conflictParam);
                         response.set(TokenType.TX_ABORT_CONFLICT);
@@ -246,17 +405,12 @@ public class SequencerServer extends AbstractServer {
                 }
             } else { // otherwise, check for conflict based on streams updates
                 UUID streamId = entry.getKey();
-                streamTailToGlobalTailMap.compute(streamId, (k, v) -> {
-                    if (v == null) {
-                        return null;
-                    }
-                    if (v > txSnapshotTimestamp) {
-                        log.debug("ABORT[{}] conflict-stream[{}](ts={})",
-                                txInfo, Utils.toReadableId(streamId), v);
-                        response.set(TokenType.TX_ABORT_CONFLICT);
-                    }
-                    return v;
-                });
+                long v = streamTailToGlobalTailMap.get(streamId);
+                if (v != Address.NON_EXIST && v > txSnapshotTimestamp) {
+                    log.debug("ABORT[{}] conflict-stream[{}](ts={})",
+                            txInfo, Utils.toReadableId(streamId), v);
+                    response.set(TokenType.TX_ABORT_CONFLICT);
+                }
             }
         }
 
@@ -269,55 +423,69 @@ public class SequencerServer extends AbstractServer {
      * <p>This returns information about the tail of the
      * log and/or streams without changing/allocating anything.
      *
-     * @param msg corfu message containing token query
-     * @param ctx netty ChannelHandlerContext
-     * @param r   server router
+     * <p>If streams are specified, the token is the maximum tail among them, and the
+     * tail of each stream is returned in the stream tails (backpointer) map, so that
+     * the tails of many streams can be resolved in a single request.
+     *
+     * @param req         token query
+     * @param serverEpoch the epoch to stamp the token with
+     * @return the token response
      */
-    private void handleTokenQuery(CorfuPayloadMsg<TokenRequest> msg,
-                                 ChannelHandlerContext ctx, IServerRouter r) {
-        TokenRequest req = msg.getPayload();
+    private TokenResponse handleTokenQuery(TokenRequest req, long serverEpoch) {
 
-        // sanity backward-compatibility assertion; TODO: remove
-        if (req.getStreams().size() > 1) {
-            log.error("TOKEN-QUERY[{}]", req.getStreams());
+        // If no streams are specified in the request, return the last global token issued.
+        if (req.getStreams().isEmpty()) {
+            Token token = new Token(globalLogTail.get() - 1, serverEpoch);
+            return new TokenResponse(TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
+                    Collections.emptyMap());
         }
 
         long maxStreamGlobalTail = Address.NON_EXIST;
-
-        // see if this query is for a specific stream-tail
-        if (req.getStreams().size() == 1) {
-            UUID streamId = req.getStreams().iterator().next();
-
-            if (streamTailToGlobalTailMap.get(streamId) != null) {
-                maxStreamGlobalTail = streamTailToGlobalTailMap.get(streamId);
-            }
+        ImmutableMap.Builder<UUID, Long> streamTails = ImmutableMap.builder();
+        for (UUID streamId : req.getStreams()) {
+            long streamTail = streamTailToGlobalTailMap.get(streamId);
+            streamTails.put(streamId, streamTail);
+            maxStreamGlobalTail = Math.max(maxStreamGlobalTail, streamTail);
         }
 
-        // If no streams are specified in the request, this value returns the last global token
-        // issued.
-        long responseGlobalTail = (req.getStreams().size() == 0) ? globalLogTail.get() - 1 :
-                maxStreamGlobalTail;
-        Token token = new Token(responseGlobalTail, r.getServerEpoch());
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(
-                TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token, Collections.emptyMap())));
+        Token token = new Token(maxStreamGlobalTail, serverEpoch);
+        return new TokenResponse(TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
+                streamTails.build());
     }
 
+    /**
+     * Service a request to trim the conflict cache.
+     *
+     * <p>The conflict cache is ordered by address, so a trim only visits the entries it
+     * evicts. They are evicted in chunks of {@link #TRIM_CHUNK_SIZE}, releasing the lock
+     * between chunks so that token requests are not blocked for the whole trim. This is
+     * safe because the trim mark is advanced first: any transaction whose snapshot is below
+     * it aborts, and entries below it can never conflict with a snapshot above it.
+     */
     @ServerHandler(type = CorfuMsgType.SEQUENCER_TRIM_REQ)
-    public synchronized void trimCache(CorfuPayloadMsg<Long> msg,
-                                       ChannelHandlerContext ctx, IServerRouter r) {
+    public void trimCache(CorfuPayloadMsg<Long> msg,
+                          ChannelHandlerContext ctx, IServerRouter r) {
         log.info("trimCache: Starting cache eviction");
-        if (trimMark < msg.getPayload()) {
-            // Advance the trim mark, if the new trim request has a higher trim mark.
-            trimMark = msg.getPayload();
-        }
-
+        final Timer.Context context = MetricsUtils.getConditionalContext(trimTimer);
         long entries = 0;
-        for (Map.Entry<String, Long> entry : conflictToGlobalTailCache.asMap().entrySet()) {
-            if (entry.getValue() < trimMark) {
-                conflictToGlobalTailCache.invalidate(entry.getKey());
-                entries++;
+        boolean trimmed = false;
+        while (!trimmed) {
+            tokenLock.writeLock().lock();
+            try {
+                if (trimMark < msg.getPayload()) {
+                    // Advance the trim mark, if the new trim request has a higher trim mark.
+                    trimMark = msg.getPayload();
+                }
+
+                entries += conflictToGlobalTailCache.trim(trimMark, TRIM_CHUNK_SIZE);
+                trimmed = !conflictToGlobalTailCache.hasEntriesBelow(trimMark);
+            } finally {
+                tokenLock.writeLock().unlock();
             }
         }
+        MetricsUtils.stopConditionalContext(context);
+        MetricsUtils.incConditionalCounter(MetricsUtils.isMetricsCollectionEnabled(),
+                trimEvictedCounter, entries);
         log.info("trimCache: Evicted {} entries", entries);
         r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
     }
@@ -326,8 +494,21 @@ public class SequencerServer extends AbstractServer {
      * Service an incoming request to reset the sequencer.
      */
     @ServerHandler(type = CorfuMsgType.BOOTSTRAP_SEQUENCER)
-    public synchronized void resetServer(CorfuPayloadMsg<SequencerTailsRecoveryMsg> msg,
-                                         ChannelHandlerContext ctx, IServerRouter r) {
+    public void resetServer(CorfuPayloadMsg<SequencerTailsRecoveryMsg> msg,
+                            ChannelHandlerContext ctx, IServerRouter r) {
+        tokenLock.writeLock().lock();
+        try {
+            resetServerLocked(msg, ctx, r);
+        } finally {
+            tokenLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Resets the sequencer state, must be called while holding the write lock.
+     */
+    private void resetServerLocked(CorfuPayloadMsg<SequencerTailsRecoveryMsg> msg,
+                                   ChannelHandlerContext ctx, IServerRouter r) {
         long initialToken = msg.getPayload().getGlobalTail();
         final Map<UUID, Long> streamTails = msg.getPayload().getStreamTails();
         final long readyEpoch = msg.getPayload().getReadyStateEpoch();
@@ -356,11 +537,13 @@ public class SequencerServer extends AbstractServer {
         if (initialToken > globalLogTail.get()) {
             globalLogTail.set(initialToken);
             maxConflictWildcard = initialToken - 1;
-            conflictToGlobalTailCache.invalidateAll();
+            conflictToGlobalTailCache.clear();
 
             // Clear the existing map as it could have been populated by an earlier reset.
             streamTailToGlobalTailMap.clear();
             streamTailToGlobalTailMap.putAll(streamTails);
+
+            restoreConflictCache(initialToken, readyEpoch);
         }
 
         // Mark the sequencer as ready after the tails have been populated.
@@ -372,31 +555,158 @@ public class SequencerServer extends AbstractServer {
         r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
     }
 
+    /**
+     * Restore the conflict cache from the persisted snapshot, if the snapshot was taken at
+     * the tail the sequencer is reset to. Conflict parameters are not written to the log,
+     * so if anything was written after the snapshot, the wildcard must stay at the new tail.
+     * Must be called while holding the write lock.
+     *
+     * @param initialToken the tail the sequencer is reset to
+     * @param readyEpoch   the epoch the sequencer is bootstrapped in
+     */
+    private void restoreConflictCache(long initialToken, long readyEpoch) {
+        if (snapshotFile == null) {
+            return;
+        }
+
+        SequencerSnapshot snapshot = SequencerSnapshot.read(snapshotFile);
+        if (snapshot == null || snapshot.getGlobalTail() != initialToken
+                || snapshot.getEpoch() > readyEpoch) {
+            return;
+        }
+
+        maxConflictWildcard = snapshot.getMaxConflictWildcard();
+        trimMark = Math.max(trimMark, snapshot.getTrimMark());
+        snapshot.restoreConflictCache(conflictToGlobalTailCache);
+        log.info("restoreConflictCache: Restored {} conflict keys from snapshot at global "
+                + "tail {}", snapshot.conflictCacheSize(), initialToken);
+    }
+
+    /**
+     * Persist a final snapshot, so that a planned failover can restore the conflict cache.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (snapshotTask != null) {
+            snapshotTask.cancel(false);
+        }
+        snapshotScheduler.shutdownNow();
+        writeSnapshot();
+    }
+
     /**
      * Service an incoming token request.
      */
     @ServerHandler(type = CorfuMsgType.TOKEN_REQ)
-    public synchronized void tokenRequest(CorfuPayloadMsg<TokenRequest> msg,
-                                          ChannelHandlerContext ctx, IServerRouter r) {
-        TokenRequest req = msg.getPayload();
+    public void tokenRequest(CorfuPayloadMsg<TokenRequest> msg,
+                             ChannelHandlerContext ctx, IServerRouter r) {
+        TokenResponse response = serveTokenRequest(msg.getPayload(), r.getServerEpoch());
+        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(response));
+    }
+
+    /**
+     * Service a batch of token requests, which were coalesced by a client.
+     *
+     * <p>Requests are served in the order in which they appear in the batch, exactly as
+     * if each had been sent in its own TOKEN_REQ, and all of the responses are returned
+     * in a single TOKEN_BATCH_RES.
+     */
+    @ServerHandler(type = CorfuMsgType.TOKEN_BATCH_REQ)
+    public void tokenBatchRequest(CorfuPayloadMsg<TokenBatchRequest> msg,
+                                  ChannelHandlerContext ctx, IServerRouter r) {
+        final long serverEpoch = r.getServerEpoch();
+        List<TokenRequest> requests = msg.getPayload().getRequests();
+        List<TokenResponse> responses = new ArrayList<>(requests.size());
+        for (TokenRequest req : requests) {
+            responses.add(serveTokenRequest(req, serverEpoch));
+        }
+        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_BATCH_RES.payloadMsg(
+                new TokenBatchResponse(responses)));
+    }
+
+    /**
+     * Serve a single token request, holding whatever lock its type requires.
+     *
+     * @param req         the token request
+     * @param serverEpoch the epoch to stamp the token with
+     * @return the token response
+     */
+    private TokenResponse serveTokenRequest(TokenRequest req, long serverEpoch) {
+        if (!lockFree) {
+            tokenLock.writeLock().lock();
+            try {
+                return dispatchTokenRequest(req, serverEpoch);
+            } finally {
+                tokenLock.writeLock().unlock();
+            }
+        }
+
+        // In lock-free mode, each request type acquires only what it needs:
+        // queries and raw tokens touch nothing but atomics and the concurrent tail map.
+        switch (req.getReqType()) {
+            case TokenRequest.TK_QUERY:
+            case TokenRequest.TK_RAW:
+                return dispatchTokenRequest(req, serverEpoch);
+
+            case TokenRequest.TK_TX:
+                tokenLock.writeLock().lock();
+                try {
+                    return dispatchTokenRequest(req, serverEpoch);
+                } finally {
+                    tokenLock.writeLock().unlock();
+                }
+
+            default:
+                return handleConcurrentAllocation(req, serverEpoch);
+        }
+    }
+
+    /**
+     * Serve a multi-stream allocation concurrently with other allocations.
+     *
+     * <p>Allocations which share a stream must still be ordered, otherwise a later
+     * address could be recorded as the tail (and backpointer) before an earlier one.
+     * The stream locks are striped and acquired in a consistent order, so requests on
+     * disjoint streams do not contend with each other.
+     *
+     * @param req         allocation request
+     * @param serverEpoch the epoch to stamp the token with
+     * @return the token response
+     */
+    private TokenResponse handleConcurrentAllocation(TokenRequest req, long serverEpoch) {
+        Iterable<Lock> locks = streamLocks.bulkGet(req.getStreams());
+        tokenLock.readLock().lock();
+        try {
+            locks.forEach(Lock::lock);
+            try {
+                return handleAllocation(req, serverEpoch);
+            } finally {
+                locks.forEach(Lock::unlock);
+            }
+        } finally {
+            tokenLock.readLock().unlock();
+        }
+    }
 
+    /**
+     * Dispatch a token request to its handler according to its type. The caller is
+     * responsible for holding the appropriate lock.
+     */
+    private TokenResponse dispatchTokenRequest(TokenRequest req, long serverEpoch) {
         // dispatch request handler according to request type
         switch (req.getReqType()) {
             case TokenRequest.TK_QUERY:
-                handleTokenQuery(msg, ctx, r);
-                return;
+                return handleTokenQuery(req, serverEpoch);
 
             case TokenRequest.TK_RAW:
-                handleRawToken(msg, ctx, r);
-                return;
+                return handleRawToken(req, serverEpoch);
 
             case TokenRequest.TK_TX:
-                handleTxToken(msg, ctx, r);
-                return;
+                return handleTxToken(req, serverEpoch);
 
             default:
-                handleAllocation(msg, ctx, r);
-                return;
+                return handleAllocation(req, serverEpoch);
         }
     }
 
@@ -404,19 +714,14 @@ public class SequencerServer extends AbstractServer {
      * this method serves log-tokens for a raw log implementation.
      * it simply extends the global log tail and returns the global-log token
      *
-     * @param msg corfu message containing raw token
-     * @param ctx netty ChannelHandlerContext
-     * @param r   server router
+     * @param req         raw token request
+     * @param serverEpoch the epoch to stamp the token with
+     * @return the token response
      */
-    private void handleRawToken(CorfuPayloadMsg<TokenRequest> msg,
-                                ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
-
+    private TokenResponse handleRawToken(TokenRequest req, long serverEpoch) {
         Token token = new Token(globalLogTail.getAndAdd(req.getNumTokens()), serverEpoch);
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(
-                TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token, Collections.emptyMap())));
-
+        return new TokenResponse(TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
+                Collections.emptyMap());
     }
 
     /**
@@ -428,14 +733,11 @@ public class SequencerServer extends AbstractServer {
      * - if the transaction may commit,
      * then a normal allocation of log position(s) is pursued.
      *
-     * @param msg corfu message containing transaction token
-     * @param ctx netty ChannelHandlerContext
-     * @param r   server router
+     * @param req         transaction token request
+     * @param serverEpoch the epoch to stamp the token with
+     * @return the token response
      */
-    private void handleTxToken(CorfuPayloadMsg<TokenRequest> msg,
-                               ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
+    private TokenResponse handleTxToken(TokenRequest req, long serverEpoch) {
 
         // Since Java does not allow an easy way for a function to return multiple values, this
         // variable is passed to the consumer that will use it to indicate to us if/what key was
@@ -449,15 +751,13 @@ public class SequencerServer extends AbstractServer {
         if (tokenType != TokenType.NORMAL) {
             // If the txn aborts, then DO NOT hand out a token.
             Token token = new Token(Address.ABORTED, serverEpoch);
-            r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(tokenType,
-                    conflictKey.get(), token, Collections.emptyMap())));
-            return;
+            return new TokenResponse(tokenType, conflictKey.get(), token, Collections.emptyMap());
         }
 
         // if we get here, this means the transaction can commit.
         // handleAllocation() does the actual allocation of log position(s)
         // and returns the reponse
-        handleAllocation(msg, ctx, r);
+        return handleAllocation(req, serverEpoch);
     }
 
     /**
@@ -465,14 +765,11 @@ public class SequencerServer extends AbstractServer {
      * it also maintains stream-tails, returns a map of stream-tails for backpointers,
      * and maintains a conflict-parameters map.
      *
-     * @param msg corfu message containing allocation
-     * @param ctx netty ChannelHandlerContext
-     * @param r   server router
+     * @param req         allocation request
+     * @param serverEpoch the epoch to stamp the token with
+     * @return the token response
      */
-    private void handleAllocation(CorfuPayloadMsg<TokenRequest> msg,
-                                  ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
+    private TokenResponse handleAllocation(TokenRequest req, long serverEpoch) {
 
         // extend the tail of the global log by the requested # of tokens
         // currentTail is the first available position in the global log
@@ -487,15 +784,7 @@ public class SequencerServer extends AbstractServer {
         for (UUID id : req.getStreams()) {
 
             // step 1. and 2. (comment above)
-            streamTailToGlobalTailMap.compute(id, (k, v) -> {
-                if (v == null) {
-                    backPointerMap.put(k, Address.NON_EXIST);
-                    return newTail - 1;
-                } else {
-                    backPointerMap.put(k, v);
-                    return newTail - 1;
-                }
-            });
+            backPointerMap.put(id, streamTailToGlobalTailMap.put(id, newTail - 1));
         }
 
         // update the cache of conflict parameters
@@ -509,10 +798,8 @@ public class SequencerServer extends AbstractServer {
                                     // insert an entry with the new timestamp
                                     // using the hash code based on the param
                                     // and the stream id.
-                                    conflictToGlobalTailCache.put(
-                                            getConflictHashCode(txEntry
-                                                    .getKey(), conflictParam),
-                                            newTail - 1)));
+                                    conflictToGlobalTailCache.put(txEntry.getKey(),
+                                            conflictParam, newTail - 1)));
         }
 
         log.trace("token {} backpointers {}",
@@ -520,13 +807,12 @@ public class SequencerServer extends AbstractServer {
         // return the token response with the new global tail
         // and the streams backpointers
         Token token = new Token(currentTail, serverEpoch);
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(new TokenResponse(
-                TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
-                backPointerMap.build())));
+        return new TokenResponse(TokenType.NORMAL, TokenResponse.NO_CONFLICT_KEY, token,
+                backPointerMap.build());
     }
 
     @VisibleForTesting
-    public Cache<String, Long> getConflictToGlobalTailCache() {
+    public SequencerConflictCache getConflictToGlobalTailCache() {
         return conflictToGlobalTailCache;
     }
 }
@@ -0,0 +1,238 @@
+package org.corfudb.infrastructure;
+
+import com.google.common.hash.Hashing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A point-in-time copy of the sequencer state, persisted so that a sequencer can be
+ * bootstrapped without rebuilding its state from the whole log.
+ *
+ * <p>A snapshot holds the global tail at the time it was taken, the tail of every stream,
+ * and the content of the conflict cache. Stream tails are combined with a scan of the log
+ * suffix written after the snapshot. The conflict cache can only be restored if nothing
+ * was written after the snapshot, since conflict parameters are not part of the log.
+ *
+ * <p>The file format is a CRC32C checksum of the payload, followed by the payload:
+ * magic, version, epoch, global tail, trim mark, conflict wildcard, then the stream
+ * tails (msb, lsb, tail) and the conflict cache entries (hi, lo, address), each preceded
+ * by their count. The file is replaced atomically, so a crash never leaves a partial
+ * snapshot behind.
+ */
+@Slf4j
+public class SequencerSnapshot {
+
+    /** File name of the snapshot, in the sequencer directory of the log path. */
+    static final String FILE_NAME = "sequencer.snapshot";
+
+    private static final int MAGIC = 0x53455153;
+
+    private static final int VERSION = 1;
+
+    /** The epoch in which the snapshot was taken. */
+    @Getter
+    private final long epoch;
+
+    /** The first address the sequencer had not issued when the snapshot was taken. */
+    @Getter
+    private final long globalTail;
+
+    @Getter
+    private final long trimMark;
+
+    @Getter
+    private final long maxConflictWildcard;
+
+    @Getter
+    private final Map<UUID, Long> streamTails;
+
+    /** Keys and addresses of the conflict cache entries, in address order. */
+    private final long[] conflictHi;
+    private final long[] conflictLo;
+    private final long[] conflictAddress;
+
+    private SequencerSnapshot(long epoch, long globalTail, long trimMark,
+                              long maxConflictWildcard, Map<UUID, Long> streamTails,
+                              long[] conflictHi, long[] conflictLo, long[] conflictAddress) {
+        this.epoch = epoch;
+        this.globalTail = globalTail;
+        this.trimMark = trimMark;
+        this.maxConflictWildcard = maxConflictWildcard;
+        this.streamTails = streamTails;
+        this.conflictHi = conflictHi;
+        this.conflictLo = conflictLo;
+        this.conflictAddress = conflictAddress;
+    }
+
+    /**
+     * Copy the sequencer state, but the stream tails, which are added with
+     * {@link #withStreamTails(Map)}. The caller must make sure the conflict cache does not
+     * change while it is being copied.
+     *
+     * @param epoch               the epoch of the sequencer
+     * @param globalTail          the first address not yet issued
+     * @param trimMark            the sequencer trim mark
+     * @param maxConflictWildcard the conflict wildcard
+     * @param conflictCache       the conflict cache
+     * @return a snapshot of the state, without stream tails
+     */
+    static SequencerSnapshot of(long epoch, long globalTail, long trimMark,
+                                long maxConflictWildcard, SequencerConflictCache conflictCache) {
+        final int size = conflictCache.size();
+        final long[] hi = new long[size];
+        final long[] lo = new long[size];
+        final long[] address = new long[size];
+        final int[] i = {0};
+        conflictCache.forEach((h, l, a) -> {
+            hi[i[0]] = h;
+            lo[i[0]] = l;
+            address[i[0]] = a;
+            i[0]++;
+        });
+        return new SequencerSnapshot(epoch, globalTail, trimMark, maxConflictWildcard,
+                new HashMap<>(), hi, lo, address);
+    }
+
+    /**
+     * @param tails the stream tails, which may include tails issued after the global tail
+     *              of the snapshot
+     * @return a copy of this snapshot with the stream tails
+     */
+    SequencerSnapshot withStreamTails(Map<UUID, Long> tails) {
+        return new SequencerSnapshot(epoch, globalTail, trimMark, maxConflictWildcard, tails,
+                conflictHi, conflictLo, conflictAddress);
+    }
+
+    /**
+     * Load the conflict cache entries of this snapshot into a cache.
+     *
+     * @param conflictCache the (empty) cache to restore
+     */
+    void restoreConflictCache(SequencerConflictCache conflictCache) {
+        for (int i = 0; i < conflictAddress.length; i++) {
+            conflictCache.put(conflictHi[i], conflictLo[i], conflictAddress[i]);
+        }
+    }
+
+    /**
+     * @return the number of conflict cache entries in the snapshot
+     */
+    int conflictCacheSize() {
+        return conflictAddress.length;
+    }
+
+    /**
+     * Atomically replace the snapshot file with this snapshot.
+     *
+     * @param file the snapshot file
+     * @throws IOException if the snapshot could not be written
+     */
+    void write(Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(epoch);
+            out.writeLong(globalTail);
+            out.writeLong(trimMark);
+            out.writeLong(maxConflictWildcard);
+
+            out.writeInt(streamTails.size());
+            for (Map.Entry<UUID, Long> entry : streamTails.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeLong(entry.getValue());
+            }
+
+            out.writeInt(conflictAddress.length);
+            for (int i = 0; i < conflictAddress.length; i++) {
+                out.writeLong(conflictHi[i]);
+                out.writeLong(conflictLo[i]);
+                out.writeLong(conflictAddress[i]);
+            }
+        }
+
+        final byte[] payload = bytes.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + payload.length);
+        buffer.putInt(Hashing.crc32c().hashBytes(payload).asInt());
+        buffer.put(payload);
+
+        Files.createDirectories(file.getParent());
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmpFile, buffer.array(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SYNC);
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot file.
+     *
+     * @param file the snapshot file
+     * @return the snapshot, or null if there is none or it is not readable
+     */
+    @Nullable
+    static SequencerSnapshot read(Path file) {
+        if (Files.notExists(file)) {
+            return null;
+        }
+
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            final int checksum = buffer.getInt();
+            if (checksum != Hashing.crc32c().hashBytes(buffer.array(), buffer.position(),
+                    buffer.remaining()).asInt()) {
+                log.warn("read: Ignoring corrupted sequencer snapshot {}", file);
+                return null;
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                log.warn("read: Ignoring sequencer snapshot {} with unknown format", file);
+                return null;
+            }
+
+            final long epoch = buffer.getLong();
+            final long globalTail = buffer.getLong();
+            final long trimMark = buffer.getLong();
+            final long maxConflictWildcard = buffer.getLong();
+
+            final int numStreams = buffer.getInt();
+            Map<UUID, Long> streamTails = new HashMap<>(numStreams * 2);
+            for (int i = 0; i < numStreams; i++) {
+                streamTails.put(new UUID(buffer.getLong(), buffer.getLong()), buffer.getLong());
+            }
+
+            final int numConflicts = buffer.getInt();
+            final long[] hi = new long[numConflicts];
+            final long[] lo = new long[numConflicts];
+            final long[] address = new long[numConflicts];
+            for (int i = 0; i < numConflicts; i++) {
+                hi[i] = buffer.getLong();
+                lo[i] = buffer.getLong();
+                address[i] = buffer.getLong();
+            }
+
+            return new SequencerSnapshot(epoch, globalTail, trimMark, maxConflictWildcard,
+                    streamTails, hi, lo, address);
+        } catch (IOException | BufferUnderflowException e) {
+            log.warn("read: Could not read sequencer snapshot {}", file, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package org.corfudb.infrastructure;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+import org.corfudb.runtime.view.Address;
+
+/**
+ * A map from stream IDs to the last global address issued on each stream, kept in
+ * primitive arrays so that neither lookups nor updates allocate.
+ *
+ * <p>The map is split into segments, each an open-addressing table (linear probing)
+ * guarded by its own {@link StampedLock}. Lookups are optimistic reads that only fall back
+ * to the read lock if a writer raced with them, so queries never block each other, and
+ * updates to streams in different segments proceed in parallel.
+ *
+ * <p>Stream tails are never removed individually, only all at once by {@link #clear()}.
+ */
+public class StreamTailMap {
+
+    /** The number of segments, must be a power of two. */
+    private static final int SEGMENTS = 64;
+
+    /** The initial number of slots of each segment, must be a power of two. */
+    private static final int INITIAL_SEGMENT_SLOTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * Create a new, empty, stream tail map.
+     */
+    public StreamTailMap() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Get the tail of a stream.
+     *
+     * @param streamId the stream ID
+     * @return the tail of the stream, or {@link Address#NON_EXIST} if it has none
+     */
+    public long get(UUID streamId) {
+        final long msb = streamId.getMostSignificantBits();
+        final long lsb = streamId.getLeastSignificantBits();
+        final long hash = SequencerConflictCache.mix(msb ^ lsb);
+        final Segment segment = segmentFor(hash);
+
+        long stamp = segment.lock.tryOptimisticRead();
+        long tail = segment.table.get(msb, lsb, hash);
+        if (!segment.lock.validate(stamp)) {
+            stamp = segment.lock.readLock();
+            try {
+                tail = segment.table.get(msb, lsb, hash);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * Set the tail of a stream.
+     *
+     * @param streamId the stream ID
+     * @param tail     the new tail of the stream
+     * @return the previous tail of the stream, or {@link Address#NON_EXIST} if it had none
+     */
+    public long put(UUID streamId, long tail) {
+        final long msb = streamId.getMostSignificantBits();
+        final long lsb = streamId.getLeastSignificantBits();
+        final long hash = SequencerConflictCache.mix(msb ^ lsb);
+        final Segment segment = segmentFor(hash);
+
+        final long stamp = segment.lock.writeLock();
+        try {
+            return segment.put(msb, lsb, hash, tail);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Set the tails of several streams.
+     *
+     * @param tails a map of stream IDs to their new tails
+     */
+    public void putAll(Map<UUID, Long> tails) {
+        tails.forEach(this::put);
+    }
+
+    /**
+     * Remove all stream tails.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            final long stamp = segment.lock.writeLock();
+            try {
+                segment.table = new Table(INITIAL_SEGMENT_SLOTS);
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * @return the number of streams with a tail
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            final long stamp = segment.lock.readLock();
+            try {
+                size += segment.table.size;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Copy the stream tails into a map. Each segment is copied atomically, but
+     * the copy as a whole is not a consistent snapshot if there are concurrent updates.
+     *
+     * @return a map of stream IDs to their tails
+     */
+    public Map<UUID, Long> toMap() {
+        Map<UUID, Long> map = new HashMap<>();
+        for (Segment segment : segments) {
+            final long stamp = segment.lock.readLock();
+            try {
+                final Table table = segment.table;
+                for (int i = 0; i < table.used.length; i++) {
+                    if (table.used[i]) {
+                        map.put(new UUID(table.msb[i], table.lsb[i]), table.tails[i]);
+                    }
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+    private Segment segmentFor(long hash) {
+        // Use the high bits for the segment, the low bits select the slot.
+        return segments[(int) (hash >>> (Long.SIZE - Integer.numberOfTrailingZeros(SEGMENTS)))];
+    }
+
+    /**
+     * A segment of the map, whose table is replaced when it grows.
+     */
+    private static class Segment {
+        final StampedLock lock = new StampedLock();
+        volatile Table table = new Table(INITIAL_SEGMENT_SLOTS);
+
+        /**
+         * Insert or update a tail, must be called with the write lock held.
+         */
+        long put(long msb, long lsb, long hash, long tail) {
+            Table t = table;
+            int slot = t.find(msb, lsb, hash);
+            if (t.used[slot]) {
+                final long previous = t.tails[slot];
+                t.tails[slot] = tail;
+                return previous;
+            }
+
+            if ((t.size + 1) * 2 > t.used.length) {
+                t = t.grow();
+                table = t;
+                slot = t.find(msb, lsb, hash);
+            }
+
+            t.msb[slot] = msb;
+            t.lsb[slot] = lsb;
+            t.tails[slot] = tail;
+            t.used[slot] = true;
+            t.size++;
+            return Address.NON_EXIST;
+        }
+    }
+
+    /**
+     * An open-addressing table, kept at most half full.
+     */
+    private static class Table {
+        final long[] msb;
+        final long[] lsb;
+        final long[] tails;
+        final boolean[] used;
+        final int mask;
+        int size = 0;
+
+        Table(int slots) {
+            msb = new long[slots];
+            lsb = new long[slots];
+            tails = new long[slots];
+            used = new boolean[slots];
+            mask = slots - 1;
+        }
+
+        /**
+         * Find the slot of a key, or the empty slot where it would be inserted.
+         * The probe is bounded, so that a racing optimistic reader always terminates.
+         */
+        int find(long keyMsb, long keyLsb, long hash) {
+            int slot = (int) hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                if (!used[slot] || (msb[slot] == keyMsb && lsb[slot] == keyLsb)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        long get(long keyMsb, long keyLsb, long hash) {
+            final int slot = find(keyMsb, keyLsb, hash);
+            return used[slot] && msb[slot] == keyMsb && lsb[slot] == keyLsb
+                    ? tails[slot] : Address.NON_EXIST;
+        }
+
+        Table grow() {
+            Table grown = new Table(used.length * 2);
+            for (int i = 0; i < used.length; i++) {
+                if (used[i]) {
+                    final long hash = SequencerConflictCache.mix(msb[i] ^ lsb[i]);
+                    final int slot = grown.find(msb[i], lsb[i], hash);
+                    grown.msb[slot] = msb[i];
+                    grown.lsb[slot] = lsb[i];
+                    grown.tails[slot] = tails[i];
+                    grown.used[slot] = true;
+                    grown.size++;
+                }
+            }
+            return grown;
+        }
+    }
+}
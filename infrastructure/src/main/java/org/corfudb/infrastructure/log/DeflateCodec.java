@@ -0,0 +1,72 @@
+package org.corfudb.infrastructure.log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.corfudb.format.Types;
+import org.corfudb.runtime.exceptions.DataCorruptionException;
+
+/**
+ * A codec with the DEFLATE algorithm of the JDK: slower than {@link SnappyCodec}, but
+ * with a better compression ratio. The deflater and inflater of each thread are reused.
+ */
+class DeflateCodec implements RecordCodec {
+
+    static final DeflateCodec INSTANCE = new DeflateCodec();
+
+    private static final ThreadLocal<Deflater> deflater =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    private static final ThreadLocal<Inflater> inflater =
+            ThreadLocal.withInitial(Inflater::new);
+
+    private DeflateCodec() {
+    }
+
+    @Override
+    public Types.Codec getType() {
+        return Types.Codec.DEFLATE;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Deflater d = deflater.get();
+        d.reset();
+        d.setInput(data);
+        d.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 1);
+        byte[] chunk = new byte[Math.min(data.length + 1, 64 * 1024)];
+        while (!d.finished()) {
+            out.write(chunk, 0, d.deflate(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] decompress(byte[] compressed, int uncompressedLength) {
+        Inflater i = inflater.get();
+        i.reset();
+        i.setInput(compressed);
+
+        byte[] data = new byte[uncompressedLength];
+        try {
+            int length = 0;
+            while (length < uncompressedLength && !i.finished()) {
+                int inflated = i.inflate(data, length, uncompressedLength - length);
+                if (inflated == 0 && (i.needsInput() || i.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != uncompressedLength) {
+                throw new DataCorruptionException();
+            }
+        } catch (DataFormatException e) {
+            throw new DataCorruptionException();
+        }
+        return data;
+    }
+}
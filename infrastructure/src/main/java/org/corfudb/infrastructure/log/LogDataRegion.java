@@ -0,0 +1,120 @@
+package org.corfudb.infrastructure.log;
+
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import lombok.Getter;
+
+import org.corfudb.protocols.wireprotocol.LogData;
+
+/**
+ * The payload of a log entry, located in its segment file, which can be written to a
+ * socket without being copied through the heap.
+ *
+ * <p>The region comes with the entry decoded without its payload, i.e. with an empty data
+ * field, which is serialized before the payload. The segment stays retained until the
+ * region is released, so that its file is not closed while the region is written.
+ */
+public class LogDataRegion extends AbstractReferenceCounted implements FileRegion {
+
+    /** The entry, with an empty payload. */
+    @Getter
+    private final LogData header;
+
+    private final SegmentHandle sh;
+
+    private final long position;
+
+    private final long count;
+
+    private long transferred = 0;
+
+    /**
+     * Create a region over the payload of an entry.
+     *
+     * @param header   the entry, without its payload
+     * @param sh       the retained segment handle, released with the region
+     * @param position the offset of the payload in the segment file
+     * @param count    the size of the payload
+     */
+    LogDataRegion(LogData header, SegmentHandle sh, long position, long count) {
+        this.header = header;
+        this.sh = sh;
+        this.position = position;
+        this.count = count;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    @Deprecated
+    public long transfered() {
+        return transferred;
+    }
+
+    @Override
+    public long transferred() {
+        return transferred;
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target, long position) throws IOException {
+        final long remaining = count - position;
+        if (remaining < 0 || position < 0) {
+            throw new IllegalArgumentException("position out of range: " + position
+                    + " (expected: 0 - " + (count - 1) + ')');
+        }
+        if (remaining == 0) {
+            return 0L;
+        }
+
+        long written = sh.getReadChannel().transferTo(this.position + position, remaining,
+                target);
+        if (written > 0) {
+            transferred += written;
+        } else if (sh.getReadChannel().size() < this.position + count) {
+            // Nothing will ever be transferred, e.g. the segment was truncated by compaction
+            throw new IOException("Segment " + sh.getSegment() + " is smaller than the region "
+                    + this.position + "+" + count);
+        }
+        return written;
+    }
+
+    @Override
+    protected void deallocate() {
+        sh.release();
+    }
+
+    @Override
+    public LogDataRegion retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public LogDataRegion retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
+
+    @Override
+    public LogDataRegion touch() {
+        return this;
+    }
+
+    @Override
+    public LogDataRegion touch(Object hint) {
+        return this;
+    }
+}
@@ -0,0 +1,118 @@
+package org.corfudb.infrastructure.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A bounded set of read-only memory mappings of sealed log segments, i.e. segments below
+ * the segment of the global tail, which only receive writes in the rare case of a ranked
+ * overwrite.
+ *
+ * <p>Reads from a mapped segment decode records directly from the page cache, without a
+ * system call or a copy into a heap buffer. A mapping covers the segment file as it was
+ * when the segment was mapped; records appended afterwards are outside of the mapping and
+ * must be read from the channel.
+ *
+ * <p>When more than the maximum number of segments are mapped, the least recently used
+ * mapping is dropped. Java 8 has no way to unmap a buffer explicitly, so the memory is
+ * released once the mapping is garbage collected.
+ */
+@Slf4j
+class MappedSegmentCache {
+
+    private final int maxSegments;
+
+    private final Map<Long, Mapping> mappings;
+
+    /**
+     * Create a new cache of segment mappings.
+     *
+     * @param maxSegments the maximum number of segments mapped at once
+     */
+    MappedSegmentCache(int maxSegments) {
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("Number of mapped segments must be positive, got "
+                    + maxSegments);
+        }
+        this.maxSegments = maxSegments;
+        this.mappings = new LinkedHashMap<Long, Mapping>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Mapping> eldest) {
+                return size() > MappedSegmentCache.this.maxSegments;
+            }
+        };
+    }
+
+    /**
+     * Get a view of the mapping of a segment, mapping the segment if needed.
+     *
+     * @param sh the handle of the segment
+     * @return a buffer over the mapped segment, with its own position and limit,
+     *     or null if the segment is too large to be mapped
+     * @throws IOException if the segment could not be mapped
+     */
+    @Nullable
+    synchronized ByteBuffer get(SegmentHandle sh) throws IOException {
+        Mapping mapping = mappings.get(sh.getSegment());
+        // A segment gets a new handle when its file is replaced by compaction.
+        if (mapping == null || mapping.handle != sh) {
+            FileChannel fc = sh.getReadChannel();
+            long size = fc.size();
+            if (size > Integer.MAX_VALUE) {
+                log.debug("get: Segment {} of {} bytes is too large to be mapped",
+                        sh.getSegment(), size);
+                return null;
+            }
+            mapping = new Mapping(sh, fc.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            mappings.put(sh.getSegment(), mapping);
+            log.trace("get: Mapped segment {} ({} bytes)", sh.getSegment(), size);
+        }
+        return mapping.buffer.duplicate();
+    }
+
+    /**
+     * Drop the mapping of a segment, e.g. because its file was replaced.
+     *
+     * @param segment the segment
+     */
+    synchronized void invalidate(long segment) {
+        mappings.remove(segment);
+    }
+
+    /**
+     * Drop the mappings of every segment up to and including the end segment.
+     *
+     * @param endSegment the last segment to drop
+     */
+    synchronized void invalidateUpTo(long endSegment) {
+        mappings.keySet().removeIf(segment -> segment <= endSegment);
+    }
+
+    /**
+     * @return the number of mapped segments
+     */
+    synchronized int size() {
+        return mappings.size();
+    }
+
+    /**
+     * The mapping of a segment file, and the handle it was mapped through.
+     */
+    private static class Mapping {
+        final SegmentHandle handle;
+        final MappedByteBuffer buffer;
+
+        Mapping(SegmentHandle handle, MappedByteBuffer buffer) {
+            this.handle = handle;
+            this.buffer = buffer;
+        }
+    }
+}
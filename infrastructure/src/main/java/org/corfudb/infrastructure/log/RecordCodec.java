@@ -0,0 +1,63 @@
+package org.corfudb.infrastructure.log;
+
+import org.corfudb.format.Types;
+
+/**
+ * Compresses the payloads of log records. The codec of each record is stored with it, so a
+ * log unit can read the records of every codec, whichever codec it writes new records with.
+ */
+interface RecordCodec {
+
+    /**
+     * @return the codec stored with the records it compressed
+     */
+    Types.Codec getType();
+
+    /**
+     * Compress a payload.
+     *
+     * @param data the payload
+     * @return the compressed payload
+     */
+    byte[] compress(byte[] data);
+
+    /**
+     * Decompress a payload.
+     *
+     * @param compressed         the compressed payload
+     * @param uncompressedLength the length of the payload
+     * @return the payload
+     * @throws org.corfudb.runtime.exceptions.DataCorruptionException if the compressed
+     *     payload is corrupted
+     */
+    byte[] decompress(byte[] compressed, int uncompressedLength);
+
+    /**
+     * Get the codec of a type of compression.
+     *
+     * @param type the type of compression
+     * @return its codec, or null if the records are not compressed
+     */
+    static RecordCodec of(Types.Codec type) {
+        switch (type) {
+            case NONE:
+                return null;
+            case DEFLATE:
+                return DeflateCodec.INSTANCE;
+            case SNAPPY:
+                return SnappyCodec.INSTANCE;
+            default:
+                throw new IllegalArgumentException("Unknown codec " + type);
+        }
+    }
+
+    /**
+     * Get a codec by name, e.g. from the log unit options.
+     *
+     * @param name the name of the codec, case insensitive
+     * @return the codec, or null for "none"
+     */
+    static RecordCodec of(String name) {
+        return of(Types.Codec.valueOf(name.toUpperCase()));
+    }
+}
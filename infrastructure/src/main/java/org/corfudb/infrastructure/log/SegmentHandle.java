@@ -1,25 +1,60 @@
 package org.corfudb.infrastructure.log;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NonNull;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * The global log is partition into segments, each segment contains a range of consecutive
  * addresses. Accessing the address space for a particular segment happens through this class.
  *
+ * <p>Since a segment covers a fixed range of addresses, the location of each record and the
+ * trimmed and pending trim addresses are kept in dense arrays indexed by the position of the
+ * address in the segment, rather than in maps and sets of boxed addresses, and trims are
+ * persisted as bitmaps (see {@link TrimBitmap}). Record locations are guarded by a
+ * {@link StampedLock}: lookups are optimistic reads, which only fall back to the read lock
+ * if they raced with a write.
+ *
+ * <p>Appends to the segment file are serialized by a separate lock, so that lookups and
+ * positional reads never wait for a write to the disk.
+ *
+ * <p>The addresses of each stream are indexed with a bitmap per stream, so that the
+ * addresses of a stream can be found without reading the records of the segment.
+ *
+ * <p>When compaction replaces the segment file, or the segment is closed because it is idle,
+ * the handle is retired: appends and trims must go to a new handle of the segment, while
+ * reads which already hold this handle complete against its files. The files of a retired
+ * handle are closed once its last reference is released.
+ *
  * @author Maithem
  */
 @Slf4j
 @Data
+@ToString(exclude = {"lock", "appendLock", "offsets", "lengths", "checksums",
+        "trimmedAddresses", "pendingTrims", "closed", "lastAccess", "streamAddresses",
+        "streamsIndexed"})
+@EqualsAndHashCode(exclude = {"lock", "appendLock", "refCount", "offsets", "lengths",
+        "checksums", "trimmedAddresses", "pendingTrims", "retired", "closed", "lastAccess",
+        "streamAddresses", "streamsIndexed"})
 class SegmentHandle {
     final long segment;
 
@@ -38,24 +73,369 @@ class SegmentHandle {
     @NonNull
     String fileName;
 
-    private Map<Long, AddressMetaData> knownAddresses = new ConcurrentHashMap();
-    private Set<Long> trimmedAddresses = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private Set<Long> pendingTrims = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private volatile int refCount = 0;
+    /** The number of addresses in the segment. */
+    private final int capacity = StreamLogFiles.RECORDS_PER_LOG_FILE;
+
+    private final StampedLock lock = new StampedLock();
+
+    /** Serializes appends to the segment file. */
+    private final StampedLock appendLock = new StampedLock();
+
+    /** The file offset of the record of each address, or 0 if it has none. */
+    private long[] offsets = new long[capacity];
+    private int[] lengths = new int[capacity];
+    private int[] checksums = new int[capacity];
+    private volatile int knownCount = 0;
+
+    private AtomicBitSet trimmedAddresses = new AtomicBitSet(capacity);
+    private AtomicBitSet pendingTrims = new AtomicBitSet(capacity);
+
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    /**
+     * Whether a persistent index covers the whole segment file.
+     */
+    private volatile boolean indexed = false;
+
+    /**
+     * Whether the segment file was replaced by compaction, and this handle by a new one.
+     */
+    private volatile boolean retired = false;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * The index of the data directory which holds the files of the segment.
+     */
+    private int directory = 0;
+
+    /**
+     * The time the handle was last looked up, which orders the closing of idle segments.
+     */
+    private volatile long lastAccess = System.nanoTime();
 
+    /**
+     * The positions of the addresses of each stream in the segment.
+     */
+    private final Map<UUID, BitSet> streamAddresses = new ConcurrentHashMap<>();
 
-    public synchronized void retain() {
-        refCount++;
+    /**
+     * Whether the stream addresses cover every record of the segment, rather than only the
+     * records appended or scanned since the segment was opened.
+     */
+    private volatile boolean streamsIndexed = false;
+
+    public void retain() {
+        refCount.incrementAndGet();
     }
 
-    public synchronized void release() {
-        if (refCount == 0) {
+    public void release() {
+        final int previous = refCount.getAndUpdate(count -> count == 0 ? 0 : count - 1);
+        if (previous == 0) {
             throw new IllegalStateException("refCount cannot be less than 0, segment " + segment);
         }
-        refCount--;
+        if (previous == 1 && retired) {
+            close();
+        }
+    }
+
+    /**
+     * Mark the handle as replaced by a new handle of the segment, and close it as soon
+     * as it is no longer referenced. Must be called while holding the append lock, so that
+     * appends which were waiting for it see the handle as retired.
+     */
+    public void retire() {
+        retired = true;
+        if (refCount.get() == 0) {
+            close();
+        }
+    }
+
+    public int getRefCount() {
+        return refCount.get();
+    }
+
+    /**
+     * @param address an address of this segment
+     * @return the position of the address in the segment arrays
+     */
+    private int position(long address) {
+        long position = address - segment * capacity;
+        if (position < 0 || position >= capacity) {
+            throw new IllegalArgumentException("Address " + address
+                    + " is not in segment " + segment);
+        }
+        return (int) position;
+    }
+
+    /**
+     * @param address an address of this segment
+     * @return true, if a record was written at the address
+     */
+    public boolean isKnownAddress(long address) {
+        final int position = position(address);
+        long stamp = lock.tryOptimisticRead();
+        long offset = offsets[position];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                offset = offsets[position];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return offset != 0;
+    }
+
+    /**
+     * @param address an address of this segment
+     * @return the location of the record at the address, or null if it has none
+     */
+    public AddressMetaData getAddressMetaData(long address) {
+        final int position = position(address);
+        long stamp = lock.tryOptimisticRead();
+        long offset = offsets[position];
+        int length = lengths[position];
+        int checksum = checksums[position];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                offset = offsets[position];
+                length = lengths[position];
+                checksum = checksums[position];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return offset == 0 ? null : new AddressMetaData(checksum, length, offset);
+    }
+
+    /**
+     * Record the location of the record at an address, replacing any previous record.
+     *
+     * @param address  an address of this segment
+     * @param metaData the location of its record
+     */
+    public void putAddressMetaData(long address, AddressMetaData metaData) {
+        final int position = position(address);
+        final long stamp = lock.writeLock();
+        try {
+            if (offsets[position] == 0) {
+                knownCount++;
+            }
+            offsets[position] = metaData.offset;
+            lengths[position] = metaData.length;
+            checksums[position] = metaData.checksum;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the number of addresses with a record
+     */
+    public int getKnownAddressCount() {
+        return knownCount;
+    }
+
+    /**
+     * @return the largest address with a record, or -1 if there is none
+     */
+    public long getMaxKnownAddress() {
+        final long stamp = lock.readLock();
+        try {
+            for (int position = capacity - 1; position >= 0; position--) {
+                if (offsets[position] != 0) {
+                    return segment * capacity + position;
+                }
+            }
+            return -1L;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Visit the location of every record of the segment, in address order.
+     *
+     * @param consumer receives each address and the location of its record
+     */
+    public void forEachKnownAddress(KnownAddressConsumer consumer) {
+        final long stamp = lock.readLock();
+        try {
+            for (int position = 0; position < capacity; position++) {
+                if (offsets[position] != 0) {
+                    consumer.accept(segment * capacity + position, new AddressMetaData(
+                            checksums[position], lengths[position], offsets[position]));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Index an address of the segment under its streams. Must be called before the location
+     * of its record is put, so that a copy of the address space never has an address
+     * which is missing from a later copy of the stream addresses.
+     *
+     * @param streams the streams of the record at the address
+     * @param address an address of this segment
+     */
+    public void addStreamAddress(Collection<UUID> streams, long address) {
+        final int position = position(address);
+        for (UUID stream : streams) {
+            BitSet positions = streamAddresses.computeIfAbsent(stream, id -> new BitSet());
+            synchronized (positions) {
+                positions.set(position);
+            }
+        }
+    }
+
+    /**
+     * Index the addresses of a stream.
+     *
+     * @param stream the stream
+     * @param words  the positions of the addresses of the stream, see {@link BitSet#toLongArray}
+     */
+    public void addStreamPositions(UUID stream, long[] words) {
+        BitSet positions = streamAddresses.computeIfAbsent(stream, id -> new BitSet());
+        synchronized (positions) {
+            positions.or(BitSet.valueOf(words));
+        }
+    }
+
+    /**
+     * @return a copy of the positions of the addresses of each stream
+     */
+    public Map<UUID, long[]> getStreamPositions() {
+        Map<UUID, long[]> streams = new HashMap<>();
+        streamAddresses.forEach((stream, positions) -> {
+            synchronized (positions) {
+                streams.put(stream, positions.toLongArray());
+            }
+        });
+        return streams;
+    }
+
+    /**
+     * Collect the addresses of a stream in a range, which were not trimmed.
+     *
+     * @param stream    the stream
+     * @param start     the first address of the range
+     * @param end       the last address of the range, included
+     * @param addresses receives the addresses of the stream of this segment, in order
+     */
+    public void getStreamAddresses(UUID stream, long start, long end, List<Long> addresses) {
+        final BitSet positions = streamAddresses.get(stream);
+        final long firstAddress = segment * capacity;
+        final long first = Math.max(start - firstAddress, 0);
+        final long last = Math.min(end - firstAddress, capacity - 1);
+        if (positions == null || first > last) {
+            return;
+        }
+
+        synchronized (positions) {
+            for (int position = positions.nextSetBit((int) first);
+                    position >= 0 && position <= last;
+                    position = positions.nextSetBit(position + 1)) {
+                if (!trimmedAddresses.get(position) && !pendingTrims.get(position)) {
+                    addresses.add(firstAddress + position);
+                }
+            }
+        }
+    }
+
+    public boolean isTrimmedAddress(long address) {
+        return trimmedAddresses.get(position(address));
+    }
+
+    public void addTrimmedAddress(long address) {
+        trimmedAddresses.set(position(address));
+    }
+
+    public int getTrimmedAddressCount() {
+        return trimmedAddresses.cardinality();
+    }
+
+    public boolean isPendingTrim(long address) {
+        return pendingTrims.get(position(address));
+    }
+
+    public void addPendingTrim(long address) {
+        pendingTrims.set(position(address));
+    }
+
+    /**
+     * Persist the pending trims of some addresses, by writing the words of the pending trim
+     * bitmap which hold them.
+     *
+     * @param addresses addresses of this segment
+     * @throws IOException if the bitmap could not be written
+     */
+    public void writePendingTrims(Collection<Long> addresses) throws IOException {
+        BitSet words = new BitSet();
+        for (long address : addresses) {
+            words.set(position(address) / Long.SIZE);
+        }
+        TrimBitmap.write(pendingTrimChannel, pendingTrims, words);
+    }
+
+    /**
+     * Persist the trimmed addresses, i.e. the addresses whose records compaction dropped.
+     *
+     * @throws IOException if the bitmap could not be written
+     */
+    public void writeTrimmedAddresses() throws IOException {
+        TrimBitmap.writeAll(trimmedChannel, trimmedAddresses);
+        trimmedChannel.force(true);
+    }
+
+    /**
+     * Load the trimmed and pending trim addresses of the segment.
+     *
+     * @throws IOException if the bitmaps could not be read
+     */
+    public void loadTrims() throws IOException {
+        TrimBitmap.load(trimmedChannel, trimmedAddresses);
+        TrimBitmap.load(pendingTrimChannel, pendingTrims);
+    }
+
+    public int getPendingTrimCount() {
+        return pendingTrims.cardinality();
+    }
+
+    /**
+     * @return the addresses with a pending trim which were not yet compacted
+     */
+    public Set<Long> getUncompactedTrims() {
+        Set<Long> uncompacted = new HashSet<>();
+        for (int position = 0; position < capacity; position++) {
+            if (pendingTrims.get(position) && !trimmedAddresses.get(position)) {
+                uncompacted.add(segment * capacity + position);
+            }
+        }
+        return uncompacted;
+    }
+
+    /**
+     * @return the number of addresses with a pending trim which were not yet compacted
+     */
+    public int getUncompactedTrimCount() {
+        int uncompacted = 0;
+        for (int position = 0; position < capacity; position++) {
+            if (pendingTrims.get(position) && !trimmedAddresses.get(position)) {
+                uncompacted++;
+            }
+        }
+        return uncompacted;
     }
 
     public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
         Set<FileChannel> channels =
                 new HashSet(Arrays.asList(writeChannel, readChannel, trimmedChannel, pendingTrimChannel));
         for (FileChannel channel : channels) {
@@ -68,8 +448,83 @@ class SegmentHandle {
             }
         }
 
-        knownAddresses = null;
+        offsets = null;
+        lengths = null;
+        checksums = null;
         trimmedAddresses = null;
         pendingTrims = null;
+        streamAddresses.clear();
+    }
+
+    /**
+     * Receives an address and the location of its record.
+     */
+    @FunctionalInterface
+    interface KnownAddressConsumer {
+        void accept(long address, AddressMetaData metaData);
+    }
+
+    /**
+     * A fixed-size bit set which can be read and updated concurrently without locking.
+     */
+    static class AtomicBitSet {
+        private final AtomicLongArray words;
+        private final AtomicInteger cardinality = new AtomicInteger();
+
+        AtomicBitSet(int bits) {
+            words = new AtomicLongArray((bits + Long.SIZE - 1) / Long.SIZE);
+        }
+
+        boolean get(int bit) {
+            return (words.get(bit / Long.SIZE) & (1L << bit)) != 0;
+        }
+
+        /**
+         * Set a bit.
+         *
+         * @return true, if the bit was not already set
+         */
+        boolean set(int bit) {
+            final int word = bit / Long.SIZE;
+            final long mask = 1L << bit;
+            long current;
+            do {
+                current = words.get(word);
+                if ((current & mask) != 0) {
+                    return false;
+                }
+            } while (!words.compareAndSet(word, current, current | mask));
+            cardinality.incrementAndGet();
+            return true;
+        }
+
+        int cardinality() {
+            return cardinality.get();
+        }
+
+        /**
+         * @return the number of words of the bit set
+         */
+        int words() {
+            return words.length();
+        }
+
+        long getWord(int word) {
+            return words.get(word);
+        }
+
+        /**
+         * Set the bits of a word which are set in a mask.
+         */
+        void or(int word, long mask) {
+            long current;
+            do {
+                current = words.get(word);
+                if ((current | mask) == current) {
+                    return;
+                }
+            } while (!words.compareAndSet(word, current, current | mask));
+            cardinality.addAndGet(Long.bitCount(mask & ~current));
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,305 @@
+package org.corfudb.infrastructure.log;
+
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A persistent index of the records of a log segment, written once the segment is full,
+ * so that reopening the segment does not require parsing every record in it.
+ *
+ * <p>The index covers a prefix of the segment file, up to the end of the last indexed
+ * record. Records appended after the index was written (e.g., ranked overwrites) are
+ * found by scanning the file from that point on. An index which covers more than the
+ * file holds, e.g. because the file was replaced by compaction or lost its tail in a
+ * crash, is ignored.
+ *
+ * <p>The index also holds the positions of the addresses of each stream in the segment,
+ * if the segment handle it was copied from had indexed the streams of all its records.
+ *
+ * <p>The file format is a header (magic, version, indexed length, entry count), followed
+ * by fixed-width entries (address, offset, length, checksum), the stream count (-1 if
+ * the streams are not indexed), the positions of each stream (stream id, word count,
+ * bitmap words), and a CRC32C checksum of everything before it. Version 1 files, which
+ * have no streams, are still read. The file is replaced atomically.
+ */
+@Slf4j
+class SegmentIndex {
+
+    private static final int MAGIC = 0x53494458;
+
+    private static final int VERSION = 2;
+
+    /** The version of the files written before streams were indexed. */
+    private static final int VERSION_WITHOUT_STREAMS = 1;
+
+    private static final int HEADER_SIZE = Integer.BYTES * 3 + Long.BYTES;
+
+    private static final int ENTRY_SIZE = Long.BYTES * 2 + Integer.BYTES * 2;
+
+    /** The length of the segment file prefix covered by the index. */
+    @Getter
+    private final long indexedLength;
+
+    private final long[] addresses;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] checksums;
+
+    /** The positions of the addresses of each stream, or null if they are not indexed. */
+    @Nullable
+    private final Map<UUID, long[]> streams;
+
+    private SegmentIndex(long indexedLength, long[] addresses, long[] offsets,
+                         int[] lengths, int[] checksums, @Nullable Map<UUID, long[]> streams) {
+        this.indexedLength = indexedLength;
+        this.addresses = addresses;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.checksums = checksums;
+        this.streams = streams;
+    }
+
+    /**
+     * @param segmentPath the path of the segment file
+     * @return the path of the index of the segment
+     */
+    static String getIndexFilePath(String segmentPath) {
+        return segmentPath + ".index";
+    }
+
+    /**
+     * Copy the address space of a segment. The indexed length is the end of the last
+     * record, so any record not yet in the address space is found by a scan.
+     *
+     * @param sh the segment handle
+     * @return an index of the records
+     */
+    static SegmentIndex of(SegmentHandle sh) {
+        final int capacity = sh.getCapacity();
+        final long[] addresses = new long[capacity];
+        final long[] offsets = new long[capacity];
+        final int[] lengths = new int[capacity];
+        final int[] checksums = new int[capacity];
+        final int[] size = {0};
+        final long[] indexedLength = {0};
+
+        sh.forEachKnownAddress((address, metaData) -> {
+            final int i = size[0]++;
+            addresses[i] = address;
+            offsets[i] = metaData.offset;
+            lengths[i] = metaData.length;
+            checksums[i] = metaData.checksum;
+            indexedLength[0] = Math.max(indexedLength[0], metaData.offset + metaData.length);
+        });
+
+        // Streams are indexed before the location of their records, so they cover every
+        // record copied above
+        final Map<UUID, long[]> streams = sh.isStreamsIndexed()
+                ? sh.getStreamPositions() : null;
+
+        final int n = size[0];
+        return new SegmentIndex(indexedLength[0], Arrays.copyOf(addresses, n),
+                Arrays.copyOf(offsets, n), Arrays.copyOf(lengths, n), Arrays.copyOf(checksums, n),
+                streams);
+    }
+
+    /**
+     * Index the records of a segment file written by compaction.
+     *
+     * @param records the location of the record of each address
+     * @return an index of the records
+     */
+    static SegmentIndex of(Map<Long, AddressMetaData> records) {
+        final int n = records.size();
+        final long[] addresses = new long[n];
+        final long[] offsets = new long[n];
+        final int[] lengths = new int[n];
+        final int[] checksums = new int[n];
+        long indexedLength = 0;
+
+        int i = 0;
+        for (Map.Entry<Long, AddressMetaData> record : records.entrySet()) {
+            AddressMetaData metaData = record.getValue();
+            addresses[i] = record.getKey();
+            offsets[i] = metaData.offset;
+            lengths[i] = metaData.length;
+            checksums[i] = metaData.checksum;
+            indexedLength = Math.max(indexedLength, metaData.offset + metaData.length);
+            i++;
+        }
+
+        return new SegmentIndex(indexedLength, addresses, offsets, lengths, checksums, null);
+    }
+
+    /**
+     * Add the indexed records, and the stream addresses if they are indexed, to the
+     * address space of a segment.
+     *
+     * @param sh the segment handle to load
+     */
+    void load(SegmentHandle sh) {
+        if (streams != null) {
+            streams.forEach(sh::addStreamPositions);
+        }
+        for (int i = 0; i < addresses.length; i++) {
+            sh.putAddressMetaData(addresses[i],
+                    new AddressMetaData(checksums[i], lengths[i], offsets[i]));
+        }
+    }
+
+    /**
+     * @return true, if the index holds the streams of every indexed record
+     */
+    boolean hasStreams() {
+        return streams != null;
+    }
+
+    /**
+     * @return the number of indexed records
+     */
+    int size() {
+        return addresses.length;
+    }
+
+    /**
+     * Atomically replace the index file with this index.
+     *
+     * @param file the index file
+     * @throws IOException if the index could not be written
+     */
+    void write(Path file) throws IOException {
+        int streamsSize = 0;
+        if (streams != null) {
+            for (long[] words : streams.values()) {
+                streamsSize += Long.BYTES * 2 + Integer.BYTES + Long.BYTES * words.length;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + ENTRY_SIZE * addresses.length
+                + Integer.BYTES + streamsSize + Integer.BYTES);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(indexedLength);
+        buffer.putInt(addresses.length);
+        for (int i = 0; i < addresses.length; i++) {
+            buffer.putLong(addresses[i]);
+            buffer.putLong(offsets[i]);
+            buffer.putInt(lengths[i]);
+            buffer.putInt(checksums[i]);
+        }
+        if (streams == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(streams.size());
+            for (Map.Entry<UUID, long[]> stream : streams.entrySet()) {
+                buffer.putLong(stream.getKey().getMostSignificantBits());
+                buffer.putLong(stream.getKey().getLeastSignificantBits());
+                buffer.putInt(stream.getValue().length);
+                for (long word : stream.getValue()) {
+                    buffer.putLong(word);
+                }
+            }
+        }
+        buffer.putInt(Hashing.crc32c().hashBytes(buffer.array(), 0, buffer.position()).asInt());
+
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmpFile, buffer.array(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+                StandardOpenOption.SYNC);
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the index of a segment.
+     *
+     * @param file        the index file
+     * @param segmentSize the current size of the segment file
+     * @return the index, or null if there is none, it is corrupted, or it does not
+     *     match the segment file
+     */
+    @Nullable
+    static SegmentIndex read(Path file, long segmentSize) {
+        if (Files.notExists(file)) {
+            return null;
+        }
+
+        try {
+            final byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length < HEADER_SIZE + Integer.BYTES) {
+                log.warn("read: Ignoring truncated segment index {}", file);
+                return null;
+            }
+
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            final int checksumOffset = bytes.length - Integer.BYTES;
+            if (buffer.getInt(checksumOffset)
+                    != Hashing.crc32c().hashBytes(bytes, 0, checksumOffset).asInt()) {
+                log.warn("read: Ignoring corrupted segment index {}", file);
+                return null;
+            }
+
+            final int magic = buffer.getInt();
+            final int version = buffer.getInt();
+            if (magic != MAGIC || (version != VERSION && version != VERSION_WITHOUT_STREAMS)) {
+                log.warn("read: Ignoring segment index {} with unknown format", file);
+                return null;
+            }
+
+            final long indexedLength = buffer.getLong();
+            if (indexedLength > segmentSize) {
+                log.warn("read: Ignoring segment index {}, it covers {} bytes but the segment"
+                        + " has {}", file, indexedLength, segmentSize);
+                return null;
+            }
+
+            final int size = buffer.getInt();
+            final long[] addresses = new long[size];
+            final long[] offsets = new long[size];
+            final int[] lengths = new int[size];
+            final int[] checksums = new int[size];
+            for (int i = 0; i < size; i++) {
+                addresses[i] = buffer.getLong();
+                offsets[i] = buffer.getLong();
+                lengths[i] = buffer.getInt();
+                checksums[i] = buffer.getInt();
+            }
+
+            Map<UUID, long[]> streams = null;
+            final int streamCount = version == VERSION ? buffer.getInt() : -1;
+            if (streamCount >= 0) {
+                streams = new HashMap<>();
+                for (int i = 0; i < streamCount; i++) {
+                    final UUID stream = new UUID(buffer.getLong(), buffer.getLong());
+                    final long[] words = new long[buffer.getInt()];
+                    for (int word = 0; word < words.length; word++) {
+                        words[word] = buffer.getLong();
+                    }
+                    streams.put(stream, words);
+                }
+            }
+
+            return new SegmentIndex(indexedLength, addresses, offsets, lengths, checksums,
+                    streams);
+        } catch (IOException | BufferUnderflowException | NegativeArraySizeException e) {
+            log.warn("read: Could not read segment index {}", file, e);
+            return null;
+        }
+    }
+}
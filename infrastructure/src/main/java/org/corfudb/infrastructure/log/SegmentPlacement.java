@@ -0,0 +1,23 @@
+package org.corfudb.infrastructure.log;
+
+/**
+ * How the log unit places new segments in its data directories. The segments which already
+ * exist stay in the directory holding them.
+ */
+enum SegmentPlacement {
+    /** Consecutive segments go to consecutive directories. */
+    ROUND_ROBIN,
+
+    /** A segment goes to the directory with the most usable space. */
+    FREE_SPACE;
+
+    /**
+     * Get a placement by name, e.g. from the log unit options.
+     *
+     * @param name the name of the placement, e.g. round-robin or free-space
+     * @return the placement
+     */
+    static SegmentPlacement of(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
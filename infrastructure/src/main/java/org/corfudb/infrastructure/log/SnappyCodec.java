@@ -0,0 +1,58 @@
+package org.corfudb.infrastructure.log;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.Snappy;
+
+import org.corfudb.format.Types;
+import org.corfudb.runtime.exceptions.DataCorruptionException;
+
+/**
+ * A fast LZ77-class codec, with the Snappy implementation shipped with Netty: it trades
+ * some compression ratio for much less CPU time than {@link DeflateCodec}.
+ */
+class SnappyCodec implements RecordCodec {
+
+    static final SnappyCodec INSTANCE = new SnappyCodec();
+
+    /** Snappy keeps state during a decoding, so each thread has its own instance. */
+    private static final ThreadLocal<Snappy> snappy = ThreadLocal.withInitial(Snappy::new);
+
+    private SnappyCodec() {
+    }
+
+    @Override
+    public Types.Codec getType() {
+        return Types.Codec.SNAPPY;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Snappy s = snappy.get();
+        s.reset();
+        ByteBuf out = Unpooled.buffer(data.length / 2 + 1);
+        s.encode(Unpooled.wrappedBuffer(data), out, data.length);
+        byte[] compressed = new byte[out.readableBytes()];
+        out.readBytes(compressed);
+        return compressed;
+    }
+
+    @Override
+    public byte[] decompress(byte[] compressed, int uncompressedLength) {
+        Snappy s = snappy.get();
+        s.reset();
+        byte[] data = new byte[uncompressedLength];
+        ByteBuf out = Unpooled.wrappedBuffer(data);
+        out.clear();
+        try {
+            s.decode(Unpooled.wrappedBuffer(compressed), out);
+        } catch (DecompressionException | IndexOutOfBoundsException e) {
+            throw new DataCorruptionException();
+        }
+        if (out.writerIndex() != uncompressedLength) {
+            throw new DataCorruptionException();
+        }
+        return data;
+    }
+}
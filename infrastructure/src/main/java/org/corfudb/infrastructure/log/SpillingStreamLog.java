@@ -0,0 +1,642 @@
+package org.corfudb.infrastructure.log;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.corfudb.infrastructure.ServerContext;
+import org.corfudb.protocols.wireprotocol.DataType;
+import org.corfudb.protocols.wireprotocol.ICorfuPayload;
+import org.corfudb.protocols.wireprotocol.IMetadata;
+import org.corfudb.protocols.wireprotocol.LogData;
+import org.corfudb.runtime.exceptions.OverwriteException;
+
+/**
+ * A memory-first stream log, for ephemeral logs which must not lose entries: the records
+ * are kept serialized in off-heap slabs, and once the slabs take more than a limit, the
+ * coldest ranges of addresses are spilled to files in a temporary directory rather than
+ * dropped.
+ *
+ * <p>The address space is split into chunks of {@link #RECORDS_PER_CHUNK} addresses. The
+ * records of a chunk are appended to its slabs, and a chunk is spilled as a whole, all its
+ * slabs written to one file, when it is the least recently used chunk still in memory and
+ * the limit is exceeded. A spilled chunk is read from, and appended to, its file. At most
+ * {@link #MAX_OPEN_SPILL_FILES} spill files are kept open, the least recently used ones are
+ * closed and reopened on their next access. A spilled chunk which is read
+ * {@link #RELOAD_READS} times is loaded back into memory, if it fits in the limit.
+ *
+ * <p>A ranked overwrite appends the new record and leaves the old one as garbage. Trimmed
+ * records are reclaimed once every address of their chunk is below the trim mark. Nothing
+ * survives a restart: the spill directory is deleted when the log is closed.
+ */
+@Slf4j
+public class SpillingStreamLog implements StreamLog, StreamLogWithRankedAddressSpace {
+
+    /**
+     * The number of addresses of a chunk, the unit of spilling.
+     */
+    static final int RECORDS_PER_CHUNK = 4096;
+
+    /**
+     * The size of a slab, unless a record does not fit in it.
+     */
+    static final int SLAB_SIZE = 1 << 20;
+
+    /**
+     * The number of spill files which are kept open.
+     */
+    static final int MAX_OPEN_SPILL_FILES = 64;
+
+    /**
+     * The number of reads of a spilled chunk after which it is loaded back into memory.
+     */
+    static final int RELOAD_READS = RECORDS_PER_CHUNK / 4;
+
+    private static final String METRICS_PREFIX = "logunit.memory-log.";
+
+    /**
+     * The number of bytes of slabs beyond which chunks are spilled.
+     */
+    @Getter
+    private final long memoryLimit;
+
+    private final Path spillDirectory;
+
+    private final Map<Long, Chunk> chunks = new ConcurrentHashMap<>();
+
+    /**
+     * The spilled chunks whose file is open, from the least recently used.
+     */
+    private final Map<Chunk, Boolean> openChannels = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong memoryUsed = new AtomicLong();
+
+    private final AtomicLong spilledBytes = new AtomicLong();
+
+    private final AtomicLong globalTail = new AtomicLong(0L);
+
+    private final Set<Long> trimmed = ConcurrentHashMap.newKeySet();
+
+    private volatile long startingAddress = 0;
+
+    /**
+     * Returns a new stream log which keeps its records in memory up to a limit.
+     *
+     * @param memoryLimit the number of bytes of records kept in memory
+     * @param spillPath   the directory in which the spill directory is created, or null
+     *                    for the default temporary directory
+     */
+    public SpillingStreamLog(long memoryLimit, @Nullable String spillPath) {
+        this.memoryLimit = memoryLimit;
+        try {
+            Path parent = Paths.get(spillPath == null
+                    ? System.getProperty("java.io.tmpdir") : spillPath);
+            Files.createDirectories(parent);
+            spillDirectory = Files.createTempDirectory(parent, "corfu-spill-");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        MetricRegistry metrics = ServerContext.getMetrics();
+        // The gauges of a previous log unit, e.g. in tests, are replaced
+        metrics.remove(METRICS_PREFIX + "bytes-in-memory");
+        metrics.register(METRICS_PREFIX + "bytes-in-memory", (Gauge<Long>) memoryUsed::get);
+        metrics.remove(METRICS_PREFIX + "bytes-spilled");
+        metrics.register(METRICS_PREFIX + "bytes-spilled", (Gauge<Long>) spilledBytes::get);
+        log.info("SpillingStreamLog: Keeping up to {} bytes of records in memory, spilling to {}",
+                memoryLimit, spillDirectory);
+    }
+
+    @Override
+    public synchronized void append(List<LogData> entries) {
+        for (LogData entry : entries) {
+            final long address = entry.getGlobalAddress();
+            if (isTrimmed(address) || getChunk(address).contains(address)) {
+                continue;
+            }
+
+            write(address, entry);
+        }
+        spillIfNeeded();
+        closeIdleChannels();
+    }
+
+    @Override
+    public synchronized void append(long address, LogData entry) {
+        if (isTrimmed(address)) {
+            throw new OverwriteException();
+        }
+
+        if (getChunk(address).contains(address)) {
+            throwLogUnitExceptionsIfNecessary(address, entry);
+        }
+        write(address, entry);
+        spillIfNeeded();
+        closeIdleChannels();
+    }
+
+    private void throwLogUnitExceptionsIfNecessary(long address, LogData entry) {
+        if (entry.getRank() == null) {
+            throw new OverwriteException();
+        } else {
+            // the method below might throw DataOutrankedException or ValueAdoptedException
+            assertAppendPermittedUnsafe(address, entry);
+        }
+    }
+
+    private boolean isTrimmed(long address) {
+        return address < startingAddress;
+    }
+
+    private Chunk getChunk(long address) {
+        return chunks.computeIfAbsent(address / RECORDS_PER_CHUNK, Chunk::new);
+    }
+
+    private void write(long address, LogData entry) {
+        try {
+            getChunk(address).put(address, encode(entry));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        globalTail.getAndUpdate(maxTail -> address > maxTail ? address : maxTail);
+    }
+
+    /**
+     * Spill the least recently used chunks in memory, until the slabs left take no more than
+     * the memory limit.
+     */
+    private void spillIfNeeded() {
+        while (memoryUsed.get() > memoryLimit) {
+            Optional<Chunk> coldest = chunks.values().stream()
+                    .filter(Chunk::inMemory)
+                    .min(Comparator.comparingLong(chunk -> chunk.lastAccess));
+            if (!coldest.isPresent()) {
+                return;
+            }
+
+            try {
+                coldest.get().spill();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Close the least recently used spill files beyond {@link #MAX_OPEN_SPILL_FILES}. No
+     * chunk is locked while the victims are picked, so that chunks can register their
+     * channel while holding their own lock.
+     */
+    private void closeIdleChannels() {
+        List<Chunk> idle = new ArrayList<>();
+        synchronized (openChannels) {
+            Iterator<Chunk> lru = openChannels.keySet().iterator();
+            while (openChannels.size() > MAX_OPEN_SPILL_FILES) {
+                idle.add(lru.next());
+                lru.remove();
+            }
+        }
+        idle.forEach(Chunk::closeChannel);
+    }
+
+    /**
+     * @return the number of spill files which are open
+     */
+    @VisibleForTesting
+    int getOpenSpillFiles() {
+        synchronized (openChannels) {
+            return openChannels.size();
+        }
+    }
+
+    /**
+     * Load a spilled chunk which is read often back into memory, and spill colder chunks
+     * in its place.
+     */
+    private synchronized void reloadIfHot(Chunk chunk) throws IOException {
+        if (chunk.reload()) {
+            spillIfNeeded();
+        }
+    }
+
+    /**
+     * Serialize a record: its type, its data (empty if it has none) and its metadata. The
+     * data of every type is kept, since ranked proposals carry a value.
+     */
+    private static byte[] encode(LogData entry) {
+        final byte[] data = entry.getData() == null ? new byte[0] : entry.getData();
+        ByteBuf buf = Unpooled.buffer(Byte.BYTES + Integer.BYTES + data.length);
+        ICorfuPayload.serialize(buf, entry.getType());
+        ICorfuPayload.serialize(buf, data);
+        ICorfuPayload.serialize(buf, entry.getMetadataMap());
+        final byte[] record = new byte[buf.readableBytes()];
+        buf.readBytes(record);
+        return record;
+    }
+
+    private static LogData decode(long address, byte[] record) {
+        ByteBuf buf = Unpooled.wrappedBuffer(record);
+        DataType type = ICorfuPayload.fromBuffer(buf, DataType.class);
+        byte[] data = ICorfuPayload.fromBuffer(buf, byte[].class);
+        LogData entry = new LogData(type, Unpooled.wrappedBuffer(data));
+        entry.getMetadataMap().putAll(ICorfuPayload.enumMapFromBuffer(buf,
+                IMetadata.LogUnitMetadataType.class, Object.class));
+        entry.setGlobalAddress(address);
+        return entry;
+    }
+
+    @Override
+    public LogData read(long address) {
+        if (isTrimmed(address) || trimmed.contains(address)) {
+            return LogData.getTrimmed(address);
+        }
+
+        Chunk chunk = chunks.get(address / RECORDS_PER_CHUNK);
+        if (chunk == null) {
+            return null;
+        }
+        try {
+            byte[] record = chunk.get(address);
+            if (chunk.isHot()) {
+                reloadIfHot(chunk);
+            }
+            closeIdleChannels();
+            return record == null ? null : decode(address, record);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void prefixTrim(long address) {
+        if (isTrimmed(address)) {
+            log.warn("prefixTrim: Ignoring repeated trim {}", address);
+        } else {
+            startingAddress = address + 1;
+        }
+    }
+
+    @Override
+    public void trim(long address) {
+        trimmed.add(address);
+    }
+
+    @Override
+    public long getGlobalTail() {
+        return globalTail.get();
+    }
+
+    @Override
+    public long getTrimMark() {
+        return startingAddress;
+    }
+
+    @Override
+    public void sync(boolean force) {
+        // The spill files are not meant to survive a restart
+    }
+
+    @Override
+    public void release(long address, LogData entry) {
+        // Records are decoded into new entries, nothing to release
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The chunks below the trim mark are dropped, with their slabs or spill file. Sparse
+     * trims only remove the location of their records, whose space is reclaimed with their
+     * chunk.
+     */
+    @Override
+    public synchronized void compact() {
+        for (Chunk chunk : new ArrayList<>(chunks.values())) {
+            if ((chunk.id + 1) * RECORDS_PER_CHUNK <= startingAddress) {
+                chunks.remove(chunk.id);
+                chunk.drop();
+            }
+        }
+
+        for (long address : trimmed) {
+            Chunk chunk = chunks.get(address / RECORDS_PER_CHUNK);
+            if (chunk != null) {
+                chunk.remove(address);
+            }
+            if (address < startingAddress) {
+                trimmed.remove(address);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        dropAll();
+        try {
+            Files.deleteIfExists(spillDirectory);
+        } catch (IOException e) {
+            log.warn("close: Could not delete {}", spillDirectory, e);
+        }
+    }
+
+    @Override
+    public synchronized void reset() {
+        startingAddress = 0;
+        globalTail.set(0L);
+        // Clear the trimmed addresses record.
+        trimmed.clear();
+        dropAll();
+    }
+
+    private void dropAll() {
+        chunks.values().forEach(Chunk::drop);
+        chunks.clear();
+        synchronized (openChannels) {
+            openChannels.clear();
+        }
+    }
+
+    /**
+     * The records of a range of {@link #RECORDS_PER_CHUNK} addresses, in memory or spilled.
+     */
+    private final class Chunk {
+
+        final long id;
+
+        /**
+         * The location of the record of each address: the slab index in the upper 32 bits
+         * and the offset in the slab in the lower ones while in memory, or the offset in
+         * the spill file once spilled. A record is its length followed by its bytes.
+         */
+        private final Map<Long, Long> locations = new HashMap<>();
+
+        private final List<ByteBuf> slabs = new ArrayList<>();
+
+        private boolean spilled;
+
+        /**
+         * The channel of the spill file, or null if it is closed.
+         */
+        @Nullable
+        private FileChannel channel;
+
+        private long fileSize;
+
+        /**
+         * The number of reads since the chunk was spilled.
+         */
+        private int spilledReads;
+
+        volatile long lastAccess = System.nanoTime();
+
+        Chunk(long id) {
+            this.id = id;
+        }
+
+        private Path getFile() {
+            return spillDirectory.resolve(id + ".spill");
+        }
+
+        synchronized boolean inMemory() {
+            return !spilled && !slabs.isEmpty();
+        }
+
+        synchronized boolean isHot() {
+            return spilled && spilledReads >= RELOAD_READS;
+        }
+
+        /**
+         * @return the channel of the spill file, which is opened if it was closed
+         */
+        private FileChannel channel() throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(getFile(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            synchronized (openChannels) {
+                openChannels.put(this, Boolean.TRUE);
+            }
+            return channel;
+        }
+
+        synchronized void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.warn("closeChannel: Could not close {}", getFile(), e);
+                }
+                channel = null;
+            }
+        }
+
+        synchronized boolean contains(long address) {
+            return locations.containsKey(address);
+        }
+
+        synchronized void put(long address, byte[] record) throws IOException {
+            lastAccess = System.nanoTime();
+            final int size = Integer.BYTES + record.length;
+            if (spilled) {
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                buffer.putInt(record.length);
+                buffer.put(record);
+                buffer.flip();
+                writeFully(channel(), buffer, fileSize);
+                locations.put(address, fileSize);
+                fileSize += size;
+                spilledBytes.addAndGet(size);
+                return;
+            }
+
+            ByteBuf slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+            if (slab == null || slab.writableBytes() < size) {
+                final int capacity = Math.max(SLAB_SIZE, size);
+                slab = Unpooled.directBuffer(capacity, capacity);
+                slabs.add(slab);
+                memoryUsed.addAndGet(capacity);
+            }
+            locations.put(address, ((long) (slabs.size() - 1) << Integer.SIZE)
+                    | slab.writerIndex());
+            slab.writeInt(record.length);
+            slab.writeBytes(record);
+        }
+
+        @Nullable
+        synchronized byte[] get(long address) throws IOException {
+            final Long location = locations.get(address);
+            if (location == null) {
+                return null;
+            }
+            lastAccess = System.nanoTime();
+
+            if (spilled) {
+                spilledReads++;
+                final FileChannel file = channel();
+                ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+                readFully(file, length, location);
+                ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+                readFully(file, record, location + Integer.BYTES);
+                return record.array();
+            }
+
+            final ByteBuf slab = slabs.get((int) (location >>> Integer.SIZE));
+            final int offset = (int) (location & 0xFFFFFFFFL);
+            final byte[] record = new byte[slab.getInt(offset)];
+            slab.getBytes(offset + Integer.BYTES, record);
+            return record;
+        }
+
+        synchronized void remove(long address) {
+            locations.remove(address);
+        }
+
+        /**
+         * Write the slabs to the spill file of the chunk, and release them.
+         */
+        synchronized void spill() throws IOException {
+            if (!inMemory()) {
+                return;
+            }
+
+            FileChannel file = FileChannel.open(getFile(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            final long[] slabOffsets = new long[slabs.size()];
+            long position = 0;
+            try {
+                for (int i = 0; i < slabs.size(); i++) {
+                    ByteBuf slab = slabs.get(i);
+                    slabOffsets[i] = position;
+                    writeFully(file, slab.nioBuffer(0, slab.writerIndex()), position);
+                    position += slab.writerIndex();
+                }
+            } catch (IOException e) {
+                file.close();
+                Files.deleteIfExists(getFile());
+                throw e;
+            }
+
+            locations.replaceAll((address, location) ->
+                    slabOffsets[(int) (location >>> Integer.SIZE)] + (location & 0xFFFFFFFFL));
+            spilled = true;
+            spilledReads = 0;
+            channel = file;
+            synchronized (openChannels) {
+                openChannels.put(this, Boolean.TRUE);
+            }
+            fileSize = position;
+            spilledBytes.addAndGet(position);
+            releaseSlabs();
+            log.debug("spill: Spilled {} records, {} bytes, of chunk {}", locations.size(),
+                    position, id);
+        }
+
+        /**
+         * Load the live records of a spilled chunk back into slabs, if it is hot and fits in
+         * the memory limit, and delete its spill file.
+         *
+         * @return true, if the chunk was loaded
+         */
+        synchronized boolean reload() throws IOException {
+            if (!isHot() || fileSize > memoryLimit || fileSize > Integer.MAX_VALUE) {
+                return false;
+            }
+
+            final ByteBuffer file = ByteBuffer.allocate((int) fileSize);
+            readFully(channel(), file, 0);
+            final Map<Long, Long> spilledLocations = new TreeMap<>(locations);
+            deleteSpillFile();
+            locations.clear();
+            for (Map.Entry<Long, Long> location : spilledLocations.entrySet()) {
+                final int offset = location.getValue().intValue();
+                final byte[] record = new byte[file.getInt(offset)];
+                ByteBuffer source = file.duplicate();
+                source.position(offset + Integer.BYTES);
+                source.get(record);
+                put(location.getKey(), record);
+            }
+            log.debug("reload: Loaded {} records of chunk {} back into memory",
+                    locations.size(), id);
+            return true;
+        }
+
+        /**
+         * Release the slabs and delete the spill file of the chunk.
+         */
+        synchronized void drop() {
+            releaseSlabs();
+            locations.clear();
+            if (spilled) {
+                deleteSpillFile();
+            }
+        }
+
+        private void deleteSpillFile() {
+            closeChannel();
+            synchronized (openChannels) {
+                openChannels.remove(this);
+            }
+            try {
+                Files.deleteIfExists(getFile());
+            } catch (IOException e) {
+                log.warn("deleteSpillFile: Could not delete {}", getFile(), e);
+            }
+            spilledBytes.addAndGet(-fileSize);
+            spilled = false;
+            spilledReads = 0;
+            fileSize = 0;
+        }
+
+        private void releaseSlabs() {
+            for (ByteBuf slab : slabs) {
+                memoryUsed.addAndGet(-slab.capacity());
+                slab.release();
+            }
+            slabs.clear();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of spill file at " + position);
+            }
+        }
+    }
+}
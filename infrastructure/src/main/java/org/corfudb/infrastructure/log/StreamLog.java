@@ -1,7 +1,12 @@
 package org.corfudb.infrastructure.log;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
 
 import org.corfudb.protocols.wireprotocol.LogData;
 
@@ -36,12 +41,63 @@ public interface StreamLog {
      */
     LogData read(long address);
 
+    /**
+     * Given several addresses, read the corresponding stream entries. Implementations
+     * may read the entries in fewer I/O operations than one read per address.
+     * @param addresses addresses to read from the log
+     * @return a map of the addresses which exist in the log to their stream entries
+     */
+    default Map<Long, LogData> readAll(Iterable<? extends Long> addresses) {
+        Map<Long, LogData> entries = new HashMap<>();
+        for (Long address : addresses) {
+            LogData entry = read(address);
+            if (entry != null) {
+                entries.put(address, entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Given an address, locate the payload of the corresponding stream entry, so that it
+     * can be sent without being copied through the heap. The caller releases the region.
+     * @param address  address to read from the log
+     * @return a region over the payload of the entry, or null if the entry does not exist
+     *     or can't be served as a region, in which case it should be read
+     */
+    @Nullable
+    default LogDataRegion readRegion(long address) {
+        return null;
+    }
+
+    /**
+     * Get the addresses of a stream in a range, which were written and not trimmed, from
+     * an index of the streams.
+     * @param streamId the stream
+     * @param start    the first address of the range
+     * @param end      the last address of the range, included
+     * @return the addresses of the stream, in ascending order, or null if the log does not
+     *     index its streams, in which case finding them costs a read of every entry
+     */
+    @Nullable
+    default List<Long> getStreamAddresses(UUID streamId, long start, long end) {
+        return null;
+    }
+
     /**
      * Mark a StreamLog address as trimmed.
      * @param address  address to trim from the log
      */
     void trim(long address);
 
+    /**
+     * Mark several StreamLog addresses as trimmed.
+     * @param addresses  addresses to trim from the log
+     */
+    default void trim(List<Long> addresses) {
+        addresses.forEach(this::trim);
+    }
+
     /**
      * Prefix trim the global log.
      * @param address address to trim the log up to
@@ -70,6 +126,17 @@ public interface StreamLog {
      */
     void sync(boolean force) throws IOException;
 
+    /**
+     * Sync the stream log file to secondary storage.
+     *
+     * @param force    force data to secondary storage if true
+     * @param metadata also force the metadata of the files, e.g. their modification time,
+     *                 which is not needed to read the data back
+     */
+    default void sync(boolean force, boolean metadata) throws IOException {
+        sync(force);
+    }
+
     /**
      * Close the stream log.
      */
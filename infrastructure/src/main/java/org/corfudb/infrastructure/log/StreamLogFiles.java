@@ -1,11 +1,20 @@
 package org.corfudb.infrastructure.log;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.AbstractMessage;
-import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.WireFormat;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -15,29 +24,39 @@ import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.Nullable;
 
@@ -48,7 +67,6 @@ import org.corfudb.format.Types;
 import org.corfudb.format.Types.LogEntry;
 import org.corfudb.format.Types.LogHeader;
 import org.corfudb.format.Types.Metadata;
-import org.corfudb.format.Types.TrimEntry;
 import org.corfudb.infrastructure.ServerContext;
 import org.corfudb.protocols.logprotocol.CheckpointEntry;
 import org.corfudb.protocols.wireprotocol.IMetadata;
@@ -74,19 +92,168 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             .setLength(-1)
             .build()
             .getSerializedSize();
-    public static int VERSION = 2;
+    public static int VERSION = 3;
     public static int RECORDS_PER_LOG_FILE = 10000;
     public static int TRIM_THRESHOLD = (int) (.25 * RECORDS_PER_LOG_FILE);
+
+    /**
+     * Records of a bulk read separated by at most this many bytes are read together.
+     */
+    private static final int READ_COALESCE_GAP = 64 * 1024;
+
+    /**
+     * The maximum number of bytes read from a segment at once by a bulk read.
+     */
+    private static final int MAX_READ_SPAN = 4 * 1024 * 1024;
+
+    /**
+     * Payloads smaller than this are not worth a region of their own, they are read.
+     */
+    public static final int MIN_REGION_SIZE = 16 * 1024;
+
+    /**
+     * Enough bytes from the start of a record to hold the data type and the payload length.
+     */
+    private static final int REGION_PREFIX_SIZE = 16;
+
+    private static final int UUID_BYTES = Long.BYTES * 2;
+
+    /**
+     * Records are serialized into a buffer per writing thread, which is kept for the next
+     * write unless it grew beyond this size.
+     */
+    private static final int MAX_RETAINED_RECORD_BUFFER = 4 * 1024 * 1024;
+
+    /**
+     * The number of bytes read from a segment at once by compaction.
+     */
+    private static final int COMPACTION_CHUNK_SIZE = 1024 * 1024;
+
+    private static final String COMPACTION_BACKLOG_METRIC = "logunit.compaction.backlog";
+
+    private static final String OPEN_SEGMENTS_METRIC = "logunit.segments.open";
+
+    private static final ThreadLocal<ByteBuffer> recordBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(METADATA_SIZE));
+
+    /**
+     * The number of recently used segment handles looked up without the segment map.
+     */
+    private static final int RECENT_SEGMENTS = 64;
     public final String logDir;
+
+    /**
+     * The directories segment files are placed in, e.g. one per disk. The first one is
+     * {@link #logDir}.
+     */
+    private final List<String> logDirs;
+
+    /**
+     * How new segments are placed in the directories.
+     */
+    private final SegmentPlacement segmentPlacement;
+
+    /**
+     * Forces the channels of each directory, or null if there is a single directory, whose
+     * channels are forced by the syncing thread.
+     */
+    @Nullable
+    private final ExecutorService[] syncExecutors;
+
     private final boolean noVerify;
     private final ServerContext serverContext;
     private final AtomicLong globalTail = new AtomicLong(0L);
-    private Map<String, SegmentHandle> writeChannels;
-    private Set<FileChannel> channelsToSync;
-    private MultiReadWriteLock segmentLocks = new MultiReadWriteLock();
+    /**
+     * Segment handles by segment number. Lookups of open segments never lock.
+     */
+    private final Map<Long, SegmentHandle> writeChannels = new ConcurrentHashMap<>();
+
+    /**
+     * Recently used segment handles, by segment number modulo the array length, so that
+     * lookups of the hot segments do not even box the segment number.
+     */
+    private final AtomicReferenceArray<SegmentHandle> recentSegments =
+            new AtomicReferenceArray<>(RECENT_SEGMENTS);
+
+    /**
+     * The channels written since the last sync, and the directory of each.
+     */
+    private final Map<FileChannel, Integer> channelsToSync = new ConcurrentHashMap<>();
     private long lastSegment;
     private volatile long startingAddress;
 
+    /**
+     * The number of open segment handles beyond which the least recently used idle sealed
+     * segments are closed, or 0 if there is no limit.
+     */
+    private final int maxOpenSegments;
+
+    /**
+     * Serializes the closing of idle segments.
+     */
+    private final ReentrantLock idleSegmentsLock = new ReentrantLock();
+
+    private final Counter closedIdleSegments = ServerContext.getMetrics()
+            .counter("logunit.segments.closed-idle");
+
+    /**
+     * Mappings of sealed segments used for reads, or null if reads always go through
+     * the segment read channels.
+     */
+    @Nullable
+    private final MappedSegmentCache mappedSegments;
+
+    /**
+     * Full segments whose index is written on the next forced sync, once their records
+     * are durable.
+     */
+    private final Map<Long, SegmentHandle> segmentsToIndex = new ConcurrentHashMap<>();
+
+    /**
+     * The codec payloads of new records are compressed with, or null if they are not.
+     */
+    @Nullable
+    private final RecordCodec codec;
+
+    /**
+     * Payloads smaller than this are not compressed.
+     */
+    private final int compressionThreshold;
+
+    private final Timer compressTimer = ServerContext.getMetrics()
+            .timer("logunit.compression.compress");
+
+    private final Timer decompressTimer = ServerContext.getMetrics()
+            .timer("logunit.compression.decompress");
+
+    /**
+     * The size of each compressed payload, in percent of its uncompressed size.
+     */
+    private final Histogram compressionRatio = ServerContext.getMetrics()
+            .histogram("logunit.compression.ratio-percent");
+
+    /**
+     * Serializes compactions, which otherwise run concurrently with reads and appends.
+     */
+    private final ReentrantLock compactionLock = new ReentrantLock();
+
+    /**
+     * Limits the bytes read per second by compaction, or null if it is not limited.
+     */
+    @Nullable
+    private final RateLimiter compactionRateLimiter;
+
+    private final Counter compactionBytesReclaimed = ServerContext.getMetrics()
+            .counter("logunit.compaction.bytes-reclaimed");
+
+    private final Timer compactionTimer = ServerContext.getMetrics()
+            .timer("logunit.compaction.duration");
+
+    /**
+     * The number of segments left to compact by the current compaction.
+     */
+    private final AtomicInteger compactionBacklog = new AtomicInteger();
+
     /**
      * Returns a file-based stream log object.
      * @param serverContext  Context object that provides server state such as epoch,
@@ -95,15 +262,59 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
      */
     public StreamLogFiles(ServerContext serverContext, boolean noVerify) {
         logDir = serverContext.getServerConfig().get("--log-path") + File.separator + "log";
-        File dir = new File(logDir);
-        if (!dir.exists()) {
-            dir.mkdirs();
+        logDirs = new ArrayList<>();
+        logDirs.add(logDir);
+        String dataDirs = (String) serverContext.getServerConfig().get("--data-dirs");
+        if (dataDirs != null) {
+            Arrays.stream(dataDirs.split(","))
+                    .map(String::trim)
+                    .filter(dir -> !dir.isEmpty())
+                    .forEach(logDirs::add);
+        }
+        for (String path : logDirs) {
+            File dir = new File(path);
+            if (!dir.exists()) {
+                dir.mkdirs();
+            }
+        }
+
+        segmentPlacement = SegmentPlacement.of((String) serverContext.getServerConfig()
+                .get("--segment-placement"));
+        if (logDirs.size() > 1) {
+            syncExecutors = new ExecutorService[logDirs.size()];
+            for (int i = 0; i < syncExecutors.length; i++) {
+                syncExecutors[i] = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("LogUnit-Sync-" + i + "-%d")
+                        .build());
+            }
+        } else {
+            syncExecutors = null;
         }
 
-        writeChannels = new ConcurrentHashMap();
-        channelsToSync = new HashSet<>();
         this.noVerify = noVerify;
         this.serverContext = serverContext;
+
+        int maxMappedSegments = Integer.parseInt((String) serverContext.getServerConfig()
+                .get("--mmap-segments"));
+        mappedSegments = maxMappedSegments > 0 ? new MappedSegmentCache(maxMappedSegments) : null;
+        maxOpenSegments = Integer.parseInt((String) serverContext.getServerConfig()
+                .get("--max-open-segments"));
+        ServerContext.getMetrics().remove(OPEN_SEGMENTS_METRIC);
+        ServerContext.getMetrics().register(OPEN_SEGMENTS_METRIC,
+                (Gauge<Integer>) writeChannels::size);
+
+        codec = RecordCodec.of((String) serverContext.getServerConfig().get("--log-compression"));
+        compressionThreshold = Integer.parseInt((String) serverContext.getServerConfig()
+                .get("--compression-threshold"));
+
+        long compactionRate = Long.parseLong((String) serverContext.getServerConfig()
+                .get("--compaction-rate"));
+        compactionRateLimiter = compactionRate > 0 ? RateLimiter.create(compactionRate) : null;
+        ServerContext.getMetrics().remove(COMPACTION_BACKLOG_METRIC);
+        ServerContext.getMetrics().register(COMPACTION_BACKLOG_METRIC,
+                (Gauge<Integer>) compactionBacklog::get);
+
         verifyLogs();
         // Starting address initialization should happen before
         // initializing the tail segment (i.e. initializeMaxGlobalAddress)
@@ -146,30 +357,29 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         fc.force(true);
     }
 
-    public static Metadata getMetadata(AbstractMessage message) {
+    /**
+     * Get the metadata of a serialized record.
+     *
+     * @param bytes  the buffer holding the record
+     * @param offset the offset of the record in the buffer
+     * @param length the length of the record
+     * @return the metadata to write before the record
+     */
+    private static Metadata getMetadata(byte[] bytes, int offset, int length) {
         return Metadata.newBuilder()
-                .setPayloadChecksum(getChecksum(message.toByteArray()))
-                .setLengthChecksum(getChecksum(message.getSerializedSize()))
-                .setLength(message.getSerializedSize())
+                .setPayloadChecksum(getChecksum(bytes, offset, length))
+                .setLengthChecksum(getChecksum(length))
+                .setLength(length)
                 .build();
     }
 
-    public static ByteBuffer getByteBuffer(Metadata metadata, AbstractMessage message) {
-        ByteBuffer buf = ByteBuffer.allocate(metadata.getSerializedSize()
-                + message.getSerializedSize());
-        buf.put(metadata.toByteArray());
-        buf.put(message.toByteArray());
-        buf.flip();
-        return buf;
-    }
-
     public static ByteBuffer getByteBufferWithMetaData(AbstractMessage message) {
-        Metadata metadata = getMetadata(message);
+        byte[] payload = message.toByteArray();
+        Metadata metadata = getMetadata(payload, 0, payload.length);
 
-        ByteBuffer buf = ByteBuffer.allocate(metadata.getSerializedSize()
-                + message.getSerializedSize());
+        ByteBuffer buf = ByteBuffer.allocate(METADATA_SIZE + payload.length);
         buf.put(metadata.toByteArray());
-        buf.put(message.toByteArray());
+        buf.put(payload);
         buf.flip();
         return buf;
     }
@@ -180,12 +390,11 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
      * @return       checksum of bytes
      */
     public static int getChecksum(byte[] bytes) {
-        Hasher hasher = Hashing.crc32c().newHasher();
-        for (byte a : bytes) {
-            hasher.putByte(a);
-        }
+        return getChecksum(bytes, 0, bytes.length);
+    }
 
-        return hasher.hash().asInt();
+    static int getChecksum(byte[] bytes, int offset, int length) {
+        return Hashing.crc32c().hashBytes(bytes, offset, length).asInt();
     }
 
     static int getChecksum(long num) {
@@ -249,12 +458,9 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         SegmentHandle sh = getSegmentHandleForAddress(addressInTailSegment);
 
         try {
-
-            for (long address : sh.getKnownAddresses().keySet()) {
-                globalTail.getAndUpdate(maxTail -> address > maxTail
-                        ? address : maxTail);
-            }
-
+            long address = sh.getMaxKnownAddress();
+            globalTail.getAndUpdate(maxTail -> address > maxTail
+                    ? address : maxTail);
         } finally {
             sh.release();
         }
@@ -264,12 +470,24 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
 
     private void verifyLogs() {
         String[] extension = {"log"};
-        File dir = new File(logDir);
+        Map<String, File> segmentFiles = new HashMap<>();
+
+        for (String path : logDirs) {
+            File dir = new File(path);
+            if (!dir.exists()) {
+                continue;
+            }
 
-        if (dir.exists()) {
             Collection<File> files = FileUtils.listFiles(dir, extension, true);
 
             for (File file : files) {
+                File other = segmentFiles.putIfAbsent(file.getName(), file);
+                if (other != null) {
+                    String msg = String.format("Log file %s is also in %s",
+                            file.getAbsoluteFile(), other.getAbsoluteFile());
+                    throw new RuntimeException(msg);
+                }
+
                 try (FileInputStream fsIn = new FileInputStream(file)) {
                     FileChannel fc = fsIn.getChannel();
                     LogHeader header = parseHeader(fc);
@@ -303,49 +521,201 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
 
     @Override
     public void sync(boolean force) throws IOException {
+        sync(force, true);
+    }
+
+    @Override
+    public void sync(boolean force, boolean metadata) throws IOException {
+        Map<Integer, List<FileChannel>> channelsByDir = new HashMap<>();
+        int synced = 0;
+        for (Map.Entry<FileChannel, Integer> entry : channelsToSync.entrySet()) {
+            // Remove the channel first, so that a concurrent write adds it back
+            channelsToSync.remove(entry.getKey());
+            channelsByDir.computeIfAbsent(entry.getValue(), dir -> new ArrayList<>())
+                    .add(entry.getKey());
+            synced++;
+        }
+
         if (force) {
-            for (FileChannel ch : channelsToSync) {
-                ch.force(true);
+            if (syncExecutors == null || channelsByDir.size() < 2) {
+                for (List<FileChannel> channels : channelsByDir.values()) {
+                    force(channels, metadata);
+                }
+            } else {
+                forceInParallel(channelsByDir, metadata);
+            }
+        }
+        log.debug("Sync'd {} channels", synced);
+
+        if (force) {
+            writeSegmentIndexes();
+        }
+    }
+
+    /**
+     * Force the channels of each directory on the sync thread of the directory, so that
+     * the disks flush their writes concurrently.
+     *
+     * @param channelsByDir the channels to force, by directory
+     * @param metadata      whether the metadata of the files is forced too
+     * @throws IOException if a channel could not be forced
+     */
+    private void forceInParallel(Map<Integer, List<FileChannel>> channelsByDir,
+                                 boolean metadata) throws IOException {
+        List<Future<Void>> futures = new ArrayList<>(channelsByDir.size());
+        for (Map.Entry<Integer, List<FileChannel>> entry : channelsByDir.entrySet()) {
+            futures.add(syncExecutors[entry.getKey()].submit(() -> {
+                force(entry.getValue(), metadata);
+                return null;
+            }));
+        }
+
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while syncing the log");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    private static void force(List<FileChannel> channels, boolean metadata)
+            throws IOException {
+        for (FileChannel ch : channels) {
+            try {
+                ch.force(metadata);
+            } catch (ClosedChannelException e) {
+                // The segment was replaced by compaction, which synced it
+            }
+        }
+    }
+
+    /**
+     * Schedule the index of a segment to be written, if the segment is full and not
+     * already indexed.
+     *
+     * @param sh the segment handle
+     */
+    private void scheduleIndex(SegmentHandle sh) {
+        if (!sh.isIndexed() && sh.getKnownAddressCount()
+                + sh.getTrimmedAddressCount() >= sh.getCapacity()) {
+            segmentsToIndex.putIfAbsent(sh.getSegment(), sh);
+        }
+    }
+
+    /**
+     * Write the index of every full segment, must be called after the segments are synced.
+     */
+    private void writeSegmentIndexes() {
+        for (SegmentHandle sh : segmentsToIndex.values()) {
+            segmentsToIndex.remove(sh.getSegment());
+
+            // Skip segments closed by a trim, or replaced by compaction, in the meantime.
+            if (writeChannels.get(sh.getSegment()) != sh) {
+                continue;
+            }
+
+            try {
+                SegmentIndex index = SegmentIndex.of(sh);
+                index.write(Paths.get(SegmentIndex.getIndexFilePath(sh.getFileName())));
+                sh.setIndexed(true);
+                log.debug("writeSegmentIndexes: Indexed {} records of {}", index.size(),
+                        sh.getFileName());
+            } catch (IOException e) {
+                log.warn("writeSegmentIndexes: Couldn't write index for {}",
+                        sh.getFileName(), e);
             }
         }
-        log.debug("Sync'd {} channels", channelsToSync.size());
-        channelsToSync.clear();
     }
 
     @Override
     public void trim(long address) {
-        SegmentHandle handle = getSegmentHandleForAddress(address);
-        try {
-            if (!handle.getKnownAddresses().containsKey(address)
-                    || handle.getPendingTrims().contains(address)) {
-                return;
+        trim(Collections.singletonList(address));
+    }
+
+    /**
+     * Mark addresses as trimmed. The pending trims of each segment are persisted with a
+     * single write of the words of its pending trim bitmap which changed.
+     *
+     * @param addresses addresses to trim from the log
+     */
+    @Override
+    public void trim(List<Long> addresses) {
+        Map<Long, List<Long>> segments = new TreeMap<>();
+        for (long address : addresses) {
+            if (!isTrimmed(address)) {
+                segments.computeIfAbsent(address / RECORDS_PER_LOG_FILE, s -> new ArrayList<>())
+                        .add(address);
             }
+        }
 
-            TrimEntry entry = TrimEntry.newBuilder()
-                    .setChecksum(getChecksum(address))
-                    .setAddress(address)
-                    .build();
+        for (List<Long> segmentAddresses : segments.values()) {
+            while (!tryTrim(segmentAddresses)) {
+                log.trace("trim: Segment was replaced by compaction, retrying");
+            }
+        }
+    }
 
-            // TODO(Maithem) possibly move this to SegmentHandle. Do we need to close and flush?
-            OutputStream outputStream = Channels.newOutputStream(handle.getPendingTrimChannel());
+    /**
+     * Record pending trims in the current handle of the segment of some addresses.
+     *
+     * @param addresses addresses of a single segment to trim
+     * @return false, if the handle was replaced by compaction and the trims must be retried
+     */
+    private boolean tryTrim(List<Long> addresses) {
+        SegmentHandle handle = getSegmentHandleForAddress(addresses.get(0));
+        // Compaction replaces the handle while holding the append lock
+        long stamp = handle.getAppendLock().readLock();
+        try {
+            if (handle.isRetired()) {
+                return false;
+            }
 
-            entry.writeDelimitedTo(outputStream);
-            outputStream.flush();
-            handle.getPendingTrims().add(address);
-            channelsToSync.add(handle.getPendingTrimChannel());
+            List<Long> trimmed = new ArrayList<>(addresses.size());
+            for (long address : addresses) {
+                if (handle.isKnownAddress(address) && !handle.isPendingTrim(address)) {
+                    handle.addPendingTrim(address);
+                    trimmed.add(address);
+                }
+            }
+
+            if (!trimmed.isEmpty()) {
+                handle.writePendingTrims(trimmed);
+                channelsToSync.put(handle.getPendingTrimChannel(), handle.getDirectory());
+            }
         } catch (IOException e) {
-            log.warn("Exception while writing a trim entry {} : {}", address, e.toString());
+            log.warn("Exception while writing trims of segment {} : {}", handle.getSegment(),
+                    e.toString());
         } finally {
+            handle.getAppendLock().unlockRead(stamp);
             handle.release();
         }
+        return true;
     }
 
+    /**
+     * Compact the log. Once the log is prefix trimmed, the segments below the trim mark
+     * are deleted, otherwise the segments with the most pending trims are rewritten without
+     * the trimmed records. Compactions are serialized with each other, but reads, appends
+     * and trims keep going while a segment is rewritten.
+     */
     @Override
-    public synchronized void compact() {
-        if (startingAddress == 0) {
-            spaseCompact();
-        } else {
-            trimPrefix();
+    public void compact() {
+        compactionLock.lock();
+        try {
+            if (startingAddress == 0) {
+                spaseCompact();
+            } else {
+                trimPrefix();
+            }
+        } finally {
+            compactionLock.unlock();
         }
     }
 
@@ -380,147 +750,295 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         log.info("trimPrefix: completed, end segment {}", endSegment);
     }
 
+    /**
+     * Rewrite the complete segments with at least {@link #TRIM_THRESHOLD} pending trims,
+     * starting with the segments where the pending trims are the largest fraction of the
+     * records, i.e. where a rewrite reclaims the most space for the I/O it costs.
+     */
     private void spaseCompact() {
         //TODO(Maithem) Open all segment handlers?
+        List<SegmentHandle> candidates = new ArrayList<>();
+        Map<Long, Double> reclaimable = new HashMap<>();
         for (SegmentHandle sh : writeChannels.values()) {
-            Set<Long> pending = new HashSet(sh.getPendingTrims());
-            Set<Long> trimmed = sh.getTrimmedAddresses();
+            if (!isSealed(sh.getSegment()) && sh.getKnownAddressCount()
+                    + sh.getTrimmedAddressCount() < sh.getCapacity()) {
+                log.trace("spaseCompact: Segment {} still not complete, skipping",
+                        sh.getSegment());
+                continue;
+            }
 
-            if (sh.getKnownAddresses().size() + trimmed.size() != RECORDS_PER_LOG_FILE) {
-                log.info("Log segment still not complete, skipping");
+            int pending = sh.getUncompactedTrimCount();
+            if (pending < TRIM_THRESHOLD) {
+                log.trace("spaseCompact: Threshold not exceeded for segment {}. Pending {}"
+                        + " threshold {}", sh.getSegment(), pending, TRIM_THRESHOLD);
                 continue;
             }
 
-            pending.removeAll(trimmed);
+            candidates.add(sh);
+            reclaimable.put(sh.getSegment(),
+                    (double) pending / Math.max(1, sh.getKnownAddressCount()));
+        }
 
-            //what if pending size  == knownaddresses size ?
-            if (pending.size() < TRIM_THRESHOLD) {
-                log.trace("Thresh hold not exceeded. Ratio {} threshold {}",
-                            pending.size(), TRIM_THRESHOLD);
-                return; // TODO - should not return if compact on ranked address space is necessary
-            }
+        candidates.sort((a, b) -> Double.compare(reclaimable.get(b.getSegment()),
+                reclaimable.get(a.getSegment())));
+        compactionBacklog.set(candidates.size());
 
+        for (SegmentHandle sh : candidates) {
+            sh.retain();
             try {
-                log.info("Starting compaction, pending entries size {}", pending.size());
-                trimLogFile(sh.getFileName(), pending);
+                // Skip segments closed by a trim in the meantime
+                if (!sh.isRetired() && writeChannels.get(sh.getSegment()) == sh) {
+                    compactSegment(sh);
+                }
             } catch (IOException e) {
-                log.error("Compact operation failed for file {}, {}", sh.getFileName(), e);
+                log.error("spaseCompact: Compaction failed for file {}", sh.getFileName(), e);
+            } finally {
+                sh.release();
+                compactionBacklog.decrementAndGet();
             }
         }
     }
 
-    private void trimLogFile(String filePath, Set<Long> pendingTrim) throws IOException {
-        try (FileChannel fc = FileChannel.open(FileSystems.getDefault().getPath(filePath + ".copy"),
-                EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
-                        StandardOpenOption.CREATE, StandardOpenOption.SPARSE))) {
-
-            CompactedEntry log = getCompactedEntries(filePath, pendingTrim);
-
-            LogHeader header = log.getLogHeader();
-            Collection<LogEntry> compacted = log.getEntries();
-
-            writeHeader(fc, header.getVersion(), header.getVerifyChecksum());
-
-            for (LogEntry entry : compacted) {
-
-                ByteBuffer record = getByteBufferWithMetaData(entry);
-                ByteBuffer recordBuf = ByteBuffer.allocate(record.capacity());
+    /**
+     * Rewrite a segment file without the records of its pending trims, nor the records
+     * superseded by a ranked overwrite, and replace the handle of the segment.
+     *
+     * <p>Records are copied as they are, without being decoded, at the compaction rate.
+     * Appends to the segment only wait while the records appended during the copy are
+     * copied, and the new file replaces the old one. Reads never wait: reads which hold
+     * the old handle complete against the old file, which stays open until they release it.
+     *
+     * @param sh the retained handle of the segment
+     * @throws IOException if the segment could not be rewritten, in which case the
+     *                     segment is left as it was
+     */
+    private void compactSegment(SegmentHandle sh) throws IOException {
+        final String filePath = sh.getFileName();
+        final Path copyPath = Paths.get(filePath + ".copy");
+        final Set<Long> pending = sh.getUncompactedTrims();
+        final Map<Long, AddressMetaData> records = new HashMap<>();
 
-                recordBuf.put(record.array());
-                recordBuf.flip();
+        log.info("compactSegment: Starting compaction of {}, pending entries size {}",
+                filePath, pending.size());
 
-                fc.write(recordBuf);
+        final Timer.Context context = compactionTimer.time();
+        try (FileChannel copy = FileChannel.open(copyPath,
+                EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.SPARSE))) {
+            // Appends hold the append lock until their record is complete in the file,
+            // and its location is in the address space.
+            long snapshotEnd;
+            long stamp = sh.getAppendLock().readLock();
+            try {
+                snapshotEnd = sh.getWriteChannel().position();
+            } finally {
+                sh.getAppendLock().unlockRead(stamp);
             }
 
-            fc.force(true);
-        }
+            long position = copyRecords(sh, copy, 0, snapshotEnd, pending, records, true);
+
+            stamp = sh.getAppendLock().writeLock();
+            try {
+                final long sizeBefore = sh.getWriteChannel().position();
+                copyRecords(sh, copy, position, sizeBefore, pending, records, false);
+                copy.force(true);
+                final long sizeAfter = copy.size();
+                sh.getPendingTrimChannel().force(true);
 
-        try (FileChannel fc2 = FileChannel.open(FileSystems.getDefault()
-                        .getPath(getTrimmedFilePath(filePath)),
-                EnumSet.of(StandardOpenOption.APPEND))) {
-            try (OutputStream outputStream = Channels.newOutputStream(fc2)) {
                 // Todo(Maithem) How do we verify that the compacted file is correct?
-                for (Long address : pendingTrim) {
-                    TrimEntry entry = TrimEntry.newBuilder()
-                            .setChecksum(getChecksum(address))
-                            .setAddress(address)
-                            .build();
-                    entry.writeDelimitedTo(outputStream);
-                }
-                outputStream.flush();
-                fc2.force(true);
+                pending.forEach(sh::addTrimmedAddress);
+                sh.writeTrimmedAddresses();
+
+                // The offsets in the index are not valid for the compacted file
+                Files.deleteIfExists(Paths.get(SegmentIndex.getIndexFilePath(filePath)));
+                Files.move(copyPath, Paths.get(filePath), StandardCopyOption.ATOMIC_MOVE);
+                replaceSegmentHandle(sh, records);
+
+                compactionBytesReclaimed.inc(sizeBefore - sizeAfter);
+                log.info("compactSegment: Compacted {} from {} to {} bytes", filePath,
+                        sizeBefore, sizeAfter);
+            } finally {
+                sh.getAppendLock().unlockWrite(stamp);
             }
+        } finally {
+            Files.deleteIfExists(copyPath);
+            context.stop();
         }
-
-        Files.move(Paths.get(filePath + ".copy"), Paths.get(filePath),
-                StandardCopyOption.ATOMIC_MOVE);
-
-        // Force the reload of the new segment
-        writeChannels.remove(filePath);
     }
 
-    private CompactedEntry getCompactedEntries(String filePath,
-                                               Set<Long> pendingTrim) throws IOException {
-
-        FileChannel fc = getChannel(filePath, true);
-
-        // Skip the header
-        ByteBuffer headerMetadataBuf = ByteBuffer.allocate(METADATA_SIZE);
-        fc.read(headerMetadataBuf);
-        headerMetadataBuf.flip();
-
-        Metadata headerMetadata = Metadata.parseFrom(headerMetadataBuf.array());
-        ByteBuffer headerBuf = ByteBuffer.allocate(headerMetadata.getLength());
-        fc.read(headerBuf);
-        headerBuf.flip();
+    /**
+     * Copy the records of a segment file, from a record boundary up to another, which are
+     * neither pending trims nor superseded by a later record of the same address.
+     *
+     * @param sh       the handle of the segment
+     * @param copy     the channel to append the records to
+     * @param start    the offset of the first record, or 0 to start with the header
+     * @param end      the offset after the last record
+     * @param pending  the addresses of the records to drop
+     * @param records  receives the location of each record in the copy
+     * @param throttle whether to copy at the compaction rate
+     * @return the offset after the last record
+     */
+    private long copyRecords(SegmentHandle sh, FileChannel copy, long start, long end,
+                             Set<Long> pending, Map<Long, AddressMetaData> records,
+                             boolean throttle) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(COMPACTION_CHUNK_SIZE);
+        boolean header = start == 0;
+        long position = start;
+
+        while (position < end) {
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), end - position));
+            readFully(sh, chunk, position);
+
+            final byte[] bytes = chunk.array();
+            final int limit = chunk.limit();
+            int consumed = 0;
+            // The start of the records kept, which are copied together
+            int run = 0;
+
+            while (limit - consumed >= METADATA_SIZE) {
+                final Metadata metadata;
+                try {
+                    metadata = Metadata.parseFrom(CodedInputStream.newInstance(bytes, consumed,
+                            METADATA_SIZE));
+                } catch (InvalidProtocolBufferException e) {
+                    throw new DataCorruptionException();
+                }
+                if (metadata.getLengthChecksum() != getChecksum(metadata.getLength())) {
+                    throw new DataCorruptionException();
+                }
 
-        ByteBuffer o = ByteBuffer.allocate((int) fc.size() - (int) fc.position());
-        fc.read(o);
-        fc.close();
-        o.flip();
+                final int recordSize = METADATA_SIZE + metadata.getLength();
+                if (limit - consumed < recordSize) {
+                    break;
+                }
 
-        LinkedHashMap<Long, LogEntry> compacted = new LinkedHashMap<>();
+                final int payload = consumed + METADATA_SIZE;
+                if (!noVerify && metadata.getPayloadChecksum()
+                        != getChecksum(bytes, payload, metadata.getLength())) {
+                    log.error("copyRecords: Checksum mismatch detected in file {} at offset {}",
+                            sh.getFileName(), position + payload);
+                    throw new DataCorruptionException();
+                }
 
-        while (o.hasRemaining()) {
-            byte[] metadataBuf = new byte[METADATA_SIZE];
-            o.get(metadataBuf);
+                boolean keep = true;
+                if (header) {
+                    header = false;
+                } else {
+                    final long address = getGlobalAddress(bytes, payload, metadata.getLength());
+                    final AddressMetaData current = sh.getAddressMetaData(address);
+                    keep = !pending.contains(address) && current != null
+                            && current.offset == position + payload;
+                    if (keep) {
+                        records.put(address, new AddressMetaData(metadata.getPayloadChecksum(),
+                                metadata.getLength(),
+                                copy.position() + consumed - run + METADATA_SIZE));
+                    }
+                }
 
-            try {
-                Metadata metadata = Metadata.parseFrom(metadataBuf);
+                if (!keep) {
+                    writeFully(copy, ByteBuffer.wrap(bytes, run, consumed - run));
+                    run = consumed + recordSize;
+                }
+                consumed += recordSize;
+            }
 
-                byte[] logEntryBuf = new byte[metadata.getLength()];
+            if (consumed == 0) {
+                if (limit < chunk.capacity()) {
+                    // A record can't be cut by the end of the range
+                    log.error("copyRecords: Truncated record in file {} at offset {}",
+                            sh.getFileName(), position);
+                    throw new DataCorruptionException();
+                }
+                // A record larger than the chunk
+                chunk = ByteBuffer.allocate(METADATA_SIZE + Metadata.parseFrom(
+                        CodedInputStream.newInstance(bytes, 0, METADATA_SIZE)).getLength());
+                continue;
+            }
 
-                o.get(logEntryBuf);
+            writeFully(copy, ByteBuffer.wrap(bytes, run, consumed - run));
+            position += consumed;
+            if (throttle && compactionRateLimiter != null) {
+                compactionRateLimiter.acquire(consumed);
+            }
+        }
 
-                LogEntry entry = LogEntry.parseFrom(logEntryBuf);
+        return position;
+    }
 
-                if (!noVerify) {
-                    if (metadata.getPayloadChecksum() != getChecksum(entry.toByteArray())) {
-                        log.error("Checksum mismatch detected while trying to read address {}",
-                                    entry.getGlobalAddress());
-                        throw new DataCorruptionException();
-                    }
+    /**
+     * Read the global address of a serialized log entry, without decoding the rest of it.
+     *
+     * @param bytes  the buffer holding the entry
+     * @param offset the offset of the entry in the buffer
+     * @param length the size of the entry
+     * @return the global address of the entry
+     */
+    private static long getGlobalAddress(byte[] bytes, int offset, int length) {
+        try {
+            CodedInputStream in = CodedInputStream.newInstance(bytes, offset, length);
+            long address = 0L;
+            for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                if (WireFormat.getTagFieldNumber(tag) == LogEntry.GLOBAL_ADDRESS_FIELD_NUMBER) {
+                    address = in.readInt64();
+                } else {
+                    in.skipField(tag);
                 }
+            }
+            return address;
+        } catch (IOException e) {
+            throw new DataCorruptionException();
+        }
+    }
 
-                if (!pendingTrim.contains(entry.getGlobalAddress())) {
-                    compacted.put(entry.getGlobalAddress(), entry);
-                }
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
 
-            } catch (InvalidProtocolBufferException e) {
-                throw new DataCorruptionException();
-            }
+    /**
+     * Replace the handle of a segment whose file was rewritten by compaction. Must be
+     * called while holding the append lock of the old handle.
+     *
+     * @param sh      the old handle of the segment
+     * @param records the location of each record in the new file
+     */
+    private void replaceSegmentHandle(SegmentHandle sh, Map<Long, AddressMetaData> records) {
+        final long segment = sh.getSegment();
+        try {
+            SegmentIndex.of(records).write(
+                    Paths.get(SegmentIndex.getIndexFilePath(sh.getFileName())));
+        } catch (IOException e) {
+            // The new handle parses the segment instead
+            log.warn("replaceSegmentHandle: Couldn't write index for {}", sh.getFileName(), e);
         }
 
-        LogHeader header = LogHeader.parseFrom(headerBuf.array());
-        return new CompactedEntry(header, compacted.values());
+        try {
+            SegmentHandle newHandle = openSegmentHandle(segment);
+            if (!writeChannels.replace(segment, sh, newHandle)) {
+                newHandle.close();
+            }
+        } finally {
+            // If the segment couldn't be reopened, the next access retries
+            removeSegmentHandle(sh);
+            if (mappedSegments != null) {
+                mappedSegments.invalidate(segment);
+            }
+            // The new file is durable, and so are the pending trims
+            channelsToSync.remove(sh.getWriteChannel());
+            channelsToSync.remove(sh.getPendingTrimChannel());
+            sh.retire();
+        }
     }
 
     private LogData getLogData(LogEntry entry) {
-        ByteBuf data = Unpooled.wrappedBuffer(entry.getData().toByteArray());
+        ByteBuf data = Unpooled.wrappedBuffer(decompress(entry));
         LogData logData = new LogData(org.corfudb.protocols.wireprotocol
                 .DataType.typeMap.get((byte) entry.getDataType().getNumber()), data);
 
-        logData.setBackpointerMap(getUUIDLongMap(entry.getBackpointersMap()));
+        logData.setBackpointerMap(getBackpointers(entry));
         logData.setGlobalAddress(entry.getGlobalAddress());
         logData.setRank(createDataRank(entry));
 
@@ -699,7 +1217,8 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     /**
-     * Reads an address space from a log file into a SegmentHandle.
+     * Reads an address space from a log file into a SegmentHandle. If the segment has an
+     * index, the indexed records are loaded from it and only the rest of the file is parsed.
      *
      * @param sh  Object containing state for the segment to be read
      */
@@ -715,9 +1234,23 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 verify = false;
             }
             writeHeader(fc, VERSION, verify);
+            sh.setStreamsIndexed(true);
             return;
         }
 
+        SegmentIndex index = SegmentIndex.read(
+                Paths.get(SegmentIndex.getIndexFilePath(sh.getFileName())), fc.size());
+        if (index != null) {
+            index.load(sh);
+            fc.position(Math.max(fc.position(), index.getIndexedLength()));
+            sh.setIndexed(fc.position() == fc.size());
+            sh.setStreamsIndexed(index.hasStreams());
+            log.debug("readAddressSpace: Loaded {} records of {} from its index",
+                    index.size(), sh.getFileName());
+        } else {
+            sh.setStreamsIndexed(true);
+        }
+
         while (fc.size() - fc.position() > 0) {
             long channelOffset = fc.position();
             Metadata metadata = parseMetadata(fc);
@@ -738,7 +1271,8 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 return;
             }
 
-            sh.getKnownAddresses().put(entry.getGlobalAddress(),
+            sh.addStreamAddress(getBackpointers(entry).keySet(), entry.getGlobalAddress());
+            sh.putAddressMetaData(entry.getGlobalAddress(),
                     new AddressMetaData(metadata.getPayloadChecksum(),
                             metadata.getLength(), channelOffset + METADATA_SIZE));
         }
@@ -755,17 +1289,111 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             throws IOException {
         FileChannel fc = sh.getReadChannel();
 
-        AddressMetaData metaData = sh.getKnownAddresses().get(address);
-        if (metaData == null) {
-            return null;
+        AddressMetaData metaData = sh.getAddressMetaData(address);
+        if (metaData == null) {
+            return null;
+        }
+
+        if (mappedSegments != null && isSealed(sh.getSegment())) {
+            ByteBuffer mapping = mappedSegments.get(sh);
+            if (mapping != null && metaData.offset + metaData.length <= mapping.limit()) {
+                mapping.limit((int) metaData.offset + metaData.length);
+                mapping.position((int) metaData.offset);
+                try {
+                    return getLogData(LogEntry.parseFrom(CodedInputStream.newInstance(mapping)));
+                } catch (InvalidProtocolBufferException e) {
+                    throw new DataCorruptionException();
+                }
+            }
+            // The record was appended after the segment was mapped.
+        }
+
+        try {
+            ByteBuffer entryBuf = ByteBuffer.allocate(metaData.length);
+            fc.read(entryBuf, metaData.offset);
+            return getLogData(LogEntry.parseFrom(entryBuf.array()));
+        } catch (InvalidProtocolBufferException e) {
+            throw new DataCorruptionException();
+        }
+    }
+
+    /**
+     * A segment is sealed once the global tail has moved past it, after which it only
+     * receives ranked overwrites.
+     *
+     * @param segment the segment
+     * @return true, if the segment is below the segment of the global tail
+     */
+    private boolean isSealed(long segment) {
+        return segment < globalTail.get() / RECORDS_PER_LOG_FILE;
+    }
+
+    /**
+     * Read the records of several addresses of a segment in one pass over the file: the
+     * records are sorted by offset, and records close to each other are fetched with a
+     * single positional read.
+     *
+     * @param sh        The segment handle to use.
+     * @param addresses Addresses of the segment to read.
+     * @param entries   Receives the entries that were found.
+     */
+    private void readRecords(SegmentHandle sh, List<Long> addresses, Map<Long, LogData> entries)
+            throws IOException {
+        List<Long> located = new ArrayList<>(addresses.size());
+        Map<Long, AddressMetaData> locations = new HashMap<>();
+        for (long address : addresses) {
+            if (sh.isPendingTrim(address)) {
+                entries.put(address, LogData.getTrimmed(address));
+                continue;
+            }
+            AddressMetaData metaData = sh.getAddressMetaData(address);
+            if (metaData != null) {
+                located.add(address);
+                locations.put(address, metaData);
+            }
+        }
+
+        if (mappedSegments != null && isSealed(sh.getSegment())) {
+            // Reads from a mapping don't benefit from batching
+            for (long address : located) {
+                entries.put(address, readRecord(sh, address));
+            }
+            return;
         }
 
-        try {
-            ByteBuffer entryBuf = ByteBuffer.allocate(metaData.length);
-            fc.read(entryBuf, metaData.offset);
-            return getLogData(LogEntry.parseFrom(entryBuf.array()));
-        } catch (InvalidProtocolBufferException e) {
-            throw new DataCorruptionException();
+        located.sort((a, b) -> Long.compare(locations.get(a).offset, locations.get(b).offset));
+
+        int start = 0;
+        while (start < located.size()) {
+            final AddressMetaData first = locations.get(located.get(start));
+            long spanEnd = first.offset + first.length;
+            int end = start + 1;
+            while (end < located.size()) {
+                AddressMetaData next = locations.get(located.get(end));
+                long nextEnd = next.offset + next.length;
+                if (next.offset - spanEnd > READ_COALESCE_GAP
+                        || nextEnd - first.offset > MAX_READ_SPAN) {
+                    break;
+                }
+                spanEnd = Math.max(spanEnd, nextEnd);
+                end++;
+            }
+
+            ByteBuffer span = ByteBuffer.allocate((int) (spanEnd - first.offset));
+            readFully(sh, span, first.offset);
+
+            for (int i = start; i < end; i++) {
+                long address = located.get(i);
+                AddressMetaData metaData = locations.get(address);
+                try {
+                    entries.put(address, getLogData(LogEntry.parseFrom(CodedInputStream
+                            .newInstance(span.array(), (int) (metaData.offset - first.offset),
+                                    metaData.length))));
+                } catch (InvalidProtocolBufferException e) {
+                    throw new DataCorruptionException();
+                }
+            }
+            start = end;
         }
     }
 
@@ -792,118 +1420,261 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     /**
-     * Gets the file channel for a particular address, creating it
-     * if is not present in the map.
+     * Gets the segment handle for a particular address, opening the segment
+     * if is not present in the map. Looking up an open segment doesn't lock.
      *
      * @param address The address to open.
-     * @return The FileChannel for that address.
+     * @return The retained segment handle for that address.
      */
     @VisibleForTesting
-    synchronized SegmentHandle getSegmentHandleForAddress(long address) {
-        String filePath = logDir + File.separator;
-        long segment = address / RECORDS_PER_LOG_FILE;
-        filePath += segment;
-        filePath += ".log";
-
-        SegmentHandle handle = writeChannels.computeIfAbsent(filePath, a -> {
-            try {
-                boolean verify = true;
-                if (noVerify) {
-                    verify = false;
+    SegmentHandle getSegmentHandleForAddress(long address) {
+        final long segment = address / RECORDS_PER_LOG_FILE;
+        final int slot = (int) (segment % RECENT_SEGMENTS);
+
+        while (true) {
+            SegmentHandle handle = recentSegments.get(slot);
+            if (handle == null || handle.getSegment() != segment) {
+                handle = writeChannels.get(segment);
+                if (handle == null) {
+                    handle = writeChannels.computeIfAbsent(segment, this::openSegmentHandle);
+                    closeIdleSegments(handle);
+                }
+                recentSegments.set(slot, handle);
+                // Don't leave a handle behind that was removed in the meantime
+                if (writeChannels.get(segment) != handle) {
+                    recentSegments.compareAndSet(slot, handle, null);
                 }
-
-                FileChannel writeCh = getChannel(a, false);
-                FileChannel readCh = getChannel(a, true);
-                FileChannel trimmedCh = getChannel(getTrimmedFilePath(a), false);
-                FileChannel pendingTrimmedCh = getChannel(getPendingTrimsFilePath(a), false);
-
-                SegmentHandle sh = new SegmentHandle(segment, writeCh, readCh, trimmedCh, pendingTrimmedCh, a);
-                // The first time we open a file we should read to the end, to load the
-                // map of entries we already have.
-                // Once the segment address space is loaded, it should be ready to accept writes.
-                readAddressSpace(sh);
-                loadTrimAddresses(sh);
-                return sh;
-            } catch (IOException e) {
-                log.error("Error opening file {}", a, e);
-                throw new RuntimeException(e);
             }
-        });
 
-        handle.retain();
-        return handle;
+            handle.retain();
+            if (!handle.isRetired()) {
+                handle.setLastAccess(System.nanoTime());
+                return handle;
+            }
+            // The handle was replaced by compaction
+            handle.release();
+            recentSegments.compareAndSet(slot, handle, null);
+        }
     }
 
-    private void loadTrimAddresses(SegmentHandle sh) throws IOException {
-        long trimmedSize;
-        long pendingTrimSize;
-
-        //TODO(Maithem) compute checksums and refactor
-        try (MultiReadWriteLock.AutoCloseableLock ignored =
-                     segmentLocks.acquireReadLock(sh.getSegment())) {
-            trimmedSize = sh.getTrimmedChannel().size();
-            pendingTrimSize = sh.getPendingTrimChannel().size();
+    /**
+     * Close the least recently used segments beyond {@link #maxOpenSegments}, among the
+     * sealed segments which are not referenced. A closed segment is reopened on its next
+     * access, from its index.
+     *
+     * @param opened the handle which was just opened, and is about to be used
+     */
+    private void closeIdleSegments(SegmentHandle opened) {
+        if (maxOpenSegments == 0 || writeChannels.size() <= maxOpenSegments
+                || !idleSegmentsLock.tryLock()) {
+            return;
         }
 
-        try (FileChannel fcTrimmed = getChannel(getTrimmedFilePath(sh.getFileName()), true)) {
-            try (InputStream inputStream = Channels.newInputStream(fcTrimmed)) {
+        try {
+            // Snapshot the access times, which change while sorting
+            Map<SegmentHandle, Long> idle = new IdentityHashMap<>();
+            for (SegmentHandle sh : writeChannels.values()) {
+                if (sh != opened && sh.getRefCount() == 0 && isSealed(sh.getSegment())) {
+                    idle.put(sh, sh.getLastAccess());
+                }
+            }
+            List<SegmentHandle> candidates = new ArrayList<>(idle.keySet());
+            candidates.sort(Comparator.comparingLong(idle::get));
 
-                while (fcTrimmed.position() < trimmedSize) {
-                    TrimEntry trimEntry = TrimEntry.parseDelimitedFrom(inputStream);
-                    sh.getTrimmedAddresses().add(trimEntry.getAddress());
+            int excess = writeChannels.size() - maxOpenSegments;
+            for (SegmentHandle sh : candidates) {
+                if (excess <= 0) {
+                    break;
+                }
+                if (closeIdleSegment(sh)) {
+                    excess--;
                 }
+            }
+        } finally {
+            idleSegmentsLock.unlock();
+        }
+    }
 
-                inputStream.close();
-                fcTrimmed.close();
+    /**
+     * Close a segment which is not referenced. Its index is written first, if it doesn't
+     * cover the whole segment file, so that reopening the segment costs a single read.
+     *
+     * @param sh the segment handle
+     * @return true, if the segment was closed
+     */
+    private boolean closeIdleSegment(SegmentHandle sh) {
+        // Appends and trims which retained the handle before it is retired wait for the
+        // append lock, then retry on a new handle.
+        final long stamp = sh.getAppendLock().tryWriteLock();
+        if (stamp == 0) {
+            return false;
+        }
 
-                try (FileChannel fcPending =
-                             getChannel(getPendingTrimsFilePath(sh.getFileName()), true)) {
-                    try (InputStream pendingInputStream = Channels.newInputStream(fcPending)) {
+        try {
+            if (sh.isRetired() || sh.getRefCount() != 0
+                    || writeChannels.get(sh.getSegment()) != sh) {
+                return false;
+            }
 
-                        while (fcPending.position() < pendingTrimSize) {
-                            TrimEntry trimEntry = TrimEntry.parseDelimitedFrom(pendingInputStream);
-                            sh.getPendingTrims().add(trimEntry.getAddress());
-                        }
-                    }
+            if (!sh.isIndexed()) {
+                try {
+                    // The index must not cover records which are not durable
+                    sh.getWriteChannel().force(true);
+                    SegmentIndex.of(sh).write(
+                            Paths.get(SegmentIndex.getIndexFilePath(sh.getFileName())));
+                } catch (IOException e) {
+                    // The segment is parsed when it is reopened
+                    log.warn("closeIdleSegment: Couldn't write index for {}",
+                            sh.getFileName(), e);
                 }
             }
-        } catch (FileNotFoundException fe) {
-            return;
+
+            removeSegmentHandle(sh);
+            segmentsToIndex.remove(sh.getSegment(), sh);
+            if (mappedSegments != null) {
+                mappedSegments.invalidate(sh.getSegment());
+            }
+            // Closing the handle forces its channels
+            channelsToSync.remove(sh.getWriteChannel());
+            channelsToSync.remove(sh.getPendingTrimChannel());
+            sh.retire();
+            closedIdleSegments.inc();
+            log.debug("closeIdleSegment: Closed segment {}", sh.getSegment());
+            return true;
+        } finally {
+            sh.getAppendLock().unlockWrite(stamp);
         }
     }
 
-    Map<String, Long> getStrLongMap(Map<UUID, Long> uuidLongMap) {
-        Map<String, Long> stringLongMap = new HashMap();
+    /**
+     * Remove a segment handle, so that the next access to the segment reopens it.
+     *
+     * @param sh the segment handle to remove
+     */
+    private void removeSegmentHandle(SegmentHandle sh) {
+        writeChannels.remove(sh.getSegment(), sh);
+        recentSegments.compareAndSet((int) (sh.getSegment() % RECENT_SEGMENTS), sh, null);
+    }
 
-        for (Map.Entry<UUID, Long> entry : uuidLongMap.entrySet()) {
-            stringLongMap.put(entry.getKey().toString(), entry.getValue());
-        }
+    /**
+     * Open the files of a segment and load its address space.
+     *
+     * @param segment The segment to open.
+     * @return A new handle for the segment.
+     */
+    private SegmentHandle openSegmentHandle(long segment) {
+        final int directory = getSegmentDirectory(segment);
+        String filePath = logDirs.get(directory) + File.separator + segment + ".log";
+        try {
+            boolean verify = true;
+            if (noVerify) {
+                verify = false;
+            }
 
-        return stringLongMap;
+            final long firstAddress = segment * RECORDS_PER_LOG_FILE;
+            TrimBitmap.convertLegacy(Paths.get(getTrimmedFilePath(filePath)), firstAddress,
+                    RECORDS_PER_LOG_FILE);
+            TrimBitmap.convertLegacy(Paths.get(getPendingTrimsFilePath(filePath)), firstAddress,
+                    RECORDS_PER_LOG_FILE);
+
+            FileChannel writeCh = getChannel(filePath, false);
+            FileChannel readCh = getChannel(filePath, true);
+            FileChannel trimmedCh = getChannel(getTrimmedFilePath(filePath), false);
+            FileChannel pendingTrimmedCh = getChannel(getPendingTrimsFilePath(filePath), false);
+
+            SegmentHandle sh = new SegmentHandle(segment, writeCh, readCh, trimmedCh,
+                    pendingTrimmedCh, filePath);
+            sh.setDirectory(directory);
+            // The first time we open filePath file we should read to the end, to load the
+            // map of entries we already have.
+            // Once the segment address space is loaded, it should be ready to accept writes.
+            readAddressSpace(sh);
+            sh.loadTrims();
+            scheduleIndex(sh);
+            return sh;
+        } catch (IOException e) {
+            log.error("Error opening file {}", filePath, e);
+            throw new RuntimeException(e);
+        }
     }
 
-    @Deprecated // TODO: Add replacement method that conforms to style
-    @SuppressWarnings("checkstyle:abbreviationaswordinname")  // Due to deprecation
-    Map<UUID, Long> getUUIDLongMap(Map<String, Long> stringLongMap) {
-        Map<UUID, Long> uuidLongMap = new HashMap();
+    /**
+     * Get the directory of a segment: the directory which holds its file, or for a new
+     * segment, the directory chosen by the placement policy.
+     *
+     * @param segment the segment
+     * @return the index of the directory in {@link #logDirs}
+     */
+    private int getSegmentDirectory(long segment) {
+        if (logDirs.size() == 1) {
+            return 0;
+        }
 
-        for (Map.Entry<String, Long> entry : stringLongMap.entrySet()) {
-            uuidLongMap.put(UUID.fromString(entry.getKey()), entry.getValue());
+        final String fileName = segment + ".log";
+        for (int i = 0; i < logDirs.size(); i++) {
+            if (new File(logDirs.get(i), fileName).exists()) {
+                return i;
+            }
+        }
+
+        if (segmentPlacement == SegmentPlacement.FREE_SPACE) {
+            int directory = 0;
+            long maxUsableSpace = -1;
+            for (int i = 0; i < logDirs.size(); i++) {
+                long usableSpace = new File(logDirs.get(i)).getUsableSpace();
+                if (usableSpace > maxUsableSpace) {
+                    maxUsableSpace = usableSpace;
+                    directory = i;
+                }
+            }
+            return directory;
         }
 
-        return uuidLongMap;
+        // Consecutive segments go to different directories
+        return (int) (segment % logDirs.size());
     }
 
-    @Deprecated  // TODO: Add replacement method that conforms to style
-    @SuppressWarnings("checkstyle:abbreviationaswordinname") // Due to deprecation
-    Set<String> getStrUUID(Set<UUID> uuids) {
-        Set<String> strUUIds = new HashSet();
+    /**
+     * Encode backpointers as the raw ids of their streams, and the distance from the
+     * address of the entry to each backpointer, which is usually small.
+     *
+     * @param builder      the entry to set the backpointers of
+     * @param address      the address of the entry
+     * @param backpointers the backpointer of each stream of the entry
+     */
+    private static void setBackpointers(LogEntry.Builder builder, long address,
+                                        Map<UUID, Long> backpointers) {
+        ByteBuffer streams = ByteBuffer.allocate(backpointers.size() * UUID_BYTES);
+        for (Map.Entry<UUID, Long> backpointer : backpointers.entrySet()) {
+            streams.putLong(backpointer.getKey().getMostSignificantBits());
+            streams.putLong(backpointer.getKey().getLeastSignificantBits());
+            builder.addBackpointerDeltas(address - backpointer.getValue());
+        }
+        builder.setBackpointerStreams(UnsafeByteOperations.unsafeWrap(streams.array()));
+    }
 
-        for (UUID uuid : uuids) {
-            strUUIds.add(uuid.toString());
+    /**
+     * Decode the backpointers of an entry.
+     *
+     * @param entry the entry
+     * @return the backpointer of each stream of the entry
+     */
+    private static Map<UUID, Long> getBackpointers(LogEntry entry) {
+        final int count = entry.getBackpointerDeltasCount();
+        if (entry.getBackpointerStreams().size() != count * UUID_BYTES) {
+            log.error("getBackpointers: {} streams for {} backpointers at address {}",
+                    entry.getBackpointerStreams().size() / UUID_BYTES, count,
+                    entry.getGlobalAddress());
+            throw new DataCorruptionException();
         }
 
-        return strUUIds;
+        ByteBuffer streams = entry.getBackpointerStreams().asReadOnlyByteBuffer();
+        Map<UUID, Long> backpointers = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            backpointers.put(new UUID(streams.getLong(), streams.getLong()),
+                    entry.getGlobalAddress() - entry.getBackpointerDeltas(i));
+        }
+        return backpointers;
     }
 
     LogEntry getLogEntry(long address, LogData entry) {
@@ -913,12 +1684,13 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             data = entry.getData();
         }
 
+        // The data of a LogData is never modified, so it is wrapped rather than copied
         LogEntry.Builder logEntryBuilder = LogEntry.newBuilder()
                 .setDataType(Types.DataType.forNumber(entry.getType().ordinal()))
-                .setData(ByteString.copyFrom(data))
-                .setGlobalAddress(address)
-                .addAllStreams(getStrUUID(entry.getStreams()))
-                .putAllBackpointers(getStrLongMap(entry.getBackpointerMap()));
+                .setData(UnsafeByteOperations.unsafeWrap(data))
+                .setGlobalAddress(address);
+        compress(logEntryBuilder, data);
+        setBackpointers(logEntryBuilder, address, entry.getBackpointerMap());
 
         Optional<Types.DataRank> rank = createProtobufsDataRank(entry);
         if (rank.isPresent()) {
@@ -952,6 +1724,45 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         return logEntryBuilder.build();
     }
 
+    /**
+     * Compress the payload of a record with the codec of the log, unless it is below the
+     * compression threshold or does not get smaller.
+     *
+     * @param builder the record
+     * @param data    the payload of the record
+     */
+    private void compress(LogEntry.Builder builder, byte[] data) {
+        if (codec == null || data.length < compressionThreshold) {
+            return;
+        }
+
+        byte[] compressed;
+        try (Timer.Context context = compressTimer.time()) {
+            compressed = codec.compress(data);
+        }
+        compressionRatio.update(compressed.length * 100L / data.length);
+        if (compressed.length < data.length) {
+            builder.setData(UnsafeByteOperations.unsafeWrap(compressed))
+                    .setCodec(codec.getType())
+                    .setUncompressedLength(data.length);
+        }
+    }
+
+    /**
+     * @param entry a record
+     * @return the payload of the record, decompressed if needed
+     */
+    private byte[] decompress(LogEntry entry) {
+        RecordCodec recordCodec = RecordCodec.of(entry.getCodec());
+        if (recordCodec == null) {
+            return entry.getData().toByteArray();
+        }
+        try (Timer.Context context = decompressTimer.time()) {
+            return recordCodec.decompress(entry.getData().toByteArray(),
+                    entry.getUncompressedLength());
+        }
+    }
+
     private Optional<Types.DataRank> createProtobufsDataRank(IMetadata entry) {
         IMetadata.DataRank rank = entry.getRank();
         if (rank == null) {
@@ -975,52 +1786,47 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     /**
-     * Write a list of LogData entries to the log file.
+     * Write a list of LogData entries to the log file, and add them to the address space
+     * of the segment.
      * @param sh segment handle to the logfile
      * @param entries list of LogData entries to write.
-     * @return A map of AddressMetaData for the written records
+     * @return false, if nothing was written because the segment handle was replaced
+     *     by compaction
      * @throws IOException
      */
-    private Map<Long, AddressMetaData> writeRecords(SegmentHandle sh,
-                                             List<LogData> entries) throws IOException {
-        Map<Long, AddressMetaData> recordsMap = new HashMap<>();
-
-        List<ByteBuffer> entryBuffs = new ArrayList<>();
-        int totalBytes = 0;
-
-        List<Metadata> metadataList = new ArrayList<>();
-
-        for (int ind = 0; ind < entries.size(); ind++) {
-            LogData curr = entries.get(ind);
-            LogEntry logEntry = getLogEntry(curr.getGlobalAddress(), curr);
-            Metadata metadata = getMetadata(logEntry);
-            metadataList.add(metadata);
-            ByteBuffer record = getByteBuffer(metadata, logEntry);
-            totalBytes += record.limit();
-            entryBuffs.add(record);
+    private boolean writeRecords(SegmentHandle sh, List<LogData> entries) throws IOException {
+        List<LogEntry> logEntries = new ArrayList<>(entries.size());
+        for (LogData curr : entries) {
+            logEntries.add(getLogEntry(curr.getGlobalAddress(), curr));
         }
+        Metadata[] metadata = new Metadata[logEntries.size()];
+        ByteBuffer allRecordsBuf = serializeRecords(logEntries, metadata);
 
-        ByteBuffer allRecordsBuf = ByteBuffer.allocate(totalBytes);
-
-        try (MultiReadWriteLock.AutoCloseableLock ignored =
-                     segmentLocks.acquireWriteLock(sh.getSegment())) {
-            for (int ind = 0; ind < entryBuffs.size(); ind++) {
-                long channelOffset = sh.getWriteChannel().position()
-                        + allRecordsBuf.position() + METADATA_SIZE;
-                allRecordsBuf.put(entryBuffs.get(ind));
-                Metadata metadata = metadataList.get(ind);
-                recordsMap.put(entries.get(ind).getGlobalAddress(),
-                        new AddressMetaData(metadata.getPayloadChecksum(),
-                                metadata.getLength(), channelOffset));
+        long stamp = sh.getAppendLock().writeLock();
+        try {
+            if (sh.isRetired()) {
+                return false;
             }
 
-            allRecordsBuf.flip();
+            long channelOffset = sh.getWriteChannel().position() + METADATA_SIZE;
             safeWrite(sh.getWriteChannel(), allRecordsBuf);
-            channelsToSync.add(sh.getWriteChannel());
+            channelsToSync.put(sh.getWriteChannel(), sh.getDirectory());
             syncTailSegment(entries.get(entries.size() - 1).getGlobalAddress());
+
+            // Compaction only copies the records found in the address space
+            for (int ind = 0; ind < metadata.length; ind++) {
+                sh.addStreamAddress(entries.get(ind).getStreams(),
+                        entries.get(ind).getGlobalAddress());
+                sh.putAddressMetaData(entries.get(ind).getGlobalAddress(),
+                        new AddressMetaData(metadata[ind].getPayloadChecksum(),
+                                metadata[ind].getLength(), channelOffset));
+                channelOffset += metadata[ind].getLength() + METADATA_SIZE;
+            }
+        } finally {
+            sh.getAppendLock().unlockWrite(stamp);
         }
 
-        return recordsMap;
+        return true;
     }
 
     /**
@@ -1055,30 +1861,92 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     /**
-     * Write a log entry record to a file.
+     * Write a log entry record to a file, and add it to the address space of the segment.
      *
      * @param fh      The file handle to use.
      * @param address The address of the entry.
      * @param entry   The LogData to append.
-     * @return Returns metadata for the written record
+     * @return false, if nothing was written because the segment handle was replaced
+     *     by compaction
      */
-    private AddressMetaData writeRecord(SegmentHandle fh, long address,
-                                        LogData entry) throws IOException {
-        LogEntry logEntry = getLogEntry(address, entry);
-        Metadata metadata = getMetadata(logEntry);
+    private boolean writeRecord(SegmentHandle fh, long address,
+                                LogData entry) throws IOException {
+        Metadata[] metadata = new Metadata[1];
+        ByteBuffer record = serializeRecords(
+                Collections.singletonList(getLogEntry(address, entry)), metadata);
 
-        ByteBuffer record = getByteBuffer(metadata, logEntry);
-        long channelOffset;
+        long stamp = fh.getAppendLock().writeLock();
+        try {
+            if (fh.isRetired()) {
+                return false;
+            }
 
-        try (MultiReadWriteLock.AutoCloseableLock ignored =
-                     segmentLocks.acquireWriteLock(fh.getSegment())) {
-            channelOffset = fh.getWriteChannel().position() + METADATA_SIZE;
+            long channelOffset = fh.getWriteChannel().position() + METADATA_SIZE;
             safeWrite(fh.getWriteChannel(), record);
-            channelsToSync.add(fh.getWriteChannel());
+            channelsToSync.put(fh.getWriteChannel(), fh.getDirectory());
             syncTailSegment(address);
+
+            // Compaction only copies the records found in the address space
+            fh.addStreamAddress(entry.getStreams(), address);
+            fh.putAddressMetaData(address, new AddressMetaData(metadata[0].getPayloadChecksum(),
+                    metadata[0].getLength(), channelOffset));
+        } finally {
+            fh.getAppendLock().unlockWrite(stamp);
+        }
+
+        return true;
+    }
+
+    /**
+     * Serialize records, each one preceded by its metadata, into the record buffer of this
+     * thread. Each record is serialized exactly once, and its checksum is computed over the
+     * serialized bytes.
+     *
+     * @param logEntries the records to serialize
+     * @param metadata   receives the metadata of each record
+     * @return the buffer to write, which is only valid until the next call on this thread
+     */
+    private static ByteBuffer serializeRecords(List<LogEntry> logEntries, Metadata[] metadata) {
+        int totalBytes = 0;
+        for (LogEntry logEntry : logEntries) {
+            totalBytes += METADATA_SIZE + logEntry.getSerializedSize();
+        }
+
+        ByteBuffer buf = recordBuffer.get();
+        if (buf.capacity() < totalBytes) {
+            buf = ByteBuffer.allocate(totalBytes);
+            if (totalBytes <= MAX_RETAINED_RECORD_BUFFER) {
+                recordBuffer.set(buf);
+            }
         }
 
-        return new AddressMetaData(metadata.getPayloadChecksum(), metadata.getLength(), channelOffset);
+        final byte[] array = buf.array();
+        int position = 0;
+        try {
+            for (int ind = 0; ind < logEntries.size(); ind++) {
+                LogEntry logEntry = logEntries.get(ind);
+                final int payloadOffset = position + METADATA_SIZE;
+                final int length = logEntry.getSerializedSize();
+                CodedOutputStream payload =
+                        CodedOutputStream.newInstance(array, payloadOffset, length);
+                logEntry.writeTo(payload);
+                payload.checkNoSpaceLeft();
+
+                metadata[ind] = getMetadata(array, payloadOffset, length);
+                CodedOutputStream header = CodedOutputStream.newInstance(array, position,
+                        METADATA_SIZE);
+                metadata[ind].writeTo(header);
+                header.checkNoSpaceLeft();
+                position = payloadOffset + length;
+            }
+        } catch (IOException e) {
+            // Serializing to an array of the exact size doesn't fail
+            throw new IllegalStateException(e);
+        }
+
+        buf.clear();
+        buf.limit(position);
+        return buf;
     }
 
     long getSegment(LogData entry) {
@@ -1163,6 +2031,20 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             throw new IllegalArgumentException("Write range too large!");
         }
 
+        while (!tryAppend(entries)) {
+            log.trace("append: Segment was replaced by compaction, retrying");
+        }
+    }
+
+    /**
+     * Append a range of entries, which spans at most two segments, skipping the entries
+     * already written.
+     *
+     * @param entries the entries to append
+     * @return false, if a segment handle was replaced by compaction and the append must
+     *     be retried
+     */
+    private boolean tryAppend(List<LogData> entries) {
         // check if the entries range cross a segment
         LogData first = entries.get(0);
         LogData last = entries.get(entries.size() - 1);
@@ -1176,24 +2058,29 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             LogData curr = entries.get(ind);
 
             if (getSegment(curr) == firstSh.getSegment() &&
-                    !firstSh.getKnownAddresses().containsKey(curr.getGlobalAddress())) {
+                    !firstSh.isKnownAddress(curr.getGlobalAddress())) {
                 segOneEntries.add(curr);
             } else if (getSegment(curr) == lastSh.getSegment() &&
-                    !lastSh.getKnownAddresses().containsKey(curr.getGlobalAddress())) {
+                    !lastSh.isKnownAddress(curr.getGlobalAddress())) {
                 segTwoEntries.add(curr);
             }
         }
 
         try {
             if (!segOneEntries.isEmpty()) {
-                Map<Long, AddressMetaData> firstSegAddresses = writeRecords(firstSh, segOneEntries);
-                firstSh.getKnownAddresses().putAll(firstSegAddresses);
+                if (!writeRecords(firstSh, segOneEntries)) {
+                    return false;
+                }
+                scheduleIndex(firstSh);
             }
 
             if (!segTwoEntries.isEmpty()) {
-                Map<Long, AddressMetaData> lastSegAddresses = writeRecords(lastSh, segTwoEntries);
-                lastSh.getKnownAddresses().putAll(lastSegAddresses);
+                if (!writeRecords(lastSh, segTwoEntries)) {
+                    return false;
+                }
+                scheduleIndex(lastSh);
             }
+            return true;
         } catch (IOException e) {
             log.error("Disk_write[{}-{}]: Exception", first.getGlobalAddress(),
                     last.getGlobalAddress(), e);
@@ -1210,26 +2097,44 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             throw new OverwriteException();
         }
 
+        while (!tryAppend(address, entry)) {
+            log.trace("Disk_write[{}]: Segment was replaced by compaction, retrying", address);
+        }
+    }
+
+    /**
+     * Append an entry to the current handle of its segment.
+     *
+     * @param address the address of the entry
+     * @param entry   the entry to append
+     * @return false, if the handle was replaced by compaction and the append must be retried
+     */
+    private boolean tryAppend(long address, LogData entry) {
         SegmentHandle fh = getSegmentHandleForAddress(address);
 
         try {
             // make sure the entry doesn't currently exist...
             // (probably need a faster way to do this - high watermark?)
-            if (fh.getKnownAddresses().containsKey(address)
-                    || fh.getTrimmedAddresses().contains(address)) {
+            if (fh.isKnownAddress(address) || fh.isTrimmedAddress(address)) {
                 if (entry.getRank() == null) {
                     throw new OverwriteException();
                 } else {
                     // the method below might throw DataOutrankedException or ValueAdoptedException
                     assertAppendPermittedUnsafe(address, entry);
-                    AddressMetaData addressMetaData = writeRecord(fh, address, entry);
-                    fh.getKnownAddresses().put(address, addressMetaData);
+                    if (!writeRecord(fh, address, entry)) {
+                        return false;
+                    }
+                    // The record appended after the index is found by a scan on reopen
+                    fh.setIndexed(false);
                 }
             } else {
-                AddressMetaData addressMetaData = writeRecord(fh, address, entry);
-                fh.getKnownAddresses().put(address, addressMetaData);
+                if (!writeRecord(fh, address, entry)) {
+                    return false;
+                }
+                scheduleIndex(fh);
             }
             log.trace("Disk_write[{}]: Written to disk.", address);
+            return true;
         } catch (IOException e) {
             log.error("Disk_write[{}]: Exception", address, e);
             throw new RuntimeException(e);
@@ -1238,6 +2143,63 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The addresses are found in the stream bitmaps of the segments. The streams of a
+     * segment which was opened from an index without streams, or replaced by compaction,
+     * are indexed from its records on the first request.
+     */
+    @Override
+    public List<Long> getStreamAddresses(UUID streamId, long start, long end) {
+        List<Long> addresses = new ArrayList<>();
+        final long first = Math.max(start, getTrimMark());
+        final long last = Math.min(end, getGlobalTail());
+        if (first > last) {
+            return addresses;
+        }
+
+        for (long segment = first / RECORDS_PER_LOG_FILE;
+                segment <= last / RECORDS_PER_LOG_FILE; segment++) {
+            SegmentHandle sh = getSegmentHandleForAddress(segment * RECORDS_PER_LOG_FILE);
+            try {
+                indexStreams(sh);
+                sh.getStreamAddresses(streamId, first, last, addresses);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                sh.release();
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Index the streams of every record of a segment, if they are not indexed yet.
+     *
+     * @param sh the segment handle
+     * @throws IOException if the records could not be read
+     */
+    private void indexStreams(SegmentHandle sh) throws IOException {
+        if (sh.isStreamsIndexed()) {
+            return;
+        }
+
+        synchronized (sh.getStreamAddresses()) {
+            if (sh.isStreamsIndexed()) {
+                return;
+            }
+            List<Long> addresses = new ArrayList<>(sh.getKnownAddressCount());
+            sh.forEachKnownAddress((address, metaData) -> addresses.add(address));
+            Map<Long, LogData> entries = new HashMap<>();
+            readRecords(sh, addresses, entries);
+            entries.forEach((address, entry) -> sh.addStreamAddress(entry.getStreams(), address));
+            sh.setStreamsIndexed(true);
+            log.debug("indexStreams: Indexed the streams of {} records of {}", entries.size(),
+                    sh.getFileName());
+        }
+    }
+
     @Override
     public LogData read(long address) {
         if (isTrimmed(address)) {
@@ -1246,7 +2208,7 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         SegmentHandle sh = getSegmentHandleForAddress(address);
 
         try {
-            if (sh.getPendingTrims().contains(address)) {
+            if (sh.isPendingTrim(address)) {
                 return LogData.getTrimmed(address);
             }
             return readRecord(sh, address);
@@ -1257,13 +2219,131 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         }
     }
 
+    @Override
+    public Map<Long, LogData> readAll(Iterable<? extends Long> addresses) {
+        Map<Long, LogData> entries = new HashMap<>();
+        Map<Long, List<Long>> addressesBySegment = new HashMap<>();
+        for (long address : addresses) {
+            if (isTrimmed(address)) {
+                entries.put(address, LogData.getTrimmed(address));
+            } else {
+                addressesBySegment.computeIfAbsent(address / RECORDS_PER_LOG_FILE,
+                        segment -> new ArrayList<>()).add(address);
+            }
+        }
+
+        for (List<Long> segmentAddresses : addressesBySegment.values()) {
+            SegmentHandle sh = getSegmentHandleForAddress(segmentAddresses.get(0));
+            try {
+                readRecords(sh, segmentAddresses, entries);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                sh.release();
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The payload is the {@code data} field of the record, which protobuf writes right after
+     * the data type. Only the start of the record, up to the payload, and the rest of the
+     * record after the payload are read and decoded.
+     */
+    @Override
+    public LogDataRegion readRegion(long address) {
+        if (isTrimmed(address)) {
+            return null;
+        }
+        SegmentHandle sh = getSegmentHandleForAddress(address);
+
+        try {
+            AddressMetaData metaData = sh.getAddressMetaData(address);
+            if (sh.isPendingTrim(address) || metaData == null
+                    || metaData.length < MIN_REGION_SIZE) {
+                return null;
+            }
+
+            ByteBuffer prefix = ByteBuffer.allocate(REGION_PREFIX_SIZE);
+            readFully(sh, prefix, metaData.offset);
+            CodedInputStream in = CodedInputStream.newInstance(prefix.array());
+            int headerLength = 0;
+            int tag = in.readTag();
+            if (WireFormat.getTagFieldNumber(tag) == LogEntry.DATA_TYPE_FIELD_NUMBER) {
+                in.skipField(tag);
+                headerLength = in.getTotalBytesRead();
+                tag = in.readTag();
+            }
+            if (WireFormat.getTagFieldNumber(tag) != LogEntry.DATA_FIELD_NUMBER) {
+                // An entry without a payload
+                return null;
+            }
+            final int dataLength = in.readRawVarint32();
+            final int dataOffset = in.getTotalBytesRead();
+            if (dataLength < MIN_REGION_SIZE
+                    || dataOffset + dataLength > metaData.length) {
+                return null;
+            }
+
+            ByteBuffer suffix = ByteBuffer.allocate(metaData.length - dataOffset - dataLength);
+            readFully(sh, suffix, metaData.offset + dataOffset + dataLength);
+            LogEntry entry = LogEntry.newBuilder()
+                    .mergeFrom(prefix.array(), 0, headerLength)
+                    .mergeFrom(suffix.array())
+                    .build();
+            if (entry.getCodec() != Types.Codec.NONE) {
+                // The payload must be decompressed
+                return null;
+            }
+            LogData header = getLogData(entry);
+            if (header.getType() != org.corfudb.protocols.wireprotocol.DataType.DATA) {
+                return null;
+            }
+
+            sh.retain();
+            return new LogDataRegion(header, sh, metaData.offset + dataOffset, dataLength);
+        } catch (InvalidProtocolBufferException e) {
+            throw new DataCorruptionException();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            sh.release();
+        }
+    }
+
+    /**
+     * Fill a buffer from a segment file.
+     *
+     * @param sh       The segment handle to use.
+     * @param buffer   The buffer to fill.
+     * @param position The offset in the segment file to read from.
+     */
+    private void readFully(SegmentHandle sh, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (sh.getReadChannel().read(buffer, position + buffer.position()) < 0) {
+                log.error("readFully: Unexpected end of file {}", sh.getFileName());
+                throw new DataCorruptionException();
+            }
+        }
+    }
+
     @Override
     public void close() {
+        if (mappedSegments != null) {
+            mappedSegments.invalidateUpTo(Long.MAX_VALUE);
+        }
         for (SegmentHandle fh : writeChannels.values()) {
             fh.close();
+            removeSegmentHandle(fh);
+        }
+        if (syncExecutors != null) {
+            for (ExecutorService executor : syncExecutors) {
+                executor.shutdown();
+            }
         }
-
-        writeChannels = new HashMap<>();
     }
 
     @Override
@@ -1276,6 +2356,9 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
      * @param endSegment The segment index of the last segment up to (including) the end segment.
      */
     private void closeSegmentHandlers(long endSegment) {
+        if (mappedSegments != null) {
+            mappedSegments.invalidateUpTo(endSegment);
+        }
         for (SegmentHandle sh : writeChannels.values()) {
             if (sh.getSegment() <= endSegment) {
                 if (sh.getRefCount() != 0) {
@@ -1284,7 +2367,7 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                             sh.getRefCount());
                 }
                 sh.close();
-                writeChannels.remove(sh.getFileName());
+                removeSegmentHandle(sh);
             }
         }
     }
@@ -1297,16 +2380,22 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     private void deleteFilesMatchingFilter(FileFilter fileFilter) {
         int numFiles = 0;
         long freedBytes = 0;
-        File dir = new File(logDir);
-        File[] files = dir.listFiles(fileFilter);
-        for (File file : files) {
-            long delta = file.length();
+        for (String path : logDirs) {
+            File[] files = new File(path).listFiles(fileFilter);
+            if (files == null) {
+                continue;
+            }
 
-            if (!file.delete()) {
-                log.error("deleteFilesMatchingFilter: Couldn't delete file {}", file.getName());
-            } else {
-                freedBytes += delta;
-                numFiles++;
+            for (File file : files) {
+                long delta = file.length();
+
+                if (!file.delete()) {
+                    log.error("deleteFilesMatchingFilter: Couldn't delete file {}",
+                            file.getName());
+                } else {
+                    freedBytes += delta;
+                    numFiles++;
+                }
             }
         }
         log.info("deleteFilesMatchingFilter: completed, deleted {} files, freed {} bytes",
@@ -1348,7 +2437,12 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
 
     @VisibleForTesting
     Set<FileChannel> getChannelsToSync() {
-        return channelsToSync;
+        return channelsToSync.keySet();
+    }
+
+    @VisibleForTesting
+    List<String> getLogDirs() {
+        return logDirs;
     }
 
     @VisibleForTesting
@@ -1356,21 +2450,8 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         return writeChannels.values();
     }
 
-    public static class CompactedEntry {
-        private final LogHeader logHeader;
-        private final Collection<LogEntry> entries;
-
-        public CompactedEntry(LogHeader logHeader, Collection<LogEntry> entries) {
-            this.logHeader = logHeader;
-            this.entries = entries;
-        }
-
-        public LogHeader getLogHeader() {
-            return logHeader;
-        }
-
-        public Collection<LogEntry> getEntries() {
-            return entries;
-        }
+    @VisibleForTesting
+    int getMappedSegmentCount() {
+        return mappedSegments == null ? 0 : mappedSegments.size();
     }
 }
@@ -0,0 +1,208 @@
+package org.corfudb.infrastructure.log;
+
+import com.google.common.hash.Hashing;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.corfudb.format.Types.TrimEntry;
+import org.corfudb.infrastructure.log.SegmentHandle.AtomicBitSet;
+import org.corfudb.runtime.exceptions.DataCorruptionException;
+
+/**
+ * The trimmed, or pending trim, addresses of a log segment, persisted as a bitmap with one
+ * bit per address of the segment. Trimming addresses rewrites the few words of the bitmap
+ * which hold them, and opening the segment reads the whole bitmap at once.
+ *
+ * <p>The file format is a header (magic, version), followed by a slot for every 64
+ * addresses: the word of the bitmap and a CRC32C checksum of it. Slots which were never
+ * written read as zeros. Files written by earlier versions, as a sequence of
+ * length-delimited {@link TrimEntry} messages, are converted when the segment is opened.
+ */
+@Slf4j
+final class TrimBitmap {
+
+    /**
+     * The first byte of the magic number can't start a {@link TrimEntry}, whose length is
+     * a single byte varint.
+     */
+    private static final int MAGIC = 0xB175E701;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    private static final int SLOT_SIZE = Long.BYTES + Integer.BYTES;
+
+    private TrimBitmap() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Load a bitmap file.
+     *
+     * @param channel the channel of the file
+     * @param bits    receives the bits set in the file
+     * @throws IOException if the file could not be read
+     */
+    static void load(FileChannel channel, AtomicBitSet bits) throws IOException {
+        final ByteBuffer buffer = readAll(channel);
+        // The header is written before any slot, so a crash while writing it lost nothing
+        if (buffer.remaining() < HEADER_SIZE) {
+            return;
+        }
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            log.error("load: Unknown trim bitmap format in {}", channel);
+            throw new DataCorruptionException();
+        }
+
+        // A slot cut by a crash while the file was extended was never acknowledged
+        for (int word = 0; buffer.remaining() >= SLOT_SIZE; word++) {
+            final long value = buffer.getLong();
+            final int checksum = buffer.getInt();
+            if (value == 0 && checksum == 0) {
+                continue;
+            }
+            if (checksum != getChecksum(value)) {
+                log.error("load: Checksum mismatch in {} at word {}", channel, word);
+                throw new DataCorruptionException();
+            }
+            bits.or(word, value);
+        }
+    }
+
+    /**
+     * Write the words of a bitmap, from the first word to the last word given.
+     *
+     * @param channel the channel of the file
+     * @param bits    the bitmap
+     * @param words   the words to write
+     * @throws IOException if the words could not be written
+     */
+    static void write(FileChannel channel, AtomicBitSet bits, BitSet words) throws IOException {
+        if (words.isEmpty()) {
+            return;
+        }
+
+        final int first = words.nextSetBit(0);
+        final int last = words.length() - 1;
+        // Words are read and written under the same lock, so that a concurrent write
+        // never replaces a word with an older value.
+        synchronized (channel) {
+            if (channel.size() < HEADER_SIZE) {
+                writeFully(channel, header(), 0);
+            }
+            writeFully(channel, slots(bits, first, last), offset(first));
+        }
+    }
+
+    /**
+     * Write every word of a bitmap.
+     *
+     * @param channel the channel of the file
+     * @param bits    the bitmap
+     * @throws IOException if the bitmap could not be written
+     */
+    static void writeAll(FileChannel channel, AtomicBitSet bits) throws IOException {
+        synchronized (channel) {
+            writeFully(channel, header(), 0);
+            writeFully(channel, slots(bits, 0, bits.words() - 1), offset(0));
+        }
+    }
+
+    /**
+     * Convert a trim file written by an earlier version to a bitmap, if needed. The file
+     * is replaced atomically.
+     *
+     * @param file         the trim file
+     * @param firstAddress the first address of the segment
+     * @param capacity     the number of addresses of the segment
+     * @throws IOException if the file could not be converted
+     */
+    static void convertLegacy(Path file, long firstAddress, int capacity) throws IOException {
+        if (Files.notExists(file) || Files.size(file) == 0) {
+            return;
+        }
+
+        final byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length >= Integer.BYTES && ByteBuffer.wrap(bytes).getInt() == MAGIC) {
+            return;
+        }
+
+        final AtomicBitSet bits = new AtomicBitSet(capacity);
+        int entries = 0;
+        try (InputStream inputStream = new ByteArrayInputStream(bytes)) {
+            TrimEntry entry;
+            while ((entry = TrimEntry.parseDelimitedFrom(inputStream)) != null) {
+                bits.set((int) (entry.getAddress() - firstAddress));
+                entries++;
+            }
+        }
+
+        final Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeAll(channel, bits);
+            channel.force(true);
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        log.info("convertLegacy: Converted {} trim entries of {}", entries, file);
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        return header;
+    }
+
+    private static ByteBuffer slots(AtomicBitSet bits, int first, int last) {
+        ByteBuffer slots = ByteBuffer.allocate((last - first + 1) * SLOT_SIZE);
+        for (int word = first; word <= last; word++) {
+            final long value = bits.getWord(word);
+            slots.putLong(value);
+            slots.putInt(getChecksum(value));
+        }
+        slots.flip();
+        return slots;
+    }
+
+    private static long offset(int word) {
+        return HEADER_SIZE + (long) word * SLOT_SIZE;
+    }
+
+    private static int getChecksum(long word) {
+        return Hashing.crc32c().hashLong(word).asInt();
+    }
+
+    private static ByteBuffer readAll(FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.corfudb.migration;
+
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.corfudb.format.Types;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This migration tool will migrate the log segment files from version 2 to 3. Version 3
+ * stores the backpointers of an entry as the raw ids of their streams and their distance
+ * from the address of the entry, instead of maps keyed by the string form of the stream ids.
+ * As a result, checksums will be recomputed. Segment indexes are deleted, since the offsets
+ * of the records change; the log unit rebuilds them.
+ *
+ * To run this tool, execute the following steps:
+ *
+ * 1. cd migration; mvn clean install
+ * 2. cd target; java -cp migration-0.1-SNAPSHOT-shaded.jar
+ *    org.corfudb.migration.LogFormat2to3 corfuDataDir
+ */
+
+public class LogFormat2to3 {
+
+    static final int srcVersion = 2;
+
+    static final int destVersion = 3;
+
+    static final int UUID_BYTES = Long.BYTES * 2;
+
+    public static final int METADATA_SIZE = Types.Metadata.newBuilder()
+            .setLengthChecksum(-1)
+            .setPayloadChecksum(-1)
+            .setLength(-1)
+            .build()
+            .getSerializedSize();
+
+    /**
+     * Migrates the log segments.
+     *
+     * @param args Accepts the arguments in the following order,
+     *             dir: CorfuDB data directory.
+     * @throws Exception if migration fails.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Expected parameters: CorfuDB data directory");
+        }
+
+        migrateLUData(args[0]);
+    }
+
+    public static void migrateLUData(String dir) throws IOException {
+        String luDir = dir + File.separator + "log";
+        File path = new File(luDir);
+        File[] files = path.listFiles();
+
+        if (files == null) {
+            throw new IllegalArgumentException("Invalid directory " + dir);
+        }
+
+        for (File file : files) {
+            if (file.getName().endsWith(".log")) {
+                processSegment(file.getAbsolutePath());
+            } else if (file.getName().endsWith(".log.index")) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+
+    public static void processSegment(String path) throws IOException {
+
+        Path srcPath = Paths.get(path);
+        Path destPath = Paths.get(path + ".tmp");
+
+        FileChannel src = FileChannel.open(srcPath, EnumSet.of(StandardOpenOption.READ));
+
+        if (src.size() == 0) {
+            src.close();
+            return;
+        }
+
+        FileChannel dest = FileChannel.open(destPath, EnumSet.of(StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SPARSE));
+
+        // Parse header
+        Types.Metadata headerMetadata = readMetadata(src);
+        ByteBuffer buf = readSerializedEntry(headerMetadata, src);
+
+        Types.LogHeader header;
+
+        try {
+            header = Types.LogHeader.parseFrom(buf.array());
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Can't parse log header for " + path);
+        }
+
+        if (header.getVersion() != srcVersion) {
+            throw new IllegalStateException("Segment version must be " + srcVersion
+                    + " but found " + header.getVersion() + " in file " + path);
+        }
+
+        // Write header with the new format
+        Types.LogHeader newHeader = header.toBuilder().setVersion(destVersion).build();
+        dest.write(getByteBufferWithMetaData(newHeader.toByteArray()));
+
+        // Parse segment entries, a partially written record at the end of the segment is
+        // dropped, as the log unit would ignore it
+        while (src.size() - src.position() >= METADATA_SIZE) {
+            Types.Metadata entryMetadata = readMetadata(src);
+            if (entryMetadata.getLengthChecksum() != getChecksum(entryMetadata.getLength())) {
+                throw new IllegalStateException("Data corruption detected while reading "
+                        + path);
+            }
+            if (src.size() - src.position() < entryMetadata.getLength()) {
+                break;
+            }
+
+            ByteBuffer serializedEntry = readSerializedEntry(entryMetadata, src);
+            if (header.getVerifyChecksum()
+                    && entryMetadata.getPayloadChecksum() != getChecksum(serializedEntry.array())) {
+                throw new IllegalStateException("Data corruption detected while reading "
+                        + path);
+            }
+
+            // Write the entry in the new format
+            Types.LogEntry entry = convertEntry(Types.LogEntry.parseFrom(serializedEntry.array()));
+            dest.write(getByteBufferWithMetaData(entry.toByteArray()));
+        }
+
+        dest.force(true);
+        src.close();
+        dest.close();
+
+        Files.move(destPath, srcPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replace the streams and the backpointer map of a version 2 entry by the backpointer
+     * streams and deltas of version 3.
+     *
+     * @param entry a version 2 entry
+     * @return the version 3 entry
+     */
+    static Types.LogEntry convertEntry(Types.LogEntry entry) {
+        Map<String, Long> backpointers = entry.getBackpointersMap();
+        Types.LogEntry.Builder builder = entry.toBuilder()
+                .clearStreams()
+                .clearLogicalAddresses()
+                .clearBackpointers();
+
+        ByteBuffer streams = ByteBuffer.allocate(backpointers.size() * UUID_BYTES);
+        for (Map.Entry<String, Long> backpointer : backpointers.entrySet()) {
+            UUID streamId = UUID.fromString(backpointer.getKey());
+            streams.putLong(streamId.getMostSignificantBits());
+            streams.putLong(streamId.getLeastSignificantBits());
+            builder.addBackpointerDeltas(entry.getGlobalAddress() - backpointer.getValue());
+        }
+        streams.flip();
+
+        return builder.setBackpointerStreams(ByteString.copyFrom(streams)).build();
+    }
+
+    static Types.Metadata readMetadata(FileChannel fc) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(METADATA_SIZE);
+        readFully(fc, buf);
+        return Types.Metadata.parseFrom(buf.array());
+    }
+
+    static ByteBuffer readSerializedEntry(Types.Metadata entryMetadata, FileChannel fc)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(entryMetadata.getLength());
+        readFully(fc, buf);
+        return buf;
+    }
+
+    static void readFully(FileChannel fc, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (fc.read(buf) < 0) {
+                throw new IllegalStateException("Unexpected end of file");
+            }
+        }
+        buf.flip();
+    }
+
+    static ByteBuffer getByteBufferWithMetaData(byte[] serialized) {
+        Types.Metadata metadata = Types.Metadata.newBuilder()
+                .setPayloadChecksum(getChecksum(serialized))
+                .setLengthChecksum(getChecksum(serialized.length))
+                .setLength(serialized.length)
+                .build();
+
+        ByteBuffer buf = ByteBuffer.allocate(METADATA_SIZE + serialized.length);
+        buf.put(metadata.toByteArray());
+        buf.put(serialized);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Returns checksum used for log.
+     *
+     * @param bytes data over which to compute the checksum
+     * @return checksum of bytes
+     */
+    static int getChecksum(byte[] bytes) {
+        return Hashing.crc32c().hashBytes(bytes).asInt();
+    }
+
+    static int getChecksum(int num) {
+        return Hashing.crc32c().newHasher().putInt(num).hash().asInt();
+    }
+}
@@ -1,11 +1,13 @@
 package org.corfudb.protocols.logprotocol;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import lombok.Getter;
@@ -27,6 +29,9 @@ import org.corfudb.util.serializer.Serializers;
 @Slf4j
 public class MultiObjectSMREntry extends LogEntry implements ISMRConsumable {
 
+    /** The first byte of a log entry serialized by {@link Serializers#CORFU}. */
+    private static final byte CORFU_PAYLOAD_MAGIC = 0x42;
+
     // map from stream-ID to a list of updates encapsulated as MultiSMREntry
     @Getter
     public Map<UUID, MultiSMREntry> entryMap = Collections.synchronizedMap(new HashMap<>());
@@ -118,6 +123,73 @@ public class MultiObjectSMREntry extends LogEntry implements ISMRConsumable {
                 entry.getUpdates();
     }
 
+    /**
+     * Keep only the updates of some streams in a serialized payload, without deserializing
+     * the updates, e.g. so that a log unit returns only the updates a reader asked for.
+     *
+     * @param serialized a payload serialized by {@link Serializers#CORFU}
+     * @param streams    the streams whose updates are kept
+     * @return the payload with the updates of the streams only, or the payload itself if it
+     *     is not a MultiObjectSMREntry or has no update of other streams
+     */
+    public static byte[] filterStreams(byte[] serialized, Set<UUID> streams) {
+        final ByteBuf buf = Unpooled.wrappedBuffer(serialized);
+        try {
+            if (buf.readableBytes() < Byte.BYTES * 2 + Integer.BYTES
+                    || buf.readByte() != CORFU_PAYLOAD_MAGIC
+                    || buf.readByte() != LogEntryType.MULTIOBJSMR.asByte()) {
+                return serialized;
+            }
+
+            final int countIndex = buf.readerIndex();
+            final int count = buf.readInt();
+            final ByteBuf filtered = Unpooled.buffer(serialized.length);
+            filtered.writeBytes(serialized, 0, buf.readerIndex());
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                final int start = buf.readerIndex();
+                final UUID stream = new UUID(buf.readLong(), buf.readLong());
+                skipMultiSMREntry(buf);
+                if (streams.contains(stream)) {
+                    filtered.writeBytes(serialized, start, buf.readerIndex() - start);
+                    kept++;
+                }
+            }
+
+            if (kept == count) {
+                return serialized;
+            }
+            filtered.setInt(countIndex, kept);
+            final byte[] bytes = new byte[filtered.readableBytes()];
+            filtered.readBytes(bytes);
+            return bytes;
+        } catch (IndexOutOfBoundsException e) {
+            log.warn("filterStreams: Could not parse the payload, it is not filtered", e);
+            return serialized;
+        }
+    }
+
+    /**
+     * Skip a MultiSMREntry serialized by {@link Serializers#CORFU}, see
+     * {@link MultiSMREntry#serialize(ByteBuf)}.
+     */
+    private static void skipMultiSMREntry(ByteBuf buf) {
+        // The magic and the entry type
+        buf.skipBytes(Byte.BYTES * 2);
+        final int updates = buf.readInt();
+        for (int i = 0; i < updates; i++) {
+            // The magic and the entry type, then the method, see SMREntry#serialize
+            buf.skipBytes(Byte.BYTES * 2);
+            buf.skipBytes(buf.readShort());
+            // The serializer type, then the arguments
+            buf.skipBytes(Byte.BYTES);
+            final byte arguments = buf.readByte();
+            for (int arg = 0; arg < arguments; arg++) {
+                buf.skipBytes(buf.readInt());
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -47,19 +47,29 @@ public enum CorfuMsgType {
     LAYOUT_NOBOOTSTRAP(19, TypeToken.of(CorfuMsg.class), true),
 
     // Sequencer Messages
+    SEQUENCER_SNAPSHOT_REQ(20, TypeToken.of(CorfuMsg.class)),
+    SEQUENCER_SNAPSHOT_RES(21, new TypeToken<CorfuPayloadMsg<SequencerTailsRecoveryMsg>>(){}),
+    TOKEN_BATCH_RES(24, new TypeToken<CorfuPayloadMsg<TokenBatchResponse>>(){}),
     TOKEN_REQ(25, new TypeToken<CorfuPayloadMsg<TokenRequest>>(){}),
     TOKEN_RES(26, new TypeToken<CorfuPayloadMsg<TokenResponse>>(){}),
     BOOTSTRAP_SEQUENCER(27, new TypeToken<CorfuPayloadMsg<SequencerTailsRecoveryMsg>>(){}),
     SEQUENCER_TRIM_REQ(28, new TypeToken<CorfuPayloadMsg<Long>>() {}),
+    TOKEN_BATCH_REQ(29, new TypeToken<CorfuPayloadMsg<TokenBatchRequest>>(){}),
 
     // Logging Unit Messages
     WRITE(30, new TypeToken<CorfuPayloadMsg<WriteRequest>>() {}),
     READ_REQUEST(31, new TypeToken<CorfuPayloadMsg<ReadRequest>>() {}),
     READ_RESPONSE(32, new TypeToken<CorfuPayloadMsg<ReadResponse>>() {}),
-    MULTIPLE_READ_REQUEST(35, new TypeToken<CorfuPayloadMsg<MultipleReadRequest>>() {}),
     TRIM(33, new TypeToken<CorfuPayloadMsg<TrimRequest>>() {}),
     FILL_HOLE(34, new TypeToken<CorfuPayloadMsg<TrimRequest>>() {}),
+    MULTIPLE_READ_REQUEST(35, new TypeToken<CorfuPayloadMsg<MultipleReadRequest>>() {}),
+    MULTIPLE_TRIM(36, new TypeToken<CorfuPayloadMsg<MultipleTrimRequest>>() {}),
+    STREAM_ADDRESS_SPACE_REQUEST(37,
+            new TypeToken<CorfuPayloadMsg<StreamAddressSpaceRequest>>() {}),
     PREFIX_TRIM(38, new TypeToken<CorfuPayloadMsg<TrimRequest>>() {}),
+    STREAM_ADDRESS_SPACE_RESPONSE(39,
+            new TypeToken<CorfuPayloadMsg<StreamAddressSpaceResponse>>() {}),
+    FILTERED_READ_REQUEST(40, new TypeToken<CorfuPayloadMsg<FilteredReadRequest>>() {}),
     TAIL_REQUEST(41, TypeToken.of(CorfuMsg.class), true),
     TAIL_RESPONSE(42, new TypeToken<CorfuPayloadMsg<Long>>(){}, true),
     COMPACT_REQUEST(43, TypeToken.of(CorfuMsg.class), true),
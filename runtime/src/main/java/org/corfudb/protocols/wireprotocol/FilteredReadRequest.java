@@ -0,0 +1,51 @@
+package org.corfudb.protocols.wireprotocol;
+
+import com.google.common.collect.Range;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Set;
+import java.util.UUID;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A request to read a range of addresses, of which only the entries of some streams are
+ * returned. The entries of other streams are replaced by {@link DataType#FILTERED}
+ * placeholders, so the response still has an entry for every address of the range.
+ */
+@Data
+@AllArgsConstructor
+public class FilteredReadRequest implements ICorfuPayload<FilteredReadRequest> {
+
+    /** The range of addresses to read. */
+    final Range<Long> range;
+
+    /** The streams whose entries are returned. */
+    final Set<UUID> streams;
+
+    /**
+     * Whether the transactions of several streams only keep the updates of the streams
+     * requested, rather than being returned whole.
+     */
+    final boolean filterPayloads;
+
+    /**
+     * Deserialization Constructor from ByteBuf to FilteredReadRequest.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public FilteredReadRequest(ByteBuf buf) {
+        range = ICorfuPayload.rangeFromBuffer(buf, Long.class);
+        streams = ICorfuPayload.setFromBuffer(buf, UUID.class);
+        filterPayloads = ICorfuPayload.fromBuffer(buf, Boolean.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, range);
+        ICorfuPayload.serialize(buf, streams);
+        ICorfuPayload.serialize(buf, filterPayloads);
+    }
+}
@@ -128,6 +128,11 @@ public interface ILogData extends IMetadata, Comparable<ILogData> {
         return getType() == DataType.TRIMMED;
     }
 
+    /** Return true if the entry was left out of a read filtered by stream. */
+    default boolean isFiltered() {
+        return getType() == DataType.FILTERED;
+    }
+
     /**
      * Return the serialized size of an object
      * @param obj the entry's payload object
@@ -194,6 +194,30 @@ public interface IMetadata {
         getMetadataMap().put(CHECKPOINTED_STREAM_START_LOG_ADDRESS, startLogAddress);
     }
 
+    /**
+     * Get how the log unit makes this write durable.
+     *
+     * @return the sync policy of the write, or {@link SyncPolicy#DEFAULT} for the policy
+     *     the log unit is configured with
+     */
+    default SyncPolicy getSyncPolicy() {
+        return (SyncPolicy) getMetadataMap().getOrDefault(LogUnitMetadataType.SYNC_POLICY,
+                SyncPolicy.DEFAULT);
+    }
+
+    /**
+     * Set how the log unit makes this write durable.
+     *
+     * @param syncPolicy the sync policy of the write
+     */
+    default void setSyncPolicy(SyncPolicy syncPolicy) {
+        if (syncPolicy == SyncPolicy.DEFAULT) {
+            getMetadataMap().remove(LogUnitMetadataType.SYNC_POLICY);
+        } else {
+            getMetadataMap().put(LogUnitMetadataType.SYNC_POLICY, syncPolicy);
+        }
+    }
+
     @RequiredArgsConstructor
     public enum LogUnitMetadataType implements ITypedEnum {
         RANK(1, TypeToken.of(DataRank.class)),
@@ -205,7 +229,8 @@ public interface IMetadata {
         CHECKPOINTED_STREAM_ID(8, TypeToken.of(UUID.class)),
         CHECKPOINTED_STREAM_START_LOG_ADDRESS(9, TypeToken.of(Long.class)),
         CLIENT_ID(10, TypeToken.of(UUID.class)),
-        THREAD_ID(11, TypeToken.of(Long.class))
+        THREAD_ID(11, TypeToken.of(Long.class)),
+        SYNC_POLICY(12, TypeToken.of(SyncPolicy.class))
         ;
         final int type;
         @Getter
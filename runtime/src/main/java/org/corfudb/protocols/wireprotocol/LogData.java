@@ -52,6 +52,12 @@ public class LogData implements ICorfuPayload<LogData>, IMetadata, ILogData {
         return logData;
     }
 
+    public static LogData getFiltered(long address) {
+        LogData logData = new LogData(DataType.FILTERED);
+        logData.setGlobalAddress(address);
+        return logData;
+    }
+
     /**
      * Return the payload.
      */
@@ -0,0 +1,33 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+
+/**
+ * A request to trim multiple addresses.
+ */
+@Data
+@AllArgsConstructor
+public class MultipleTrimRequest implements ICorfuPayload<MultipleTrimRequest> {
+    @Getter
+    final List<Long> addresses;
+
+    /**
+     * Deserialization Constructor from ByteBuf to MultipleTrimRequest.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public MultipleTrimRequest(ByteBuf buf) {
+        addresses = ICorfuPayload.listFromBuffer(buf, Long.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, addresses);
+    }
+}
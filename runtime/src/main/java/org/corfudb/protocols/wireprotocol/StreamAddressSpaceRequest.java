@@ -0,0 +1,43 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.UUID;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A request for the addresses of a stream held by a log unit, in a range of addresses.
+ */
+@Data
+@AllArgsConstructor
+public class StreamAddressSpaceRequest implements ICorfuPayload<StreamAddressSpaceRequest> {
+
+    /** The stream. */
+    final UUID streamId;
+
+    /** The first address of the range. */
+    final long start;
+
+    /** The last address of the range, included. */
+    final long end;
+
+    /**
+     * Deserialization Constructor from ByteBuf to StreamAddressSpaceRequest.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public StreamAddressSpaceRequest(ByteBuf buf) {
+        streamId = ICorfuPayload.fromBuffer(buf, UUID.class);
+        start = ICorfuPayload.fromBuffer(buf, Long.class);
+        end = ICorfuPayload.fromBuffer(buf, Long.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, streamId);
+        ICorfuPayload.serialize(buf, start);
+        ICorfuPayload.serialize(buf, end);
+    }
+}
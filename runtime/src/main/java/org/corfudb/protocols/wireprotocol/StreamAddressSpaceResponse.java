@@ -0,0 +1,46 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The addresses of a stream held by a log unit in a range, in ascending order. Addresses
+ * which were trimmed are not included, and the trim mark of the log unit tells whether a
+ * prefix of the range was trimmed. A log unit which does not index its streams sends no
+ * addresses.
+ */
+@Data
+@AllArgsConstructor
+public class StreamAddressSpaceResponse implements ICorfuPayload<StreamAddressSpaceResponse> {
+
+    /** The first address of the log unit which was not prefix trimmed. */
+    final long trimMark;
+
+    /** Whether the log unit indexes its streams, or has no addresses to send. */
+    final boolean indexed;
+
+    /** The addresses of the stream. */
+    final List<Long> addresses;
+
+    /**
+     * Deserialization Constructor from ByteBuf to StreamAddressSpaceResponse.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public StreamAddressSpaceResponse(ByteBuf buf) {
+        trimMark = ICorfuPayload.fromBuffer(buf, Long.class);
+        indexed = ICorfuPayload.fromBuffer(buf, Boolean.class);
+        addresses = ICorfuPayload.listFromBuffer(buf, Long.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, trimMark);
+        ICorfuPayload.serialize(buf, indexed);
+        ICorfuPayload.serialize(buf, addresses);
+    }
+}
@@ -0,0 +1,57 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * How the log unit makes a write durable before acknowledging it. The policies are
+ * declared from the most to the least durable, after {@link #DEFAULT}.
+ */
+@RequiredArgsConstructor
+public enum SyncPolicy implements ICorfuPayload<SyncPolicy> {
+    /** The policy the log unit is configured with. */
+    DEFAULT((byte) 0),
+
+    /** Force the data and the metadata of the log files after each batch of writes. */
+    FORCE((byte) 1),
+
+    /** Force only the data of the log files after each batch of writes. */
+    FORCE_DATA((byte) 2),
+
+    /** Acknowledge writes right away, and force the log files at a fixed interval. */
+    INTERVAL((byte) 3),
+
+    /** Acknowledge writes right away, and let the operating system flush the log files. */
+    OS_MANAGED((byte) 4);
+
+    final int val;
+
+    byte asByte() {
+        return (byte) val;
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        buf.writeByte(asByte());
+    }
+
+    /**
+     * Get a policy by name, e.g. from the log unit options.
+     *
+     * @param name the name of the policy, e.g. force-data
+     * @return the policy
+     */
+    public static SyncPolicy of(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    static Map<Byte, SyncPolicy> typeMap =
+            Arrays.stream(SyncPolicy.values())
+                    .collect(Collectors.toMap(SyncPolicy::asByte, Function.identity()));
+}
@@ -0,0 +1,36 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A batch of token requests, coalesced by a client into a single message.
+ *
+ * <p>The sequencer serves the requests in order, and answers with a
+ * {@link TokenBatchResponse} holding one {@link TokenResponse} per request.</p>
+ */
+@Data
+@AllArgsConstructor
+public class TokenBatchRequest implements ICorfuPayload<TokenBatchRequest> {
+
+    /** The token requests in this batch, in the order they should be served. */
+    final List<TokenRequest> requests;
+
+    /**
+     * Deserialization Constructor from Bytebuf to TokenBatchRequest.
+     *
+     * @param buf The buffer to deserialize
+     */
+    public TokenBatchRequest(ByteBuf buf) {
+        requests = ICorfuPayload.listFromBuffer(buf, TokenRequest.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, requests);
+    }
+}
@@ -8,6 +8,8 @@ import java.util.UUID;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
+import org.corfudb.runtime.view.Address;
+
 /**
  * Created by mwei on 8/8/16.
  */
@@ -69,6 +71,16 @@ public class TokenResponse implements ICorfuPayload<TokenResponse>, IToken {
         ICorfuPayload.serialize(buf, backpointerMap);
     }
 
+    /**
+     * The tail of each stream of a TK_QUERY request, which the sequencer returns
+     * in the backpointer map. A stream without a tail maps to {@link Address#NON_EXIST}.
+     *
+     * @return a map from stream ID to the last address issued on that stream
+     */
+    public Map<UUID, Long> getStreamTails() {
+        return backpointerMap;
+    }
+
     @Override
     public long getTokenValue() {
         return token.getTokenValue();
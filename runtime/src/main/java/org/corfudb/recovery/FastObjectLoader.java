@@ -103,6 +103,14 @@ public class FastObjectLoader {
     @Getter
     private boolean logHasNoCheckPoint = false;
 
+    /**
+     * In whitelist mode, whether the log units only send the entries of the streams to
+     * load, and only their updates out of transactions, rather than every entry.
+     */
+    @Setter
+    @Getter
+    private boolean filterReadsByStream = true;
+
     private boolean whiteList = false;
     private List<UUID> streamsToLoad = new ArrayList<>();
 
@@ -544,6 +552,9 @@ public class FastObjectLoader {
                 break;
             case RANK_ONLY:
                 break;
+            case FILTERED:
+                // Not an entry of the streams to load
+                break;
             default:
                 break;
         }
@@ -715,7 +726,9 @@ public class FastObjectLoader {
             final long start = nextRead;
             final long stopNotIncluded = Math.min(start + batchReadSize, logTail + 1);
             nextRead = stopNotIncluded;
-            final Map<Long, ILogData> range = getLogData(runtime, start, stopNotIncluded);
+            final Map<Long, ILogData> range = shouldFilterReads()
+                    ? getLogData(runtime, start, stopNotIncluded, new HashSet<>(streamsToLoad))
+                    : getLogData(runtime, start, stopNotIncluded);
 
             // Sanity
             boolean canProcessRange = true;
@@ -745,6 +758,14 @@ public class FastObjectLoader {
         killNecromancer();
     }
 
+    /**
+     * The stream tails of a sequencer are recovered from every stream, so only the reads
+     * of the maps of a whitelist can be filtered.
+     */
+    private boolean shouldFilterReads() {
+        return whiteList && filterReadsByStream && !recoverSequencerMode;
+    }
+
     @Data
     private class CheckPoint {
         final UUID checkPointId;
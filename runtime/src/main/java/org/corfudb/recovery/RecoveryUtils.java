@@ -14,6 +14,7 @@ import org.corfudb.runtime.view.ObjectsView;
 import org.corfudb.util.serializer.ISerializer;
 
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.corfudb.protocols.logprotocol.CheckpointEntry.CheckpointDictKey.SNAPSHOT_ADDRESS;
@@ -93,6 +94,23 @@ public class RecoveryUtils {
                 cacheFetch(ContiguousSet.create(Range.closedOpen(start, end), DiscreteDomain.longs()));
     }
 
+    /**
+     * Get the entries of some streams from a range of addresses, see
+     * {@link #getLogData(CorfuRuntime, long, long)}. The entries of other streams are
+     * FILTERED placeholders, and transactions only keep the updates of the streams.
+     *
+     * @param start   start address for the bulk read
+     * @param end     end address for the bulk read
+     * @param streams the streams to read
+     * @return logData map ordered by addresses (increasing)
+     */
+    static Map<Long, ILogData> getLogData(CorfuRuntime runtime, long start, long end,
+                                          Set<UUID> streams) {
+        return runtime.getAddressSpaceView().fetchStreams(
+                ContiguousSet.create(Range.closedOpen(start, end), DiscreteDomain.longs()),
+                streams, true);
+    }
+
     /** Deserialize a logData by getting the logEntry
      *
      * Getting the underlying logEntry should trigger deserialization only once.
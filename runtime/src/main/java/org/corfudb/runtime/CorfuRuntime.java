@@ -127,6 +127,17 @@ public class CorfuRuntime {
         @Default int handshakeTimeout = 10;
         // endregion
 
+        // region Sequencer Parameters
+        /**
+         * The window within which concurrent token requests are coalesced into a
+         * single TOKEN_BATCH_REQ. A zero window disables batching.
+         */
+        @Default Duration tokenBatchWindow = Duration.ZERO;
+
+        /** The maximum number of token requests sent in a single batch. */
+        @Default int tokenBatchSize = 64;
+        // endregion
+
         // region Stream Parameters
         /** Whether or not to disable backpointers. */
         @Default boolean backpointersDisabled = false;
@@ -134,6 +145,13 @@ public class CorfuRuntime {
         /** Whether or not hole filling should be disabled. */
         @Default boolean holeFillingDisabled = false;
 
+        /**
+         * Whether streams which are opened from their start prefetch their entries with the
+         * addresses indexed by the log units, before following their backpointers. Every log
+         * unit of the layout must serve STREAM_ADDRESS_SPACE_REQUEST.
+         */
+        @Default boolean streamAddressIndexEnabled = false;
+
         /** Number of times to retry on an
          * {@link org.corfudb.runtime.exceptions.OverwriteException} before giving up. */
         @Default int writeRetry = 5;
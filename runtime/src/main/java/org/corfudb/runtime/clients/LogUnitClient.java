@@ -20,13 +20,17 @@ import org.corfudb.protocols.logprotocol.LogEntry;
 import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.DataType;
 import org.corfudb.protocols.wireprotocol.FillHoleRequest;
+import org.corfudb.protocols.wireprotocol.FilteredReadRequest;
 import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.IMetadata;
 import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.protocols.wireprotocol.MultipleReadRequest;
+import org.corfudb.protocols.wireprotocol.MultipleTrimRequest;
 import org.corfudb.protocols.wireprotocol.RangeWriteMsg;
 import org.corfudb.protocols.wireprotocol.ReadRequest;
 import org.corfudb.protocols.wireprotocol.ReadResponse;
+import org.corfudb.protocols.wireprotocol.StreamAddressSpaceRequest;
+import org.corfudb.protocols.wireprotocol.StreamAddressSpaceResponse;
 import org.corfudb.protocols.wireprotocol.TrimRequest;
 import org.corfudb.protocols.wireprotocol.WriteMode;
 import org.corfudb.protocols.wireprotocol.WriteRequest;
@@ -191,6 +195,27 @@ public class LogUnitClient extends AbstractClient {
         });
     }
 
+    /**
+     * Read the entries of some streams from the log unit server for a range of addresses.
+     * The entries of other streams are replaced by FILTERED placeholders.
+     *
+     * @param range          Range of global offsets.
+     * @param streams        The streams whose entries are returned.
+     * @param filterPayloads Whether to remove the updates of other streams from transactions.
+     * @return CompletableFuture which returns a ReadResponse on completion.
+     */
+    public CompletableFuture<ReadResponse> read(Range<Long> range, Set<UUID> streams,
+                                                boolean filterPayloads) {
+        Timer.Context context = getTimerContext("readFiltered");
+        CompletableFuture<ReadResponse> cf = sendMessageWithFuture(
+                CorfuMsgType.FILTERED_READ_REQUEST.payloadMsg(
+                        new FilteredReadRequest(range, streams, filterPayloads)));
+        return cf.thenApply(x -> {
+            context.stop();
+            return x;
+        });
+    }
+
     /**
      * Read data from the log unit server for a list of addresses.
      *
@@ -207,6 +232,22 @@ public class LogUnitClient extends AbstractClient {
         });
     }
 
+    /**
+     * Get the addresses of a stream which the log unit holds in a range, from the index of
+     * the stream it keeps, instead of following the backpointers of the stream.
+     *
+     * @param streamId the stream
+     * @param start    the first address of the range
+     * @param end      the last address of the range, included
+     * @return CompletableFuture which returns the addresses of the stream on completion.
+     */
+    public CompletableFuture<StreamAddressSpaceResponse> getStreamAddressSpace(UUID streamId,
+                                                                           long start,
+                                                                           long end) {
+        return sendMessageWithFuture(CorfuMsgType.STREAM_ADDRESS_SPACE_REQUEST
+                .payloadMsg(new StreamAddressSpaceRequest(streamId, start, end)));
+    }
+
     /**
      * Get the global tail maximum address the log unit has written.
      *
@@ -234,6 +275,18 @@ public class LogUnitClient extends AbstractClient {
         sendMessage(CorfuMsgType.TRIM.payloadMsg(new TrimRequest(null, prefix)));
     }
 
+    /**
+     * Send a hint to the logging unit that several addresses can be trimmed, in a single
+     * request.
+     *
+     * @param addresses The global physical addresses to trim.
+     * @return A CompletableFuture which completes once the trims are durable.
+     */
+    public CompletableFuture<Void> trim(List<Long> addresses) {
+        return sendMessageWithFuture(CorfuMsgType.MULTIPLE_TRIM
+                .payloadMsg(new MultipleTrimRequest(addresses)));
+    }
+
     /**
      * Send a prefix trim request that will trim the log up to a certian address
      *
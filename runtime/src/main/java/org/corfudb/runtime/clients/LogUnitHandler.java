@@ -10,6 +10,7 @@ import org.corfudb.protocols.wireprotocol.CorfuMsg;
 import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.CorfuPayloadMsg;
 import org.corfudb.protocols.wireprotocol.ReadResponse;
+import org.corfudb.protocols.wireprotocol.StreamAddressSpaceResponse;
 import org.corfudb.runtime.exceptions.DataCorruptionException;
 import org.corfudb.runtime.exceptions.DataOutrankedException;
 import org.corfudb.runtime.exceptions.OutOfSpaceException;
@@ -193,6 +194,20 @@ public class LogUnitHandler implements IClient, IHandler<LogUnitClient> {
         return msg.getPayload();
     }
 
+    /**
+     * Handle a STREAM_ADDRESS_SPACE_RESPONSE message.
+     *
+     * @param msg Incoming Message
+     * @param ctx Context
+     * @param r   Router
+     */
+    @ClientHandler(type = CorfuMsgType.STREAM_ADDRESS_SPACE_RESPONSE)
+    private static Object handleStreamAddressSpaceResponse(
+            CorfuPayloadMsg<StreamAddressSpaceResponse> msg, ChannelHandlerContext ctx,
+            IClientRouter r) {
+        return msg.getPayload();
+    }
+
     /**
      * Handle a HEAD_RESPONSE message
      * @param msg   Incoming Message
@@ -1,5 +1,6 @@
 package org.corfudb.runtime.clients;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -7,6 +8,7 @@ import java.util.concurrent.CompletableFuture;
 
 import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.SequencerTailsRecoveryMsg;
+import org.corfudb.protocols.wireprotocol.TokenBatchRequest;
 import org.corfudb.protocols.wireprotocol.TokenRequest;
 import org.corfudb.protocols.wireprotocol.TokenResponse;
 import org.corfudb.protocols.wireprotocol.TxResolutionInfo;
@@ -33,8 +35,7 @@ public class SequencerClient extends AbstractClient {
      * @return A completable future with the token response from the sequencer.
      */
     public CompletableFuture<TokenResponse> nextToken(Set<UUID> streamIDs, long numTokens) {
-        return sendMessageWithFuture(CorfuMsgType.TOKEN_REQ.payloadMsg(
-                new TokenRequest(numTokens, streamIDs)));
+        return nextToken(new TokenRequest(numTokens, streamIDs));
     }
 
     /**
@@ -47,8 +48,28 @@ public class SequencerClient extends AbstractClient {
      */
     public CompletableFuture<TokenResponse> nextToken(Set<UUID> streamIDs, long numTokens,
                                                       TxResolutionInfo conflictInfo) {
-        return sendMessageWithFuture(CorfuMsgType.TOKEN_REQ.payloadMsg(
-                new TokenRequest(numTokens, streamIDs, conflictInfo)));
+        return nextToken(new TokenRequest(numTokens, streamIDs, conflictInfo));
+    }
+
+    /**
+     * Sends a token request to the sequencer.
+     *
+     * @param request The token request.
+     * @return A completable future with the token response from the sequencer.
+     */
+    public CompletableFuture<TokenResponse> nextToken(TokenRequest request) {
+        return sendMessageWithFuture(CorfuMsgType.TOKEN_REQ.payloadMsg(request));
+    }
+
+    /**
+     * Sends several token requests to the sequencer in a single message.
+     *
+     * @param requests The token requests, which are served in order.
+     * @return A completable future with the token responses, in the order of the requests.
+     */
+    public CompletableFuture<List<TokenResponse>> nextTokens(List<TokenRequest> requests) {
+        return sendMessageWithFuture(CorfuMsgType.TOKEN_BATCH_REQ.payloadMsg(
+                new TokenBatchRequest(requests)));
     }
 
     public CompletableFuture<Void> trimCache(Long address) {
@@ -66,4 +87,15 @@ public class SequencerClient extends AbstractClient {
         return sendMessageWithFuture(CorfuMsgType.BOOTSTRAP_SEQUENCER.payloadMsg(
                 new SequencerTailsRecoveryMsg(initialToken, sequencerTails, readyStateEpoch)));
     }
+
+    /**
+     * Queries the latest snapshot persisted by the sequencer.
+     *
+     * @return A CompletableFuture with the global tail, stream tails and epoch of the snapshot.
+     *     The global tail is {@link org.corfudb.runtime.view.Address#NON_ADDRESS} if the
+     *     sequencer has no snapshot.
+     */
+    public CompletableFuture<SequencerTailsRecoveryMsg> getSnapshot() {
+        return sendMessageWithFuture(CorfuMsgType.SEQUENCER_SNAPSHOT_REQ.msg());
+    }
 }
@@ -9,6 +9,8 @@ import lombok.Setter;
 
 import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.CorfuPayloadMsg;
+import org.corfudb.protocols.wireprotocol.SequencerTailsRecoveryMsg;
+import org.corfudb.protocols.wireprotocol.TokenBatchResponse;
 import org.corfudb.protocols.wireprotocol.TokenResponse;
 
 
@@ -42,4 +44,16 @@ public class SequencerHandler implements IClient, IHandler<SequencerClient> {
                                               ChannelHandlerContext ctx, IClientRouter r) {
         return msg.getPayload();
     }
+
+    @ClientHandler(type = CorfuMsgType.TOKEN_BATCH_RES)
+    private static Object handleTokenBatchResponse(CorfuPayloadMsg<TokenBatchResponse> msg,
+                                                   ChannelHandlerContext ctx, IClientRouter r) {
+        return msg.getPayload().getResponses();
+    }
+
+    @ClientHandler(type = CorfuMsgType.SEQUENCER_SNAPSHOT_RES)
+    private static Object handleSnapshotResponse(CorfuPayloadMsg<SequencerTailsRecoveryMsg> msg,
+                                                 ChannelHandlerContext ctx, IClientRouter r) {
+        return msg.getPayload();
+    }
 }
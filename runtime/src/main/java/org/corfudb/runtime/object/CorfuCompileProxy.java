@@ -273,7 +273,14 @@ public class CorfuCompileProxy<T> implements ICorfuSMRProxyInternal<T> {
                 rt.getSequencerView()
                         .nextToken(Collections.singleton(streamID), 0).getToken()
                         .getTokenValue();
+        sync(timestamp);
+    }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sync(long timestamp) {
         log.debug("Sync[{}] {}", this, timestamp);
 
         // Acquire locks and perform read.
@@ -8,11 +8,16 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.common.collect.Iterables;
 
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
@@ -24,6 +29,8 @@ import org.corfudb.protocols.wireprotocol.DataType;
 import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.IToken;
 import org.corfudb.protocols.wireprotocol.LogData;
+import org.corfudb.protocols.wireprotocol.StreamAddressSpaceResponse;
+import org.corfudb.protocols.wireprotocol.SyncPolicy;
 import org.corfudb.runtime.CorfuRuntime;
 import org.corfudb.runtime.clients.LogUnitClient;
 import org.corfudb.runtime.exceptions.WriteSizeException;
@@ -32,6 +39,9 @@ import org.corfudb.runtime.exceptions.StaleTokenException;
 import org.corfudb.runtime.exceptions.TrimmedException;
 import org.corfudb.runtime.exceptions.WrongEpochException;
 import org.corfudb.runtime.exceptions.unrecoverable.UnrecoverableCorfuError;
+import org.corfudb.runtime.view.Layout.LayoutSegment;
+import org.corfudb.runtime.view.Layout.LayoutStripe;
+import org.corfudb.runtime.view.Layout.ReplicationMode;
 import org.corfudb.util.CFUtils;
 
 
@@ -127,7 +137,24 @@ public class AddressSpaceView extends AbstractView {
      * @throws WrongEpochException  If the token epoch is invalid.
      */
     public void write(IToken token, Object data) throws OverwriteException {
+        write(token, data, SyncPolicy.DEFAULT);
+    }
+
+    /** Write the given log data using a token, asking the log units to make it durable
+     * with a sync policy.
+     *
+     * @param token      The token to use for the write.
+     * @param data       The data to write.
+     * @param syncPolicy How the log units make the write durable.
+     * @throws OverwriteException   If the globalAddress given
+     *                              by the token has adopted
+     *                              another value.
+     * @throws WrongEpochException  If the token epoch is invalid.
+     */
+    public void write(IToken token, Object data, SyncPolicy syncPolicy)
+            throws OverwriteException {
         final ILogData ld = new LogData(DataType.DATA, data);
+        ld.setSyncPolicy(syncPolicy);
 
         layoutHelper(e -> {
             Layout l = e.getLayout();
@@ -223,6 +250,56 @@ public class AddressSpaceView extends AbstractView {
         return addressesMap;
     }
 
+    /**
+     * Get the addresses of a stream in a range from the stream address indexes of the log
+     * units, with a single request to each stripe of the range.
+     *
+     * <p>The tail of the chain of a stripe holds every address committed to the stripe, so
+     * only chain replicated segments are supported. Addresses which are not yet written to
+     * the tail of their chain, or were trimmed, are missing: the addresses are a hint to
+     * read the entries of the stream in bulk, not a substitute for its backpointers.
+     *
+     * @param streamId the stream
+     * @param start    the first address of the range
+     * @param end      the last address of the range, included
+     * @return the addresses of the stream in ascending order, or null if a segment of the
+     *     range is not chain replicated or a log unit does not index its streams
+     */
+    public @Nullable NavigableSet<Long> getStreamAddressSpace(UUID streamId, long start,
+                                                              long end) {
+        return layoutHelper(e -> {
+            List<CompletableFuture<StreamAddressSpaceResponse>> futures = new ArrayList<>();
+            for (LayoutSegment segment : e.getLayout().getSegments()) {
+                final long segmentEnd = segment.getEnd() == -1 ? Long.MAX_VALUE
+                        : segment.getEnd() - 1;
+                if (segment.getStart() > end || segmentEnd < start) {
+                    continue;
+                }
+                if (segment.getReplicationMode() != ReplicationMode.CHAIN_REPLICATION) {
+                    return null;
+                }
+
+                final long from = Math.max(start, segment.getStart());
+                final long to = Math.min(end, segmentEnd);
+                for (LayoutStripe stripe : segment.getStripes()) {
+                    List<String> logServers = stripe.getLogServers();
+                    futures.add(e.getLogUnitClient(logServers.get(logServers.size() - 1))
+                            .getStreamAddressSpace(streamId, from, to));
+                }
+            }
+
+            NavigableSet<Long> addresses = new TreeSet<>();
+            for (CompletableFuture<StreamAddressSpaceResponse> future : futures) {
+                StreamAddressSpaceResponse response = CFUtils.getUninterruptibly(future);
+                if (!response.isIndexed()) {
+                    return null;
+                }
+                addresses.addAll(response.getAddresses());
+            }
+            return addresses;
+        });
+    }
+
     /**
      * Get the first address in the address space.
      */
@@ -366,6 +443,24 @@ public class AddressSpaceView extends AbstractView {
                 .readRange(e, addresses));
     }
 
+    /**
+     * Fetch the entries of some streams from a collection of addresses, bypassing the cache.
+     * The entries of other streams are FILTERED placeholders, and transactions only keep
+     * the updates of the streams if the payloads are filtered, so the result is not cached.
+     *
+     * @param addresses      collection of addresses to read from.
+     * @param streams        the streams whose entries are read.
+     * @param filterPayloads whether to remove the updates of other streams from transactions.
+     * @return A result, which will be uncached.
+     */
+    public @Nonnull
+    Map<Long, ILogData> fetchStreams(Set<Long> addresses, Set<UUID> streams,
+                                     boolean filterPayloads) {
+        return layoutHelper(e -> e.getLayout().getReplicationMode(addresses.iterator().next())
+                .getReplicationProtocol(runtime)
+                .readRange(e, addresses, streams, filterPayloads));
+    }
+
     /**
      * Explicitly fetch a given address, bypassing the cache.
      *
@@ -2,6 +2,7 @@ package org.corfudb.runtime.view;
 
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -12,6 +13,7 @@ import javax.annotation.Nonnull;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
+import org.corfudb.protocols.wireprotocol.SequencerTailsRecoveryMsg;
 import org.corfudb.recovery.FastObjectLoader;
 import org.corfudb.runtime.CorfuRuntime;
 import org.corfudb.runtime.exceptions.LayoutModificationException;
@@ -439,10 +441,31 @@ public class LayoutManagementView extends AbstractView {
             fastObjectLoader.setRecoverSequencerMode(true);
             fastObjectLoader.setLoadInCache(false);
 
-            // FastSMRLoader sets the logHead based on trim mark.
+            // If the new sequencer has a snapshot of its state, only the log written after
+            // the snapshot needs to be scanned. Otherwise, FastSMRLoader sets the logHead
+            // based on trim mark.
+            SequencerTailsRecoveryMsg snapshot = getSequencerSnapshot(newLayout,
+                    maxTokenRequested);
+            if (snapshot != null) {
+                fastObjectLoader.setLogHead(Math.max(snapshot.getGlobalTail(),
+                        runtime.getAddressSpaceView().getTrimMark()));
+            }
             fastObjectLoader.setLogTail(maxTokenRequested);
             fastObjectLoader.loadMaps();
             streamTails = fastObjectLoader.getStreamTails();
+            if (snapshot != null) {
+                Map<UUID, Long> mergedTails = new HashMap<>(snapshot.getStreamTails());
+                streamTails.forEach((streamId, tail) -> mergedTails.merge(streamId, tail,
+                        Math::max));
+                streamTails = mergedTails;
+
+                // The snapshot may hold tails issued after its global tail, which were
+                // never written, and must not be issued again
+                if (!streamTails.isEmpty()) {
+                    maxTokenRequested = Math.max(maxTokenRequested,
+                            Collections.max(streamTails.values()));
+                }
+            }
             verifyStreamTailsMap(streamTails);
 
             // Incrementing the maxTokenRequested value for sequencer reset.
@@ -461,6 +484,41 @@ public class LayoutManagementView extends AbstractView {
         }
     }
 
+    /**
+     * Fetches the snapshot persisted by the primary sequencer of a layout.
+     *
+     * @param layout            Layout whose primary sequencer is queried.
+     * @param maxTokenRequested Maximum global tail of the log units.
+     * @return The snapshot, or null if the sequencer has none or it cannot be used.
+     */
+    private SequencerTailsRecoveryMsg getSequencerSnapshot(Layout layout,
+                                                           long maxTokenRequested) {
+        final SequencerTailsRecoveryMsg snapshot;
+        try {
+            snapshot = CFUtils.getUninterruptibly(runtime.getLayoutView()
+                    .getRuntimeLayout(layout)
+                    .getPrimarySequencerClient()
+                    .getSnapshot());
+        } catch (RuntimeException e) {
+            log.warn("getSequencerSnapshot: Could not query sequencer snapshot, "
+                    + "recovering from the whole log.", e);
+            return null;
+        }
+
+        // A snapshot beyond the tail of the log does not belong to this log.
+        if (Address.nonAddress(snapshot.getGlobalTail())
+                || snapshot.getGlobalTail() > maxTokenRequested + 1) {
+            log.info("getSequencerSnapshot: No usable sequencer snapshot (tail = {}, "
+                    + "log tail = {})", snapshot.getGlobalTail(), maxTokenRequested);
+            return null;
+        }
+
+        log.info("getSequencerSnapshot: Recovering from sequencer snapshot at {} "
+                + "(epoch {}), log tail = {}", snapshot.getGlobalTail(),
+                snapshot.getReadyStateEpoch(), maxTokenRequested);
+        return snapshot;
+    }
+
     /**
      * Verifies whether there are any invalid streamTails.
      *
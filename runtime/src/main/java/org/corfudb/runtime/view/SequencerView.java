@@ -1,11 +1,15 @@
 package org.corfudb.runtime.view;
 
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
+import org.corfudb.protocols.wireprotocol.TokenRequest;
 import org.corfudb.protocols.wireprotocol.TokenResponse;
 import org.corfudb.protocols.wireprotocol.TxResolutionInfo;
 import org.corfudb.runtime.CorfuRuntime;
+import org.corfudb.runtime.clients.SequencerClient;
 import org.corfudb.util.CFUtils;
 
 
@@ -15,8 +19,35 @@ import org.corfudb.util.CFUtils;
 
 public class SequencerView extends AbstractView {
 
+    /**
+     * Coalesces concurrent token requests, or null if batching is disabled.
+     */
+    private final TokenRequestBatcher batcher;
+
+    /**
+     * Create a new sequencer view.
+     *
+     * @param runtime the runtime, whose parameters determine whether token requests are batched
+     */
     public SequencerView(CorfuRuntime runtime) {
         super(runtime);
+        CorfuRuntime.CorfuRuntimeParameters parameters = runtime.getParameters();
+        batcher = parameters.getTokenBatchWindow().isZero() ? null
+                : new TokenRequestBatcher(parameters.getTokenBatchWindow(),
+                        parameters.getTokenBatchSize());
+    }
+
+    /**
+     * Send a token request to the given sequencer, through the batcher if enabled.
+     *
+     * @param client  the primary sequencer client
+     * @param request the token request
+     * @return a future which completes with the token response
+     */
+    private CompletableFuture<TokenResponse> nextToken(SequencerClient client,
+                                                       TokenRequest request) {
+        return batcher == null ? client.nextToken(request)
+                : batcher.nextToken(client, request);
     }
 
     /**
@@ -31,15 +62,27 @@ public class SequencerView extends AbstractView {
      * @return The first token retrieved.
      */
     public TokenResponse nextToken(Set<UUID> streamIDs, int numTokens) {
-        return layoutHelper(e -> CFUtils.getUninterruptibly(e.getPrimarySequencerClient()
-                .nextToken(streamIDs, numTokens)));
+        return layoutHelper(e -> CFUtils.getUninterruptibly(nextToken(
+                e.getPrimarySequencerClient(), new TokenRequest((long) numTokens, streamIDs))));
     }
 
 
     public TokenResponse nextToken(Set<UUID> streamIDs, int numTokens,
                                    TxResolutionInfo conflictInfo) {
-        return layoutHelper(e -> CFUtils.getUninterruptibly(e.getPrimarySequencerClient()
-                .nextToken(streamIDs, numTokens, conflictInfo)));
+        return layoutHelper(e -> CFUtils.getUninterruptibly(nextToken(
+                e.getPrimarySequencerClient(),
+                new TokenRequest((long) numTokens, streamIDs, conflictInfo))));
+    }
+
+    /**
+     * Return the tails of several streams, resolved by the sequencer in a single request.
+     *
+     * @param streamIDs The stream IDs to query.
+     * @return A map from each stream ID to the last address issued on it, or
+     *     {@link Address#NON_EXIST} if nothing was written to it.
+     */
+    public Map<UUID, Long> getStreamTails(Set<UUID> streamIDs) {
+        return nextToken(streamIDs, 0).getStreamTails();
     }
 
     public void trimCache(long address) {
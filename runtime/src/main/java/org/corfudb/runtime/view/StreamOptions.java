@@ -1,5 +1,7 @@
 package org.corfudb.runtime.view;
 
+import org.corfudb.protocols.wireprotocol.SyncPolicy;
+
 /**
  * Created by maithem on 6/20/17.
  */
@@ -8,8 +10,18 @@ public class StreamOptions {
 
     public final boolean ignoreTrimmed;
 
+    /**
+     * How the log units make the appends to the stream durable.
+     */
+    public final SyncPolicy syncPolicy;
+
     public StreamOptions(boolean ignoreTrimmed) {
+        this(ignoreTrimmed, SyncPolicy.DEFAULT);
+    }
+
+    public StreamOptions(boolean ignoreTrimmed, SyncPolicy syncPolicy) {
         this.ignoreTrimmed = ignoreTrimmed;
+        this.syncPolicy = syncPolicy;
     }
 
     public static StreamOptionsBuilder builder() {
@@ -18,6 +30,7 @@ public class StreamOptions {
 
     public static class StreamOptionsBuilder {
         private boolean ignoreTrimmed;
+        private SyncPolicy syncPolicy = SyncPolicy.DEFAULT;
 
         public StreamOptionsBuilder() {
 
@@ -28,8 +41,13 @@ public class StreamOptions {
             return this;
         }
 
+        public StreamOptionsBuilder syncPolicy(SyncPolicy syncPolicy) {
+            this.syncPolicy = syncPolicy;
+            return this;
+        }
+
         public StreamOptions build() {
-            return new StreamOptions(ignoreTrimmed);
+            return new StreamOptions(ignoreTrimmed, syncPolicy);
         }
     }
 }
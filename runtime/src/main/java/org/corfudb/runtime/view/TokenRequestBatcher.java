@@ -0,0 +1,167 @@
+package org.corfudb.runtime.view;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.corfudb.protocols.wireprotocol.TokenRequest;
+import org.corfudb.protocols.wireprotocol.TokenResponse;
+import org.corfudb.runtime.clients.SequencerClient;
+
+/**
+ * Coalesces concurrent token requests into TOKEN_BATCH_REQ messages.
+ *
+ * <p>The first request submitted to an empty batch opens a window. Every request
+ * submitted before the window closes, or before the batch reaches its maximum size,
+ * is sent to the sequencer in the same message. The sequencer answers all of them
+ * in one response, and the future of each request is completed separately.</p>
+ *
+ * <p>A batch is bound to the {@link SequencerClient} it was opened with, so that all
+ * of its requests are stamped with the same epoch. A request against a different
+ * client (e.g., after a layout change) flushes the current batch first.</p>
+ */
+@Slf4j
+public class TokenRequestBatcher {
+
+    /** Timer which flushes batches whose window has closed. */
+    private static final ScheduledExecutorService flusher =
+            Executors.newScheduledThreadPool(
+                    1,
+                    new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("tokenBatcher-%d")
+                            .build());
+
+    /** How long the first request of a batch waits for others to join it. */
+    private final Duration window;
+
+    /** The maximum number of requests sent in one batch. */
+    private final int maxBatchSize;
+
+    /** The batch currently accepting requests, or null if there is none. */
+    private Batch current = null;
+
+    /**
+     * Create a new batcher.
+     *
+     * @param window       how long a batch stays open after its first request
+     * @param maxBatchSize the maximum number of requests per batch
+     */
+    public TokenRequestBatcher(@Nonnull Duration window, int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Token batch size must be positive, got "
+                    + maxBatchSize);
+        }
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Submit a token request, to be sent in the next batch to the given sequencer.
+     *
+     * @param client  the sequencer client to send the batch through
+     * @param request the token request
+     * @return a future which completes with the response to this request
+     */
+    public CompletableFuture<TokenResponse> nextToken(@Nonnull SequencerClient client,
+                                                      @Nonnull TokenRequest request) {
+        final CompletableFuture<TokenResponse> future = new CompletableFuture<>();
+        Batch stale = null;
+        Batch full = null;
+
+        synchronized (this) {
+            if (current != null && current.client != client) {
+                stale = current;
+                current = null;
+            }
+
+            if (current == null) {
+                final Batch opened = new Batch(client);
+                current = opened;
+                flusher.schedule(() -> flush(opened), window.toNanos(), TimeUnit.NANOSECONDS);
+            }
+
+            current.requests.add(request);
+            current.futures.add(future);
+
+            if (current.requests.size() >= maxBatchSize) {
+                full = current;
+                current = null;
+            }
+        }
+
+        if (stale != null) {
+            send(stale);
+        }
+        if (full != null) {
+            send(full);
+        }
+        return future;
+    }
+
+    /**
+     * Send a batch whose window has closed, unless it was already sent because it filled up.
+     *
+     * @param batch the batch to flush
+     */
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (current != batch) {
+                return;
+            }
+            current = null;
+        }
+        send(batch);
+    }
+
+    /**
+     * Send a batch to the sequencer and complete each request future from the response.
+     *
+     * @param batch the batch to send
+     */
+    private void send(Batch batch) {
+        log.trace("send: Sending {} token requests in one batch", batch.requests.size());
+        batch.client.nextTokens(batch.requests).whenComplete((responses, ex) -> {
+            if (ex != null) {
+                Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                batch.futures.forEach(f -> f.completeExceptionally(cause));
+                return;
+            }
+
+            if (responses.size() != batch.futures.size()) {
+                IllegalStateException ise = new IllegalStateException("Expected "
+                        + batch.futures.size() + " token responses, got " + responses.size());
+                batch.futures.forEach(f -> f.completeExceptionally(ise));
+                return;
+            }
+
+            for (int i = 0; i < responses.size(); i++) {
+                batch.futures.get(i).complete(responses.get(i));
+            }
+        });
+    }
+
+    /**
+     * The requests and futures of a single batch.
+     */
+    private static class Batch {
+        final SequencerClient client;
+        final List<TokenRequest> requests = new ArrayList<>();
+        final List<CompletableFuture<TokenResponse>> futures = new ArrayList<>();
+
+        Batch(SequencerClient client) {
+            this.client = client;
+        }
+    }
+}
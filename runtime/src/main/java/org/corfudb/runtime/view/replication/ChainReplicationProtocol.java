@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.UUID;
 import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
 import org.corfudb.protocols.wireprotocol.ILogData;
@@ -130,6 +131,39 @@ public class ChainReplicationProtocol extends AbstractReplicationProtocol {
         return returnResult;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The entries are filtered by the tail of the chain.
+     */
+    @Override
+    public Map<Long, ILogData> readRange(RuntimeLayout runtimeLayout, Set<Long> globalAddresses,
+                                         Set<UUID> streams, boolean filterPayloads) {
+        Range<Long> range = Range.encloseAll(globalAddresses);
+        long startAddress = range.lowerEndpoint();
+        int numUnits = runtimeLayout.getLayout().getSegmentLength(startAddress);
+        log.trace("readRange[{}-{}, {}]: chain {}/{}", startAddress, range.upperEndpoint(),
+                streams, numUnits, numUnits);
+
+        Map<Long, LogData> logResult = CFUtils.getUninterruptibly(
+                runtimeLayout
+                        .getLogUnitClient(startAddress, numUnits - 1)
+                        .read(range, streams, filterPayloads)).getAddresses();
+
+        //in case of a hole, do a normal read and use its hole fill policy
+        Map<Long, ILogData> returnResult = new TreeMap<>();
+        for (Map.Entry<Long, LogData> entry : logResult.entrySet()) {
+            ILogData value = entry.getValue();
+            if (value == null || value.isEmpty()) {
+                value = read(runtimeLayout, entry.getKey());
+            }
+
+            returnResult.put(entry.getKey(), value);
+        }
+
+        return returnResult;
+    }
+
     /**
      * Propagate a write down the chain, ignoring
      * any overwrite errors. It is expected that the
@@ -4,6 +4,7 @@ import java.util.AbstractMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 
@@ -96,6 +97,31 @@ public interface IReplicationProtocol {
                 .collect(Collectors.toMap(r -> r.getKey(), r -> r.getValue()));
     }
 
+    /** Read the entries of some streams from a range.
+     *
+     * <p>This method functions like a readRange, except that the
+     * entries of other streams may be replaced by FILTERED
+     * placeholders, and the updates of other streams may be removed
+     * from transactions. The result must not be cached, since the
+     * entries are incomplete.
+     *
+     * <p>An implementation may filter the entries on the log units,
+     * but the default implementation just performs a readRange.
+     *
+     * @param runtimeLayout         The RuntimeLayout stamped with layout to use for the read.
+     * @param globalAddresses       A set of addresses to read from.
+     * @param streams               The streams whose entries are returned.
+     * @param filterPayloads        Whether to remove the updates of other
+     *                              streams from transactions.
+     * @return                      A map of addresses to committed
+     *                              addresses, hole filling if necessary.
+     */
+    default @Nonnull
+    Map<Long, ILogData> readRange(RuntimeLayout runtimeLayout, Set<Long> globalAddresses,
+                                  Set<UUID> streams, boolean filterPayloads) {
+        return readRange(runtimeLayout, globalAddresses);
+    }
+
     /** Peek data from a given address.
      *
      * <p>This function -may- return null if there was no entry
@@ -90,7 +90,7 @@ public class BackpointerStreamView extends AbstractQueuedStreamView {
             // to the client.
             try {
                 runtime.getAddressSpaceView()
-                        .write(tokenResponse, object);
+                        .write(tokenResponse, object, options.syncPolicy);
                 // The write completed successfully, so we return this
                 // address to the client.
                 return tokenResponse.getToken().getTokenValue();
@@ -301,6 +301,39 @@ public class BackpointerStreamView extends AbstractQueuedStreamView {
 
     }
 
+    /**
+     * Read the entries of a stream in a range with one bulk read, from the addresses the
+     * log units index for the stream, so that following its backpointers hits the cache
+     * of the address space rather than reading one entry per hop.
+     *
+     * @param streamId the stream
+     * @param start    the first address of the range
+     * @param end      the last address of the range, included
+     */
+    private void prefetchStreamEntries(final UUID streamId, final long start, final long end) {
+        if (!runtime.getParameters().isStreamAddressIndexEnabled()
+                || runtime.getParameters().isCacheDisabled()
+                || runtime.getParameters().isBackpointersDisabled() || end <= start) {
+            return;
+        }
+
+        NavigableSet<Long> addresses = runtime.getAddressSpaceView()
+                .getStreamAddressSpace(streamId, start, end);
+        if (addresses == null || addresses.isEmpty()) {
+            return;
+        }
+
+        try {
+            log.trace("prefetchStreamEntries: stream[{}] has {} addresses in [{}, {}]",
+                    streamId, addresses.size(), start, end);
+            runtime.getAddressSpaceView().read(addresses);
+        } catch (TrimmedException te) {
+            // Following the backpointers reaches the trimmed entry
+            log.trace("prefetchStreamEntries: stream[{}] was trimmed in [{}, {}]",
+                    streamId, start, end);
+        }
+    }
+
     protected BackpointerOp resolveCheckpoint(final QueuedStreamContext context, ILogData data,
                                               long maxGlobal) {
         if (data.hasCheckpointMetadata()) {
@@ -442,10 +475,16 @@ public class BackpointerStreamView extends AbstractQueuedStreamView {
         // values from the beginning of the stream up to the snapshot address
         // should be reflected. For each address which is less than
         // maxGlobalAddress, we insert it into the read queue.
+        final long stopAddress =
+                Long.max(context.globalPointer, context.checkpointSnapshotAddress);
+        // Only a stream read from its start has enough entries to pay for the round trip
+        if (stopAddress == Address.NEVER_READ) {
+            prefetchStreamEntries(context.id, stopAddress + 1, latestTokenValue);
+        }
 
         followBackpointers(context.id, context.readQueue,
                 latestTokenValue,
-                Long.max(context.globalPointer, context.checkpointSnapshotAddress),
+                stopAddress,
                 d -> BackpointerOp.INCLUDE);
 
         return ! context.readCpQueue.isEmpty() || !context.readQueue.isEmpty();
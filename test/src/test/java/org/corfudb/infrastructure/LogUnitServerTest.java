@@ -1,25 +1,50 @@
 package org.corfudb.infrastructure;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Range;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.util.ReferenceCountUtil;
 import org.assertj.core.api.Assertions;
+import org.corfudb.infrastructure.log.InMemoryStreamLog;
+import org.corfudb.infrastructure.log.LogDataRegion;
 import org.corfudb.infrastructure.log.StreamLogFiles;
+import org.corfudb.protocols.logprotocol.MultiObjectSMREntry;
+import org.corfudb.protocols.logprotocol.SMREntry;
 import org.corfudb.protocols.wireprotocol.*;
 import org.corfudb.runtime.CorfuRuntime;
+import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.view.Address;
 import org.corfudb.util.serializer.Serializers;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.corfudb.infrastructure.LogUnitServerAssertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -421,6 +446,501 @@ public class LogUnitServerTest extends AbstractServerTest {
         assertThat(s1).hasCorrectCacheSize(randomCacheRatio);
     }
 
+    @Test
+    public void groupCommitCompletesWritesOnceSynced() {
+        StreamLogFiles log = new StreamLogFiles(new ServerContextBuilder()
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setMemory(false)
+                .build(), false);
+        BatchWriter<Long, ILogData> writer = new BatchWriter<>(log, true);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (long address = 0; address < PARAMETERS.NUM_ITERATIONS_LOW; address++) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(Long.toString(address).getBytes(), b);
+            futures.add(writer.writeAsync(address, new LogData(DataType.DATA, b)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        for (long address = 0; address < PARAMETERS.NUM_ITERATIONS_LOW; address++) {
+            assertThat(log.read(address)).isNotNull();
+        }
+
+        // An overwrite completes its future exceptionally, instead of throwing.
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize("0".getBytes(), b);
+        CompletableFuture<Void> overwrite = writer.writeAsync(0L, new LogData(DataType.DATA, b));
+        Assertions.assertThatThrownBy(overwrite::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(OverwriteException.class);
 
-}
+        writer.close();
+    }
+
+    @Test
+    public void groupCommitFailsTheBatchWhenTheSyncFails() {
+        final AtomicBoolean failSync = new AtomicBoolean(true);
+        InMemoryStreamLog log = new InMemoryStreamLog() {
+            @Override
+            public void sync(boolean force) {
+                if (failSync.getAndSet(false)) {
+                    throw new UncheckedIOException(new IOException("sync failed"));
+                }
+            }
+        };
+        BatchWriter<Long, ILogData> writer = new BatchWriter<>(log, true);
+
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize("0".getBytes(), b);
+        CompletableFuture<Void> failed = writer.writeAsync(0L, new LogData(DataType.DATA, b));
+        Assertions.assertThatThrownBy(failed::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(UncheckedIOException.class);
+
+        // The write processor keeps serving the next batches
+        b = Unpooled.buffer();
+        Serializers.CORFU.serialize("1".getBytes(), b);
+        writer.writeAsync(1L, new LogData(DataType.DATA, b)).join();
+        assertThat(log.read(1L)).isNotNull();
+
+        writer.close();
+    }
+
+    @Test
+    public void groupCommitRejectsWritesWhenTheQueueIsFull() throws Exception {
+        final CountDownLatch appending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        InMemoryStreamLog log = new InMemoryStreamLog() {
+            @Override
+            public void append(long address, LogData entry) {
+                appending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    throw new IllegalStateException(ie);
+                }
+                super.append(address, entry);
+            }
+        };
+        BatchWriter<Long, ILogData> writer = new BatchWriter<>(log, true);
+
+        // The write processor is stuck on the first write while the queue fills up
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(writer.writeAsync(0L, new LogData(DataType.HOLE)));
+        appending.await();
+        for (long address = 1; address <= BatchWriter.QUEUE_CAPACITY; address++) {
+            futures.add(writer.writeAsync(address, new LogData(DataType.HOLE)));
+        }
+
+        CompletableFuture<Void> rejected = writer.writeAsync(BatchWriter.QUEUE_CAPACITY + 1,
+                new LogData(DataType.HOLE));
+        Assertions.assertThatThrownBy(rejected::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        writer.close();
+    }
+
+    /**
+     * Waits until the server sent the given number of responses, which it does from the
+     * batch writer in group commit mode.
+     */
+    private void awaitResponses(int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + PARAMETERS.TIMEOUT_NORMAL.toNanos();
+        while (getResponseMessages().size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(PARAMETERS.TIMEOUT_VERY_SHORT.toMillis());
+        }
+        assertThat(getResponseMessages()).hasSize(count);
+    }
+
+    private WriteRequest rankedWrite(long address, String payload, long rank) {
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize(payload.getBytes(), b);
+        WriteRequest m = WriteRequest.builder()
+                .writeMode(WriteMode.NORMAL)
+                .data(new LogData(DataType.DATA, b))
+                .build();
+        m.setGlobalAddress(address);
+        m.setRank(new IMetadata.DataRank(rank));
+        m.setBackpointerMap(Collections.emptyMap());
+        return m;
+    }
+
+    @Test
+    public void groupCommitRepliesWhenTheAppendFails() throws Exception {
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setGroupCommit(true)
+                .build(), new InMemoryStreamLog() {
+                    @Override
+                    public synchronized void append(long address, LogData entry) {
+                        throw new IllegalStateException("append failed");
+                    }
+                });
+
+        this.router.reset();
+        this.router.addServer(s1);
+
+        rawWrite(0L, "0", "a");
+        awaitResponses(1);
+        Assertions.assertThat(getLastMessage().getMsgType())
+                .isEqualTo(CorfuMsgType.ERROR_SERVER_EXCEPTION);
+        Assertions.assertThat(getLastPayloadMessageAs(ExceptionMsg.class).getThrowable())
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void groupCommitInvalidatesCachedEntries() throws Exception {
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setMemory(false)
+                .setGroupCommit(true)
+                .build());
+
+        this.router.reset();
+        this.router.addServer(s1);
+
+        final long address = 0L;
+        sendMessage(CorfuMsgType.WRITE.payloadMsg(rankedWrite(address, "0", 1L)));
+        awaitResponses(1);
+        Assertions.assertThat(getLastMessage().getMsgType())
+                .isEqualTo(CorfuMsgType.WRITE_OK);
+
+        // The read caches the entry of the lower rank
+        assertThat(s1)
+                .matchesDataAtAddress(address, "0".getBytes());
+
+        sendMessage(CorfuMsgType.WRITE.payloadMsg(rankedWrite(address, "1", 2L)));
+        awaitResponses(2);
+        Assertions.assertThat(getLastMessage().getMsgType())
+                .isEqualTo(CorfuMsgType.WRITE_OK);
+
+        assertThat(s1)
+                .matchesDataAtAddress(address, "1".getBytes());
+    }
+
+    @Test
+    public void writesAreSyncedWithTheirPolicy() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(new ServerContextBuilder()
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setMemory(false)
+                .build(), false);
+        BatchWriter<Long, ILogData> writer = new BatchWriter<>(log, true, SyncPolicy.INTERVAL,
+                PARAMETERS.TIMEOUT_VERY_SHORT.toMillis());
+        Timer intervalSyncs = ServerContext.getMetrics().timer("logunit.sync.interval");
+        Timer forceDataSyncs = ServerContext.getMetrics().timer("logunit.sync.force-data");
+        final long intervalSyncsBefore = intervalSyncs.getCount();
+        final long forceDataSyncsBefore = forceDataSyncs.getCount();
+
+        // A write with the default policy is acknowledged before it is forced, which
+        // happens once the interval elapsed, even though no other write arrives.
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize("0".getBytes(), b);
+        writer.writeAsync(0L, new LogData(DataType.DATA, b)).join();
+        final long deadline = System.nanoTime() + PARAMETERS.TIMEOUT_NORMAL.toNanos();
+        while (intervalSyncs.getCount() == intervalSyncsBefore && System.nanoTime() < deadline) {
+            Thread.sleep(PARAMETERS.TIMEOUT_VERY_SHORT.toMillis());
+        }
+        assertThat(intervalSyncs.getCount()).isGreaterThan(intervalSyncsBefore);
+
+        // A write which requests another policy is synced with it
+        b = Unpooled.buffer();
+        Serializers.CORFU.serialize("1".getBytes(), b);
+        LogData entry = new LogData(DataType.DATA, b);
+        entry.setSyncPolicy(SyncPolicy.FORCE_DATA);
+
+        // The policy is sent along with the entry
+        ByteBuf serialized = Unpooled.buffer();
+        entry.doSerialize(serialized);
+        assertThat(new LogData(serialized).getSyncPolicy()).isEqualTo(SyncPolicy.FORCE_DATA);
+
+        writer.writeAsync(1L, entry).join();
+        assertThat(forceDataSyncs.getCount()).isGreaterThan(forceDataSyncsBefore);
+
+        // But it is neither cached nor stored with it
+        assertThat(entry.getMetadataMap())
+                .doesNotContainKey(IMetadata.LogUnitMetadataType.SYNC_POLICY);
+        assertThat(log.read(1L).getMetadataMap())
+                .doesNotContainKey(IMetadata.LogUnitMetadataType.SYNC_POLICY);
+
+        writer.close();
+        log.close();
+    }
+
+    @Test
+    public void offHeapCacheIsNotSizedByTheHeap() {
+        final long offHeapSize = 1L << 20;
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setCacheOffHeap(true)
+                .setCacheOffHeapSize(Long.toString(offHeapSize))
+                .build());
+        assertThat(s1.getMaxCacheSize()).isEqualTo(offHeapSize);
+        s1.shutdown();
+    }
+
+    @Test
+    public void offHeapCacheServesDecodedEntries() {
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setMemory(false)
+                .setCacheOffHeap(true)
+                .build());
 
+        this.router.reset();
+        this.router.addServer(s1);
+
+        final long globalAddress = 0L;
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize("0".getBytes(), b);
+        WriteRequest m = WriteRequest.builder()
+                .writeMode(WriteMode.NORMAL)
+                .data(new LogData(DataType.DATA, b))
+                .build();
+        m.setGlobalAddress(globalAddress);
+        m.setBackpointerMap(Collections.emptyMap());
+        sendMessage(CorfuMsgType.WRITE.payloadMsg(m));
+        assertThat(getLastMessage().getMsgType()).isEqualTo(CorfuMsgType.WRITE_OK);
+
+        // The entry is cached serialized, and weighed by its size
+        ILogData cached = s1.getDataCache().getIfPresent(globalAddress);
+        assertThat(cached).isInstanceOf(OffHeapLogData.class);
+        Map<String, Gauge> gauges = ServerContext.getMetrics().getGauges();
+        assertThat((Long) gauges.get("logunit.cache.bytes-used").getValue())
+                .isEqualTo((long) ((OffHeapLogData) cached).getWeight());
+
+        // A hit is decoded into a copy of the entry
+        sendMessage(CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(globalAddress)));
+        LogData read = getLastPayloadMessageAs(ReadResponse.class).getAddresses()
+                .get(globalAddress);
+        assertThat((byte[]) read.getPayload(null)).isEqualTo("0".getBytes());
+        assertThat(read.getGlobalAddress()).isEqualTo(globalAddress);
+        assertThat((Double) gauges.get("logunit.cache.hit-rate").getValue()).isPositive();
+
+        // Flushing the cache returns the memory of the entry
+        sendMessage(CorfuMsgType.FLUSH_CACHE.msg());
+        assertThat((Long) gauges.get("logunit.cache.bytes-used").getValue()).isZero();
+        s1.shutdown();
+    }
+
+    @Test
+    public void sequentialReadsArePrefetched() throws Exception {
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setMemory(false)
+                .build());
+
+        this.router.reset();
+        this.router.addServer(s1);
+
+        final long numEntries = 10L;
+        for (long address = 0; address < numEntries; address++) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(Long.toString(address).getBytes(), b);
+            WriteRequest m = WriteRequest.builder()
+                    .writeMode(WriteMode.NORMAL)
+                    .data(new LogData(DataType.DATA, b))
+                    .build();
+            m.setGlobalAddress(address);
+            m.setBackpointerMap(Collections.emptyMap());
+            sendMessage(CorfuMsgType.WRITE.payloadMsg(m));
+        }
+        sendMessage(CorfuMsgType.FLUSH_CACHE.msg());
+        final long hitsBefore = ServerContext.getMetrics()
+                .counter("logunit.read-ahead.hits").getCount();
+
+        // The second read follows the first one, so the rest of the log is prefetched
+        sendMessage(CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(Range.closed(0L, 1L))));
+        sendMessage(CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(Range.closed(2L, 3L))));
+        final long deadline = System.nanoTime() + PARAMETERS.TIMEOUT_NORMAL.toNanos();
+        while (s1.getDataCache().asMap().size() < numEntries && System.nanoTime() < deadline) {
+            Thread.sleep(PARAMETERS.TIMEOUT_VERY_SHORT.toMillis());
+        }
+        assertThat(s1.getDataCache().asMap()).hasSize((int) numEntries);
+
+        // The next reads hit the prefetched entries
+        sendMessage(CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(Range.closed(4L, 5L))));
+        assertThat(getLastPayloadMessageAs(ReadResponse.class).getAddresses()).hasSize(2);
+        assertThat(ServerContext.getMetrics().counter("logunit.read-ahead.hits").getCount())
+                .isEqualTo(hitsBefore + 2);
+        assertThat((Double) ServerContext.getMetrics().getGauges()
+                .get("logunit.read-ahead.hit-rate").getValue()).isPositive();
+        s1.shutdown();
+    }
+
+    @Test
+    public void streamAddressSpaceIsServedFromTheIndex() {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(serviceDir)
+                .setMemory(false)
+                .build());
+
+        this.router.reset();
+        this.router.addServer(s1);
+
+        final long numEntries = 6L;
+        for (long address = 0; address < numEntries; address++) {
+            rawWrite(address, Long.toString(address), address % 2 == 0 ? "a" : "b");
+        }
+        final UUID streamA = CorfuRuntime.getStreamID("a");
+
+        sendMessage(CorfuMsgType.STREAM_ADDRESS_SPACE_REQUEST.payloadMsg(
+                new StreamAddressSpaceRequest(streamA, 0L, numEntries)));
+        assertThat(getLastPayloadMessageAs(StreamAddressSpaceResponse.class).getAddresses())
+                .containsExactly(0L, 2L, 4L);
+
+        // Trimmed addresses are left out
+        sendMessage(CorfuMsgType.TRIM.payloadMsg(new TrimRequest(streamA, 2L)));
+        sendMessage(CorfuMsgType.STREAM_ADDRESS_SPACE_REQUEST.payloadMsg(
+                new StreamAddressSpaceRequest(streamA, 1L, numEntries)));
+        assertThat(getLastPayloadMessageAs(StreamAddressSpaceResponse.class).getAddresses())
+                .containsExactly(4L);
+        s1.shutdown();
+
+        // The index is rebuilt when the segment is opened
+        LogUnitServer s2 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(serviceDir)
+                .setMemory(false)
+                .build());
+        this.router.reset();
+        this.router.addServer(s2);
+
+        sendMessage(CorfuMsgType.STREAM_ADDRESS_SPACE_REQUEST.payloadMsg(
+                new StreamAddressSpaceRequest(streamA, 0L, numEntries)));
+        assertThat(getLastPayloadMessageAs(StreamAddressSpaceResponse.class).getAddresses())
+                .containsExactly(0L, 4L);
+        s2.shutdown();
+    }
+
+    @Test
+    public void streamAddressSpaceIsNotServedWithoutAnIndex() {
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setMemory(true)
+                .build());
+
+        this.router.reset();
+        this.router.addServer(s1);
+
+        rawWrite(0L, "0", "a");
+        sendMessage(CorfuMsgType.STREAM_ADDRESS_SPACE_REQUEST.payloadMsg(
+                new StreamAddressSpaceRequest(CorfuRuntime.getStreamID("a"), 0L, 1L)));
+        StreamAddressSpaceResponse response =
+                getLastPayloadMessageAs(StreamAddressSpaceResponse.class);
+        assertThat(response.isIndexed()).isFalse();
+        assertThat(response.getAddresses()).isEmpty();
+    }
+
+    @Test
+    public void filteredReadsOnlyReturnTheStreamsRequested() {
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setMemory(true)
+                .build());
+
+        this.router.reset();
+        this.router.addServer(s1);
+
+        final UUID streamA = CorfuRuntime.getStreamID("a");
+        final UUID streamB = CorfuRuntime.getStreamID("b");
+        rawWrite(0L, "0", "a");
+        rawWrite(1L, "1", "b");
+
+        // A transaction on both streams
+        MultiObjectSMREntry tx = new MultiObjectSMREntry();
+        tx.addTo(streamA, new SMREntry("put", new Object[]{"k", "a"}, Serializers.PRIMITIVE));
+        tx.addTo(streamB, new SMREntry("put", new Object[]{"k", "b"}, Serializers.PRIMITIVE));
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize(tx, b);
+        WriteRequest m = WriteRequest.builder()
+                .writeMode(WriteMode.NORMAL)
+                .data(new LogData(DataType.DATA, b))
+                .build();
+        m.setGlobalAddress(2L);
+        Map<UUID, Long> backpointers = new HashMap<>();
+        backpointers.put(streamA, Address.NO_BACKPOINTER);
+        backpointers.put(streamB, Address.NO_BACKPOINTER);
+        m.setBackpointerMap(backpointers);
+        sendMessage(CorfuMsgType.WRITE.payloadMsg(m));
+
+        sendMessage(CorfuMsgType.FILTERED_READ_REQUEST.payloadMsg(new FilteredReadRequest(
+                Range.closed(0L, 3L), Collections.singleton(streamA), true)));
+        Map<Long, LogData> entries = getLastPayloadMessageAs(ReadResponse.class).getAddresses();
+        assertThat(entries).hasSize(4);
+        assertThat(entries.get(0L).getType()).isEqualTo(DataType.DATA);
+        assertThat(entries.get(1L).isFiltered()).isTrue();
+        assertThat(entries.get(3L).isEmpty()).isTrue();
+
+        // Only the updates of the stream requested are left in the transaction
+        assertThat(entries.get(2L).getStreams()).containsExactlyInAnyOrder(streamA, streamB);
+        MultiObjectSMREntry filtered = (MultiObjectSMREntry) entries.get(2L).getPayload(null);
+        assertThat(filtered.getEntryMap()).containsOnlyKeys(streamA);
+        assertThat(filtered.getSMRUpdates(streamA).get(0).getSMRArguments())
+                .containsExactly("k", "a");
+        s1.shutdown();
+    }
+
+    @Test
+    public void zeroCopyReadResponsesMatchEncodedResponses() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(new ServerContextBuilder()
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setMemory(false)
+                .build(), false);
+        final long smallAddress = 0L;
+        final long largeAddress = 1L;
+        for (long address : new long[] {smallAddress, largeAddress}) {
+            ByteBuf b = Unpooled.buffer();
+            byte[] payload = new byte[address == largeAddress
+                    ? StreamLogFiles.MIN_REGION_SIZE * 2 : 1];
+            Serializers.CORFU.serialize(payload, b);
+            log.append(address, new LogData(DataType.DATA, b));
+        }
+
+        CorfuMsg request = new CorfuMsg(CorfuMsgType.READ_REQUEST);
+        request.setClientID(UUID.randomUUID());
+        request.setRequestID(1L);
+        request.setEpoch(2L);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new LengthFieldPrepender(4),
+                new NettyCorfuMessageEncoder(), new ChannelInboundHandlerAdapter());
+
+        // The response as the encoders write it
+        ReadResponse rr = new ReadResponse();
+        rr.put(smallAddress, log.read(smallAddress));
+        rr.put(largeAddress, log.read(largeAddress));
+        CorfuMsg response = CorfuMsgType.READ_RESPONSE.payloadMsg(rr);
+        response.copyBaseFields(request);
+        channel.writeOutbound(response);
+        byte[] encoded = readOutbound(channel);
+
+        // The same response, with the payload of the large entry written as a file region
+        Map<Long, LogData> entries = new HashMap<>();
+        entries.put(smallAddress, log.read(smallAddress));
+        Map<Long, LogDataRegion> regions = new HashMap<>();
+        regions.put(largeAddress, log.readRegion(largeAddress));
+        LogUnitServer.writeReadResponse(channel.pipeline().lastContext(), request,
+                Arrays.asList(smallAddress, largeAddress), entries, regions);
+        byte[] zeroCopy = readOutbound(channel);
+
+        assertThat(zeroCopy).isEqualTo(encoded);
+        assertThat(regions.get(largeAddress).refCnt()).isZero();
+        log.close();
+    }
+
+    private byte[] readOutbound(EmbeddedChannel channel) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        Object part;
+        while ((part = channel.readOutbound()) != null) {
+            if (part instanceof FileRegion) {
+                FileRegion region = (FileRegion) part;
+                while (region.transferred() < region.count()) {
+                    region.transferTo(target, region.transferred());
+                }
+            } else {
+                ((ByteBuf) part).readBytes(out, ((ByteBuf) part).readableBytes());
+            }
+            ReferenceCountUtil.release(part);
+        }
+        return out.toByteArray();
+    }
+}
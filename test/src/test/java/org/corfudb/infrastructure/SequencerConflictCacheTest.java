@@ -0,0 +1,140 @@
+package org.corfudb.infrastructure;
+
+import org.corfudb.AbstractCorfuTest;
+import org.corfudb.runtime.view.Address;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for the sequencer's primitive conflict cache and stream tail map.
+ */
+public class SequencerConflictCacheTest extends AbstractCorfuTest {
+
+    private static final UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+    private static final UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+
+    private static byte[] param(int i) {
+        return Integer.toString(i).getBytes();
+    }
+
+    @Test
+    public void keysAreDistinguishedByStreamAndParam() {
+        SequencerConflictCache cache = new SequencerConflictCache(PARAMETERS.NUM_ITERATIONS_LOW,
+                evicted -> { });
+        cache.put(streamA, param(0), 1L);
+        cache.put(streamB, param(0), 2L);
+        cache.put(streamA, param(1), 3L);
+
+        assertThat(cache.get(streamA, param(0))).isEqualTo(1L);
+        assertThat(cache.get(streamB, param(0))).isEqualTo(2L);
+        assertThat(cache.get(streamA, param(1))).isEqualTo(3L);
+        assertThat(cache.get(streamB, param(1))).isEqualTo(Address.NON_EXIST);
+
+        cache.put(streamA, param(0), 4L);
+        assertThat(cache.get(streamA, param(0))).isEqualTo(4L);
+        assertThat(cache.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void oldestEntriesAreEvictedWhenFull() {
+        final int capacity = PARAMETERS.NUM_ITERATIONS_LOW;
+        List<Long> evictions = new ArrayList<>();
+        SequencerConflictCache cache = new SequencerConflictCache(capacity, evictions::add);
+
+        for (int i = 0; i < capacity * 2; i++) {
+            cache.put(streamA, param(i), i);
+        }
+
+        assertThat(cache.size()).isEqualTo(capacity);
+        assertThat(evictions).hasSize(capacity);
+        assertThat(evictions.get(capacity - 1)).isEqualTo(capacity - 1L);
+        for (int i = 0; i < capacity; i++) {
+            assertThat(cache.get(streamA, param(i))).isEqualTo(Address.NON_EXIST);
+            assertThat(cache.get(streamA, param(i + capacity))).isEqualTo(i + capacity);
+        }
+    }
+
+    @Test
+    public void rewrittenKeysAreNotEvictedEarly() {
+        final int capacity = PARAMETERS.NUM_ITERATIONS_VERY_LOW;
+        List<Long> evictions = new ArrayList<>();
+        SequencerConflictCache cache = new SequencerConflictCache(capacity, evictions::add);
+
+        // Rewriting the same key fills the ring with dead entries only.
+        for (int i = 0; i < capacity * 2; i++) {
+            cache.put(streamA, param(0), i);
+        }
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(evictions).isEmpty();
+        assertThat(cache.get(streamA, param(0))).isEqualTo(capacity * 2 - 1L);
+    }
+
+    @Test
+    public void trimEvictsEntriesBelowTrimMark() {
+        final int numEntries = PARAMETERS.NUM_ITERATIONS_LOW;
+        final long trimMark = numEntries / 2;
+        List<Long> evictions = new ArrayList<>();
+        SequencerConflictCache cache = new SequencerConflictCache(numEntries, evictions::add);
+
+        for (int i = 0; i < numEntries; i++) {
+            cache.put(streamA, param(i), i);
+        }
+
+        assertThat(cache.trim(trimMark)).isEqualTo(trimMark);
+        assertThat(cache.size()).isEqualTo(numEntries - (int) trimMark);
+        assertThat(evictions).hasSize((int) trimMark);
+        assertThat(cache.get(streamA, param(0))).isEqualTo(Address.NON_EXIST);
+        assertThat(cache.get(streamA, param((int) trimMark))).isEqualTo(trimMark);
+    }
+
+    @Test
+    public void trimCanBeSplitIntoChunks() {
+        final int numEntries = PARAMETERS.NUM_ITERATIONS_LOW;
+        final int chunkSize = PARAMETERS.NUM_ITERATIONS_VERY_LOW;
+        final long trimMark = numEntries / 2;
+        SequencerConflictCache cache = new SequencerConflictCache(numEntries, evicted -> { });
+
+        for (int i = 0; i < numEntries; i++) {
+            cache.put(streamA, param(i), i);
+        }
+
+        long evicted = 0;
+        int chunks = 0;
+        while (cache.hasEntriesBelow(trimMark)) {
+            evicted += cache.trim(trimMark, chunkSize);
+            chunks++;
+        }
+
+        assertThat(evicted).isEqualTo(trimMark);
+        assertThat(chunks).isEqualTo((int) Math.ceil((double) trimMark / chunkSize));
+        assertThat(cache.trim(trimMark, chunkSize)).isZero();
+        assertThat(cache.size()).isEqualTo(numEntries - (int) trimMark);
+    }
+
+    @Test
+    public void streamTailMapGrowsAndClears() {
+        StreamTailMap map = new StreamTailMap();
+        final int numStreams = PARAMETERS.NUM_ITERATIONS_MODERATE;
+
+        for (int i = 0; i < numStreams; i++) {
+            UUID stream = UUID.nameUUIDFromBytes(param(i));
+            assertThat(map.put(stream, i)).isEqualTo(Address.NON_EXIST);
+        }
+        for (int i = 0; i < numStreams; i++) {
+            UUID stream = UUID.nameUUIDFromBytes(param(i));
+            assertThat(map.put(stream, i + numStreams)).isEqualTo(i);
+            assertThat(map.get(stream)).isEqualTo(i + numStreams);
+        }
+        assertThat(map.size()).isEqualTo(numStreams);
+        assertThat(map.toMap()).hasSize(numStreams);
+
+        map.clear();
+        assertThat(map.size()).isZero();
+        assertThat(map.get(UUID.nameUUIDFromBytes(param(0)))).isEqualTo(Address.NON_EXIST);
+    }
+}
@@ -1,13 +1,23 @@
 package org.corfudb.infrastructure;
 
+import io.netty.channel.ChannelHandlerContext;
+import lombok.Getter;
+import lombok.Setter;
 import org.corfudb.protocols.wireprotocol.*;
+import org.corfudb.runtime.view.Address;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -165,6 +175,32 @@ public class SequencerServerTest extends AbstractServerTest {
         }
     }
 
+    @Test
+    public void multiStreamQueryReturnsEachTail() {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+        UUID streamC = UUID.nameUUIDFromBytes("streamC".getBytes());
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamA))));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamB))));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.emptySet())));
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(0L, new HashSet<>(Arrays.asList(streamA, streamB, streamC)))));
+        TokenResponse response = getLastPayloadMessageAs(TokenResponse.class);
+
+        // The token is the maximum of the stream tails, not the global tail.
+        assertThat(response.getTokenValue()).isEqualTo(1L);
+        assertThat(response.getStreamTails())
+                .hasSize(3)
+                .containsEntry(streamA, 0L)
+                .containsEntry(streamB, 1L)
+                .containsEntry(streamC, Address.NON_EXIST);
+    }
+
     @Test
     public void SequencerWillResetTails() throws Exception {
         UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
@@ -219,4 +255,245 @@ public class SequencerServerTest extends AbstractServerTest {
                 new TokenRequest(0L, Collections.singleton(streamC))));
         assertThat(getLastPayloadMessageAs(TokenResponse.class).getToken().getTokenValue()).isEqualTo(newTailC);
     }
+
+    @Test
+    public void batchedRequestsAreServedInOrder() {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_BATCH_REQ,
+                new TokenBatchRequest(Arrays.asList(
+                        new TokenRequest(1L, Collections.emptySet()),
+                        new TokenRequest(1L, Collections.singleton(streamA)),
+                        new TokenRequest(1L, Collections.singleton(streamA)),
+                        new TokenRequest(0L, Collections.singleton(streamA))))));
+
+        List<TokenResponse> responses = getLastPayloadMessageAs(TokenBatchResponse.class)
+                .getResponses();
+        assertThat(responses).hasSize(4);
+        assertThat(responses.get(0).getTokenValue()).isEqualTo(0L);
+        assertThat(responses.get(1).getTokenValue()).isEqualTo(1L);
+        assertThat(responses.get(1).getBackpointerMap()).containsEntry(streamA, Address.NON_EXIST);
+        assertThat(responses.get(2).getTokenValue()).isEqualTo(2L);
+        assertThat(responses.get(2).getBackpointerMap()).containsEntry(streamA, 1L);
+        assertThat(responses.get(3).getTokenValue()).isEqualTo(2L);
+    }
+
+    /**
+     * A router which only collects responses, so that handlers can be invoked
+     * directly from many threads.
+     */
+    static class CollectingServerRouter implements IServerRouter {
+        @Getter
+        final Queue<CorfuMsg> responses = new ConcurrentLinkedQueue<>();
+
+        @Getter
+        @Setter
+        long serverEpoch = 0L;
+
+        @Override
+        public void sendResponse(ChannelHandlerContext ctx, CorfuMsg inMsg, CorfuMsg outMsg) {
+            responses.add(outMsg);
+        }
+
+        @Override
+        public void addServer(AbstractServer server) {
+            // Handlers are invoked directly.
+        }
+    }
+
+    private SequencerServer getLockFreeServer() {
+        return getReadyServer(true);
+    }
+
+    private SequencerServer getReadyServer(boolean lockFree) {
+        SequencerServer readyServer = new SequencerServer(new ServerContextBuilder()
+                .setSequencerLockFree(lockFree)
+                .build());
+        readyServer.setReadyStateEpoch(0L);
+        return readyServer;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void lockFreeAllocationsKeepBackpointersOrdered() throws Exception {
+        final SequencerServer lockFreeServer = getLockFreeServer();
+        final CollectingServerRouter r = new CollectingServerRouter();
+        final UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        final int numRequests = PARAMETERS.NUM_ITERATIONS_LOW;
+
+        scheduleConcurrently(PARAMETERS.CONCURRENCY_SOME, t -> {
+            for (int i = 0; i < numRequests; i++) {
+                lockFreeServer.tokenRequest(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                        new TokenRequest(1L, Collections.singleton(streamA))), null, r);
+            }
+        });
+        executeScheduled(PARAMETERS.CONCURRENCY_SOME, PARAMETERS.TIMEOUT_NORMAL);
+
+        Set<Long> tokens = new HashSet<>();
+        Set<Long> backpointers = new HashSet<>();
+        for (CorfuMsg m : r.getResponses()) {
+            TokenResponse tr = ((CorfuPayloadMsg<TokenResponse>) m).getPayload();
+            tokens.add(tr.getTokenValue());
+            backpointers.add(tr.getBackpointerMap().get(streamA));
+        }
+
+        // Every token is unique, and every token except the last one is the
+        // backpointer of exactly one other token.
+        final int total = numRequests * PARAMETERS.CONCURRENCY_SOME;
+        assertThat(tokens).hasSize(total);
+        assertThat(backpointers).hasSize(total);
+        assertThat(backpointers).contains(Address.NON_EXIST);
+        backpointers.remove(Address.NON_EXIST);
+        tokens.remove((long) total - 1);
+        assertThat(backpointers).isEqualTo(tokens);
+    }
+
+    /**
+     * Measures token throughput of the lock-free sequencer against the default one, which
+     * serializes every request, as handler threads are added, for raw tokens, single stream
+     * allocations on disjoint streams and queries.
+     */
+    @Test
+    public void lockFreeTokenThroughput() throws Exception {
+        final int numRequests = PARAMETERS.NUM_ITERATIONS_LARGE;
+        final int[] threadCounts = {PARAMETERS.CONCURRENCY_ONE, PARAMETERS.CONCURRENCY_TWO,
+                PARAMETERS.CONCURRENCY_SOME, Runtime.getRuntime().availableProcessors()};
+
+        for (int numThreads : threadCounts) {
+            for (boolean lockFree : new boolean[] {false, true}) {
+                measureTokenThroughput(getReadyServer(lockFree),
+                        lockFree ? "lock-free" : "serialized", numThreads, numRequests);
+            }
+        }
+    }
+
+    private void measureTokenThroughput(SequencerServer tokenServer, String name,
+                                        int numThreads, int numRequests) throws Exception {
+        final CollectingServerRouter r = new CollectingServerRouter();
+
+        scheduleConcurrently(numThreads, t -> {
+            UUID stream = UUID.nameUUIDFromBytes(("stream" + t).getBytes());
+            for (int i = 0; i < numRequests; i++) {
+                final TokenRequest req;
+                switch (i % 3) {
+                    case 0:
+                        req = new TokenRequest(1L, Collections.emptySet());
+                        break;
+                    case 1:
+                        req = new TokenRequest(1L, Collections.singleton(stream));
+                        break;
+                    default:
+                        req = new TokenRequest(0L, Collections.singleton(stream));
+                        break;
+                }
+                tokenServer.tokenRequest(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ, req),
+                        null, r);
+            }
+        });
+
+        long startTime = System.currentTimeMillis();
+        executeScheduled(numThreads, PARAMETERS.TIMEOUT_LONG);
+        calculateRequestsPerSecond("TPS-" + name + "(" + numThreads + ")",
+                numRequests * numThreads, startTime);
+
+        assertThat(r.getResponses()).hasSize(numRequests * numThreads);
+    }
+
+    private SequencerServer getPersistentServer() {
+        return new SequencerServer(new ServerContextBuilder()
+                .setMemory(false)
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .build());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T lastResponse(CollectingServerRouter r, Class<T> type) {
+        CorfuMsg last = null;
+        for (CorfuMsg m : r.getResponses()) {
+            last = m;
+        }
+        return type.cast(((CorfuPayloadMsg<T>) last).getPayload());
+    }
+
+    private static TokenRequest txRequest(UUID stream, long snapshot, byte[] readKey,
+                                          byte[] writeKey) {
+        return new TokenRequest(1L, Collections.singleton(stream),
+                new TxResolutionInfo(UUID.randomUUID(), snapshot,
+                        Collections.singletonMap(stream, Collections.singleton(readKey)),
+                        Collections.singletonMap(stream, Collections.singleton(writeKey))));
+    }
+
+    /**
+     * Populates a persistent sequencer with a stream allocation and a transaction
+     * writing conflict key "k" at address 1, and persists its snapshot.
+     */
+    private void writeSnapshotWithConflictKey(UUID streamA) {
+        final SequencerServer primary = getPersistentServer();
+        final CollectingServerRouter r = new CollectingServerRouter();
+        primary.setReadyStateEpoch(0L);
+
+        primary.tokenRequest(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamA))), null, r);
+        primary.tokenRequest(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamA, 0L, "k".getBytes(), "k".getBytes())), null, r);
+        assertThat(lastResponse(r, TokenResponse.class).getTokenValue()).isEqualTo(1L);
+
+        primary.writeSnapshot();
+    }
+
+    @Test
+    public void snapshotRestoresConflictCacheAtSameTail() {
+        final UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        writeSnapshotWithConflictKey(streamA);
+
+        final SequencerServer backup = getPersistentServer();
+        final CollectingServerRouter r = new CollectingServerRouter();
+        backup.snapshotRequest(new CorfuMsg(CorfuMsgType.SEQUENCER_SNAPSHOT_REQ), null, r);
+        SequencerTailsRecoveryMsg snapshot = lastResponse(r, SequencerTailsRecoveryMsg.class);
+        assertThat(snapshot.getGlobalTail()).isEqualTo(2L);
+        assertThat(snapshot.getStreamTails()).containsEntry(streamA, 1L);
+
+        backup.resetServer(new CorfuPayloadMsg<>(CorfuMsgType.BOOTSTRAP_SEQUENCER,
+                new SequencerTailsRecoveryMsg(2L, snapshot.getStreamTails(), 1L)), null, r);
+
+        // The restored cache still knows the conflict key written at address 1...
+        backup.tokenRequest(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamA, 0L, "k".getBytes(), "k".getBytes())), null, r);
+        assertThat(lastResponse(r, TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.TX_ABORT_CONFLICT);
+
+        // ...so transactions on other keys are not aborted by the wildcard.
+        backup.tokenRequest(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamA, 0L, "j".getBytes(), "j".getBytes())), null, r);
+        assertThat(lastResponse(r, TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.NORMAL);
+        assertThat(lastResponse(r, TokenResponse.class).getTokenValue()).isEqualTo(2L);
+    }
+
+    @Test
+    public void snapshotIsNotRestoredBehindTail() {
+        final UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        writeSnapshotWithConflictKey(streamA);
+
+        // Something was written after the snapshot, its conflict keys are unknown.
+        final SequencerServer backup = getPersistentServer();
+        final CollectingServerRouter r = new CollectingServerRouter();
+        backup.resetServer(new CorfuPayloadMsg<>(CorfuMsgType.BOOTSTRAP_SEQUENCER,
+                new SequencerTailsRecoveryMsg(3L, Collections.singletonMap(streamA, 2L), 1L)),
+                null, r);
+
+        backup.tokenRequest(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                txRequest(streamA, 0L, "j".getBytes(), "j".getBytes())), null, r);
+        assertThat(lastResponse(r, TokenResponse.class).getRespType())
+                .isEqualTo(TokenType.TX_ABORT_SEQ_OVERFLOW);
+    }
+
+    @Test
+    public void noSnapshotInMemory() {
+        final CollectingServerRouter r = new CollectingServerRouter();
+        server.writeSnapshot();
+        server.snapshotRequest(new CorfuMsg(CorfuMsgType.SEQUENCER_SNAPSHOT_REQ), null, r);
+        assertThat(lastResponse(r, SequencerTailsRecoveryMsg.class).getGlobalTail())
+                .isEqualTo(Address.NON_ADDRESS);
+    }
 }
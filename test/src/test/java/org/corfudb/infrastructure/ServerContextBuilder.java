@@ -20,6 +20,17 @@ public class ServerContextBuilder {
     boolean memory = true;
     String logPath = null;
     boolean noVerify = false;
+    boolean groupCommit = false;
+    String mmapSegments = "0";
+    boolean zeroCopyReads = false;
+    String logCompression = "none";
+    String compressionThreshold = "1024";
+    String compactionRate = "67108864";
+    String dataDirs = null;
+    String segmentPlacement = "round-robin";
+    String syncPolicy = "force";
+    String syncInterval = "1000";
+    String maxOpenSegments = "256";
 
     boolean tlsEnabled = false;
     boolean tlsMutualAuthEnabled = false;
@@ -34,9 +45,17 @@ public class ServerContextBuilder {
     String implementation = "local";
 
     String cacheSizeHeapRatio = "0.5";
+    boolean cacheOffHeap = false;
+    String cacheOffHeapSize = "1073741824";
+    String readAhead = "64";
+    String readAheadBudget = "67108864";
+    String memoryLimit = "0";
+    String spillDir = null;
     String address = "test";
     int port = 9000;
     String seqCache = "1000";
+    boolean sequencerLockFree = false;
+    String sequencerSnapshotInterval = "0";
     String managementBootstrapEndpoint = null;
     IServerRouter serverRouter;
     String numThreads = "0";
@@ -58,17 +77,40 @@ public class ServerContextBuilder {
                 .put("--memory", memory)
                 .put("--Threads", numThreads)
                 .put("--HandshakeTimeout", handshakeTimeout)
-                .put("--sequencer-cache-size", seqCache);
+                .put("--sequencer-cache-size", seqCache)
+                .put("--sequencer-lock-free", sequencerLockFree)
+                .put("--sequencer-snapshot-interval", sequencerSnapshotInterval);
         if (logPath != null) {
          builder.put("--log-path", logPath);
         }
+        if (dataDirs != null) {
+            builder.put("--data-dirs", dataDirs);
+        }
+        if (spillDir != null) {
+            builder.put("--spill-dir", spillDir);
+        }
         if (managementBootstrapEndpoint != null) {
             builder.put("--management-server", managementBootstrapEndpoint);
         }
          builder
                  .put("--no-verify", noVerify)
+                 .put("--group-commit", groupCommit)
+                 .put("--mmap-segments", mmapSegments)
+                 .put("--zero-copy-reads", zeroCopyReads)
+                 .put("--log-compression", logCompression)
+                 .put("--compression-threshold", compressionThreshold)
+                 .put("--compaction-rate", compactionRate)
+                 .put("--segment-placement", segmentPlacement)
+                 .put("--sync-policy", syncPolicy)
+                 .put("--sync-interval", syncInterval)
+                 .put("--max-open-segments", maxOpenSegments)
                  .put("--address", address)
                  .put("--cache-heap-ratio", cacheSizeHeapRatio)
+                 .put("--cache-off-heap", cacheOffHeap)
+                 .put("--cache-off-heap-size", cacheOffHeapSize)
+                 .put("--read-ahead", readAhead)
+                 .put("--read-ahead-budget", readAheadBudget)
+                 .put("--memory-limit", memoryLimit)
                  .put("--enable-tls", tlsEnabled)
                  .put("--enable-tls-mutual-auth", tlsMutualAuthEnabled)
                  .put("--tls-protocols", tlsProtocols)
@@ -0,0 +1,222 @@
+package org.corfudb.infrastructure.log;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.corfudb.AbstractCorfuTest;
+import org.corfudb.infrastructure.ServerContext;
+import org.corfudb.infrastructure.ServerContextBuilder;
+import org.corfudb.protocols.wireprotocol.DataType;
+import org.corfudb.protocols.wireprotocol.IMetadata;
+import org.corfudb.protocols.wireprotocol.LogData;
+import org.corfudb.runtime.exceptions.DataOutrankedException;
+import org.corfudb.runtime.exceptions.OverwriteException;
+import org.corfudb.util.serializer.Serializers;
+import org.junit.Test;
+
+public class SpillingStreamLogTest extends AbstractCorfuTest {
+
+    private String getDirPath() {
+        return PARAMETERS.TEST_TEMP_DIR;
+    }
+
+    private long getGauge(String name) {
+        return (Long) ServerContext.getMetrics().getGauges()
+                .get("logunit.memory-log." + name).getValue();
+    }
+
+    private LogData getEntry(long address, DataType type, String payload) {
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize(payload.getBytes(), b);
+        LogData entry = new LogData(type, b);
+        entry.setGlobalAddress(address);
+        return entry;
+    }
+
+    @Test
+    public void entriesAreReadBackOnceSpilled() {
+        // One slab fits in memory, the other chunks are spilled
+        SpillingStreamLog log = new SpillingStreamLog(SpillingStreamLog.SLAB_SIZE, getDirPath());
+        final int numChunks = 3;
+        final long numEntries = (long) SpillingStreamLog.RECORDS_PER_CHUNK * numChunks;
+        List<LogData> entries = new ArrayList<>();
+        for (long x = 0; x < numEntries; x++) {
+            entries.add(getEntry(x, DataType.DATA, "Payload" + x));
+        }
+        log.append(entries);
+
+        assertThat(getGauge("bytes-in-memory")).isLessThanOrEqualTo(log.getMemoryLimit());
+        assertThat(getGauge("bytes-spilled")).isPositive();
+        assertThat(log.getGlobalTail()).isEqualTo(numEntries - 1);
+        for (long x = 0; x < numEntries; x++) {
+            LogData entry = log.read(x);
+            assertThat(entry.getGlobalAddress()).isEqualTo(x);
+            assertThat(entry.getPayload(null)).isEqualTo(("Payload" + x).getBytes());
+        }
+        assertThat(log.read(numEntries)).isNull();
+
+        // Appends to a spilled chunk go to its file
+        log.append(numEntries, getEntry(numEntries, DataType.DATA, "Tail"));
+        assertThat(log.read(numEntries).getPayload(null)).isEqualTo("Tail".getBytes());
+        log.close();
+        assertThat(getGauge("bytes-in-memory")).isZero();
+        assertThat(getGauge("bytes-spilled")).isZero();
+    }
+
+    @Test
+    public void rankedOverwritesOfSpilledEntries() {
+        // Every chunk is spilled as soon as it is written
+        SpillingStreamLog log = new SpillingStreamLog(0, getDirPath());
+        final long address = 0;
+        LogData proposal = getEntry(address, DataType.RANK_ONLY, "v-1");
+        proposal.setRank(new IMetadata.DataRank(1));
+        log.append(address, proposal);
+        assertThat(new String(log.read(address).getData())).contains("v-1");
+
+        LogData higher = getEntry(address, DataType.DATA, "v-2");
+        higher.setRank(new IMetadata.DataRank(2));
+        log.append(address, higher);
+        assertThat(new String(log.read(address).getData())).contains("v-2");
+
+        LogData lower = getEntry(address, DataType.DATA, "v-3");
+        lower.setRank(new IMetadata.DataRank(1));
+        assertThatThrownBy(() -> log.append(address, lower))
+                .isInstanceOf(DataOutrankedException.class);
+        assertThatThrownBy(() -> log.append(address, getEntry(address, DataType.DATA, "v-4")))
+                .isInstanceOf(OverwriteException.class);
+        assertThat(new String(log.read(address).getData())).contains("v-2");
+        log.close();
+    }
+
+    @Test
+    public void spillFilesAreClosedBeyondABound() {
+        SpillingStreamLog log = new SpillingStreamLog(0, getDirPath());
+        final int numChunks = SpillingStreamLog.MAX_OPEN_SPILL_FILES * 2;
+        for (long chunk = 0; chunk < numChunks; chunk++) {
+            final long address = chunk * SpillingStreamLog.RECORDS_PER_CHUNK;
+            log.append(address, getEntry(address, DataType.DATA, "Payload" + chunk));
+        }
+        assertThat(log.getOpenSpillFiles()).isEqualTo(SpillingStreamLog.MAX_OPEN_SPILL_FILES);
+
+        // The closed files are reopened on their next access
+        for (long chunk = 0; chunk < numChunks; chunk++) {
+            final long address = chunk * SpillingStreamLog.RECORDS_PER_CHUNK;
+            assertThat(log.read(address).getPayload(null))
+                    .isEqualTo(("Payload" + chunk).getBytes());
+        }
+        assertThat(log.getOpenSpillFiles()).isEqualTo(SpillingStreamLog.MAX_OPEN_SPILL_FILES);
+        log.close();
+    }
+
+    @Test
+    public void hotSpilledChunksAreReloaded() {
+        // A slab of each chunk does not fit in memory
+        SpillingStreamLog log = new SpillingStreamLog(SpillingStreamLog.SLAB_SIZE, getDirPath());
+        final long hot = 0L;
+        final long cold = SpillingStreamLog.RECORDS_PER_CHUNK;
+        log.append(hot, getEntry(hot, DataType.DATA, "Hot"));
+        log.append(cold, getEntry(cold, DataType.DATA, "Cold"));
+        assertThat(getGauge("bytes-spilled")).isPositive();
+
+        for (int i = 0; i < SpillingStreamLog.RELOAD_READS; i++) {
+            assertThat(log.read(hot).getPayload(null)).isEqualTo("Hot".getBytes());
+        }
+
+        // The hot chunk is back in memory, so its appends are not spilled, while the
+        // cold chunk was spilled in its place
+        final long spilledBefore = getGauge("bytes-spilled");
+        log.append(hot + 1, getEntry(hot + 1, DataType.DATA, "Hot"));
+        assertThat(getGauge("bytes-spilled")).isEqualTo(spilledBefore);
+        log.append(cold + 1, getEntry(cold + 1, DataType.DATA, "Cold"));
+        assertThat(getGauge("bytes-spilled")).isGreaterThan(spilledBefore);
+        assertThat(log.read(cold).getPayload(null)).isEqualTo("Cold".getBytes());
+        log.close();
+    }
+
+    @Test
+    public void trimmedChunksAreDropped() {
+        SpillingStreamLog log = new SpillingStreamLog(0, getDirPath());
+        final long numEntries = SpillingStreamLog.RECORDS_PER_CHUNK * 2L;
+        for (long x = 0; x < numEntries; x++) {
+            log.append(x, getEntry(x, DataType.DATA, "Payload"));
+        }
+
+        final long sparseTrim = numEntries - 1;
+        log.trim(sparseTrim);
+        assertThat(log.read(sparseTrim).isTrimmed()).isTrue();
+
+        // The first chunk is below the trim mark
+        final long trimMark = SpillingStreamLog.RECORDS_PER_CHUNK;
+        log.prefixTrim(trimMark - 1);
+        assertThat(log.getTrimMark()).isEqualTo(trimMark);
+        assertThatThrownBy(() -> log.append(0L, getEntry(0L, DataType.DATA, "Payload")))
+                .isInstanceOf(OverwriteException.class);
+        final long spilledBefore = getGauge("bytes-spilled");
+        log.compact();
+
+        assertThat(getGauge("bytes-spilled")).isLessThan(spilledBefore);
+        assertThat(log.read(0L).isTrimmed()).isTrue();
+        assertThat(log.read(sparseTrim).isTrimmed()).isTrue();
+        assertThat(log.read(trimMark).getPayload(null)).isEqualTo("Payload".getBytes());
+        log.close();
+    }
+
+    /**
+     * Measures append and read throughput of a spilling log, with a memory limit of a tenth
+     * of the bytes written, but at least a slab, against a log of files. Each thread writes
+     * a chunk of its own, so that most chunks are spilled.
+     */
+    @Test
+    public void throughputAgainstStreamLogFiles() throws Exception {
+        final int numRequests = SpillingStreamLog.RECORDS_PER_CHUNK;
+        final int numThreads = PARAMETERS.CONCURRENCY_SOME;
+        final int payloadSize = 256;
+        final String payload = new String(new char[payloadSize]).replace('\0', 'x');
+        final long recordSize = getEntry(0L, DataType.DATA, payload).getData().length;
+        final long bytesWritten = recordSize * numRequests * numThreads;
+
+        StreamLog files = new StreamLogFiles(new ServerContextBuilder()
+                .setLogPath(getDirPath() + File.separator + "files")
+                .setMemory(false)
+                .build(), false);
+        StreamLog spilling = new SpillingStreamLog(
+                Math.max(SpillingStreamLog.SLAB_SIZE, bytesWritten / 10), getDirPath());
+
+        for (StreamLog log : new StreamLog[] {files, spilling}) {
+            final String name = log.getClass().getSimpleName();
+
+            scheduleConcurrently(numThreads, t -> {
+                for (int i = 0; i < numRequests; i++) {
+                    final long address = (long) numRequests * t + i;
+                    log.append(address, getEntry(address, DataType.DATA, payload));
+                }
+            });
+            long startTime = System.currentTimeMillis();
+            executeScheduled(numThreads, PARAMETERS.TIMEOUT_LONG);
+            calculateRequestsPerSecond("Appends(" + name + ")", numRequests * numThreads,
+                    startTime);
+            if (log == spilling) {
+                assertThat(getGauge("bytes-spilled")).isPositive();
+            }
+
+            scheduleConcurrently(numThreads, t -> {
+                for (int i = 0; i < numRequests; i++) {
+                    assertThat(log.read((long) numRequests * t + i)).isNotNull();
+                }
+            });
+            startTime = System.currentTimeMillis();
+            executeScheduled(numThreads, PARAMETERS.TIMEOUT_LONG);
+            calculateRequestsPerSecond("Reads(" + name + ")", numRequests * numThreads,
+                    startTime);
+
+            log.close();
+        }
+    }
+}
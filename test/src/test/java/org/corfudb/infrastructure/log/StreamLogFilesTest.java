@@ -7,14 +7,20 @@ import static org.corfudb.infrastructure.log.StreamLogFiles.RECORDS_PER_LOG_FILE
 
 import io.netty.buffer.ByteBuf;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import io.netty.buffer.Unpooled;
 import org.apache.commons.io.FileUtils;
@@ -28,6 +34,7 @@ import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.runtime.exceptions.DataCorruptionException;
 import org.corfudb.runtime.exceptions.OverwriteException;
+import org.corfudb.runtime.view.Address;
 import org.corfudb.util.serializer.Serializers;
 import org.junit.Test;
 
@@ -406,7 +413,7 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
 
         // Verify that the unwritten address trim is not persisted
         SegmentHandle sh = log.getSegmentHandleForAddress(address);
-        assertThat(sh.getPendingTrims().size()).isEqualTo(0);
+        assertThat(sh.getPendingTrimCount()).isEqualTo(0);
 
         // Write to the same address
         ByteBuf b = Unpooled.buffer();
@@ -421,7 +428,7 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         // Trim the address
         log.trim(address);
         sh = log.getSegmentHandleForAddress(address);
-        assertThat(sh.getPendingTrims().contains(address)).isTrue();
+        assertThat(sh.isPendingTrim(address)).isTrue();
 
         // Write to a trimmed address
         assertThatThrownBy(() -> log.append(address, new LogData(DataType.DATA, b)))
@@ -458,8 +465,8 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         SegmentHandle sh = log.getSegmentHandleForAddress(logChunk);
 
         assertThat(logChunk).isGreaterThan(StreamLogFiles.TRIM_THRESHOLD);
-        assertThat(sh.getPendingTrims().size()).isEqualTo(logChunk);
-        assertThat(sh.getTrimmedAddresses().size()).isEqualTo(0);
+        assertThat(sh.getPendingTrimCount()).isEqualTo(logChunk);
+        assertThat(sh.getTrimmedAddressCount()).isEqualTo(0);
 
         // Fill the rest of the log segment and compact
         for (long x = logChunk; x < logChunk * 2; x++) {
@@ -477,11 +484,11 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
 
         // Reload the segment handler and check that the first half of the segment has been trimmed
         sh = log.getSegmentHandleForAddress(logChunk);
-        assertThat(sh.getTrimmedAddresses().size()).isEqualTo(logChunk);
-        assertThat(sh.getKnownAddresses().size()).isEqualTo(logChunk);
+        assertThat(sh.getTrimmedAddressCount()).isEqualTo(logChunk);
+        assertThat(sh.getKnownAddressCount()).isEqualTo(logChunk);
 
         for (long x = logChunk; x < logChunk * 2; x++) {
-            assertThat(sh.getKnownAddresses().get(x)).isNotNull();
+            assertThat(sh.getAddressMetaData(x)).isNotNull();
         }
 
         // Verify that the trimmed addresses cannot be written to or read from after compaction
@@ -802,4 +809,461 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         log = new StreamLogFiles(getContext(), false);
         assertThat(log.read(address0).getPayload(null)).isEqualTo(streamEntry);
     }
+
+    @Test
+    public void readsFromMappedSealedSegments() {
+        final int numSegments = 3;
+        ServerContext context = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setMmapSegments("1")
+                .build();
+        StreamLogFiles log = new StreamLogFiles(context, false);
+
+        // Fill two segments and write the first address of the third, which seals the others
+        final long tailAddress = RECORDS_PER_LOG_FILE * (numSegments - 1);
+        for (long x = 0; x <= tailAddress; x++) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(Long.toString(x).getBytes(), b);
+            log.append(x, new LogData(DataType.DATA, b));
+        }
+
+        // Reads from the tail segment go through the channel
+        assertThat(log.read(tailAddress).getPayload(null))
+                .isEqualTo(Long.toString(tailAddress).getBytes());
+        assertThat(log.getMappedSegmentCount()).isEqualTo(0);
+
+        // Reads from sealed segments are decoded from their mappings, at most one at a time
+        for (long x = 0; x < tailAddress; x++) {
+            assertThat(log.read(x).getPayload(null)).isEqualTo(Long.toString(x).getBytes());
+        }
+        assertThat(log.getMappedSegmentCount()).isEqualTo(1);
+        log.close();
+    }
+
+    @Test
+    public void fullSegmentsAreReopenedFromTheirIndex() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+
+        // Fill the first segment, its index is written by the next sync
+        for (long x = 0; x < RECORDS_PER_LOG_FILE; x++) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(Long.toString(x).getBytes(), b);
+            log.append(x, new LogData(DataType.DATA, b));
+        }
+        log.sync(true);
+        log.close();
+
+        String segmentPath = log.logDir + File.separator + "0.log";
+        File indexFile = new File(SegmentIndex.getIndexFilePath(segmentPath));
+        assertThat(indexFile).exists();
+
+        // The address space is loaded from the index
+        log = new StreamLogFiles(getContext(), false);
+        for (long x = 0; x < RECORDS_PER_LOG_FILE; x++) {
+            assertThat(log.read(x).getPayload(null)).isEqualTo(Long.toString(x).getBytes());
+        }
+        log.close();
+
+        // A corrupted index is ignored, and the segment is scanned instead
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+            final long position = file.length() / 2;
+            file.seek(position);
+            final int b = file.read();
+            file.seek(position);
+            file.write(~b);
+        }
+        log = new StreamLogFiles(getContext(), false);
+        for (long x = 0; x < RECORDS_PER_LOG_FILE; x++) {
+            assertThat(log.read(x).getPayload(null)).isEqualTo(Long.toString(x).getBytes());
+        }
+        log.close();
+    }
+
+    @Test
+    public void bulkReadsMatchSingleReads() {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+
+        // Write every other address of two segments, and trim one of them
+        final long numAddresses = RECORDS_PER_LOG_FILE * 2;
+        for (long x = 0; x < numAddresses; x += 2) {
+            writeToLog(log, x);
+        }
+        final long trimmedAddress = 2L;
+        log.trim(trimmedAddress);
+
+        List<Long> addresses = new ArrayList<>();
+        for (long x = 0; x < numAddresses; x++) {
+            addresses.add(x);
+        }
+        Map<Long, LogData> entries = log.readAll(addresses);
+
+        assertThat(entries).hasSize(RECORDS_PER_LOG_FILE);
+        assertThat(entries.get(trimmedAddress).isTrimmed()).isTrue();
+        for (long x = 0; x < numAddresses; x++) {
+            if (x % 2 == 1) {
+                assertThat(entries).doesNotContainKey(x);
+            } else if (x != trimmedAddress) {
+                assertThat(entries.get(x).getGlobalAddress()).isEqualTo(x);
+                assertThat(entries.get(x).getPayload(null))
+                        .isEqualTo(log.read(x).getPayload(null));
+            }
+        }
+    }
+
+    @Test
+    public void mixedReadAppendThroughput() throws Exception {
+        final int numRequests = PARAMETERS.NUM_ITERATIONS_LOW;
+        final int[] threadCounts = {PARAMETERS.CONCURRENCY_ONE, PARAMETERS.CONCURRENCY_TWO,
+                PARAMETERS.CONCURRENCY_SOME, Runtime.getRuntime().availableProcessors()};
+
+        for (int numThreads : threadCounts) {
+            StreamLogFiles log = new StreamLogFiles(new ServerContextBuilder()
+                    .setLogPath(getDirPath() + File.separator + numThreads)
+                    .setMemory(false)
+                    .build(), false);
+            for (long x = 0; x < numRequests; x++) {
+                writeToLog(log, x);
+            }
+
+            // Every thread alternates between reading written addresses and appending new ones
+            scheduleConcurrently(numThreads, t -> {
+                for (int i = 0; i < numRequests; i++) {
+                    if (i % 2 == 0) {
+                        assertThat(log.read((i + t) % numRequests)).isNotNull();
+                    } else {
+                        writeToLog(log, (long) numRequests * (t + 1) + i);
+                    }
+                }
+            });
+
+            long startTime = System.currentTimeMillis();
+            executeScheduled(numThreads, PARAMETERS.TIMEOUT_LONG);
+            calculateRequestsPerSecond("OPS(" + numThreads + ")", numRequests * numThreads,
+                    startTime);
+
+            log.sync(true);
+            log.close();
+        }
+    }
+
+    @Test
+    public void regionsCoverThePayloadOfLargeEntries() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+
+        final long smallAddress = 0L;
+        final long largeAddress = 1L;
+        writeToLog(log, smallAddress);
+        ByteBuf b = Unpooled.buffer();
+        byte[] payload = new byte[StreamLogFiles.MIN_REGION_SIZE * 2];
+        Arrays.fill(payload, (byte) 'x');
+        Serializers.CORFU.serialize(payload, b);
+        LogData largeEntry = new LogData(DataType.DATA, b);
+        largeEntry.setGlobalAddress(largeAddress);
+        log.append(largeAddress, largeEntry);
+
+        assertThat(log.readRegion(smallAddress)).isNull();
+        assertThat(log.readRegion(largeAddress + 1)).isNull();
+
+        LogData expected = log.read(largeAddress);
+        LogDataRegion region = log.readRegion(largeAddress);
+        try {
+            assertThat(region.count()).isEqualTo(expected.getData().length);
+            assertThat(region.getHeader().getData()).isEmpty();
+            assertThat(region.getHeader().getGlobalAddress()).isEqualTo(largeAddress);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            WritableByteChannel target = Channels.newChannel(out);
+            while (region.transferred() < region.count()) {
+                region.transferTo(target, region.transferred());
+            }
+            assertThat(out.toByteArray()).isEqualTo(expected.getData());
+        } finally {
+            region.release();
+        }
+
+        log.trim(largeAddress);
+        assertThat(log.readRegion(largeAddress)).isNull();
+    }
+
+    @Test
+    public void backpointersAreStoredAsRawStreamIds() {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+
+        final long address = RECORDS_PER_LOG_FILE + 1;
+        final long backpointer = 1L;
+        Map<UUID, Long> backpointers = new HashMap<>();
+        backpointers.put(UUID.randomUUID(), backpointer);
+        backpointers.put(UUID.randomUUID(), Address.NON_EXIST);
+
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize("Payload".getBytes(), b);
+        LogData entry = new LogData(DataType.DATA, b);
+        entry.setBackpointerMap(backpointers);
+
+        Types.LogEntry logEntry = log.getLogEntry(address, entry);
+        assertThat(logEntry.getStreamsCount()).isZero();
+        assertThat(logEntry.getBackpointersCount()).isZero();
+        assertThat(logEntry.getBackpointerStreams().size())
+                .isEqualTo(backpointers.size() * Long.BYTES * 2);
+
+        log.append(address, entry);
+        assertThat(log.read(address).getBackpointerMap()).isEqualTo(backpointers);
+
+        // And once reopened from disk
+        log.close();
+        log = new StreamLogFiles(getContext(), false);
+        assertThat(log.read(address).getBackpointerMap()).isEqualTo(backpointers);
+    }
+
+    @Test
+    public void compressedRecordsAreReadBack() {
+        final int payloadSize = StreamLogFiles.MIN_REGION_SIZE * 2;
+        byte[] compressible = new byte[payloadSize];
+        for (int i = 0; i < compressible.length; i++) {
+            compressible[i] = (byte) ('a' + i % ('z' - 'a'));
+        }
+        byte[] small = "Payload".getBytes();
+
+        for (Types.Codec type : new Types.Codec[] {Types.Codec.DEFLATE, Types.Codec.SNAPPY}) {
+            String path = getDirPath() + File.separator + type;
+            ServerContext context = new ServerContextBuilder()
+                    .setLogPath(path)
+                    .setMemory(false)
+                    .setLogCompression(type.name().toLowerCase())
+                    .build();
+            StreamLogFiles log = new StreamLogFiles(context, false);
+
+            final long compressedAddress = 0L;
+            final long smallAddress = 1L;
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(compressible, b);
+            LogData entry = new LogData(DataType.DATA, b);
+            Types.LogEntry logEntry = log.getLogEntry(compressedAddress, entry);
+            assertThat(logEntry.getCodec()).isEqualTo(type);
+            assertThat(logEntry.getData().size()).isLessThan(entry.getData().length);
+            log.append(compressedAddress, entry);
+
+            // Payloads below the threshold stay uncompressed
+            ByteBuf smallBuf = Unpooled.buffer();
+            Serializers.CORFU.serialize(small, smallBuf);
+            LogData smallEntry = new LogData(DataType.DATA, smallBuf);
+            assertThat(log.getLogEntry(smallAddress, smallEntry).getCodec())
+                    .isEqualTo(Types.Codec.NONE);
+            log.append(smallAddress, smallEntry);
+
+            // Compressed payloads must be decompressed, so they are never sent as regions
+            assertThat(log.readRegion(compressedAddress)).isNull();
+            log.close();
+
+            // Records are read back whichever codec the log unit now writes with
+            log = new StreamLogFiles(new ServerContextBuilder()
+                    .setLogPath(path)
+                    .setMemory(false)
+                    .build(), false);
+            assertThat(log.read(compressedAddress).getPayload(null)).isEqualTo(compressible);
+            assertThat(log.read(smallAddress).getPayload(null)).isEqualTo(small);
+            log.close();
+        }
+    }
+
+    @Test
+    public void compactionRunsConcurrentlyWithReadsAndAppends() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        final long holes = PARAMETERS.NUM_ITERATIONS_LOW;
+        final long trimmed = RECORDS_PER_LOG_FILE * 3 / 4;
+
+        // Leave holes at the end of the first segment, and seal it
+        for (long x = 0; x < RECORDS_PER_LOG_FILE - holes; x++) {
+            writeToLog(log, x);
+        }
+        writeToLog(log, RECORDS_PER_LOG_FILE);
+
+        for (long x = 0; x < trimmed; x++) {
+            log.trim(x);
+        }
+
+        SegmentHandle oldHandle = log.getSegmentHandleForAddress(0);
+        File file = new File(oldHandle.getFileName());
+        long sizeBeforeCompact = file.length();
+        long reclaimedBefore = ServerContext.getMetrics()
+                .counter("logunit.compaction.bytes-reclaimed").getCount();
+
+        // Fill the holes and read the live records while the segment is rewritten
+        scheduleConcurrently(t -> log.compact());
+        scheduleConcurrently(t -> {
+            for (long x = RECORDS_PER_LOG_FILE - holes; x < RECORDS_PER_LOG_FILE; x++) {
+                writeToLog(log, x);
+            }
+        });
+        scheduleConcurrently(PARAMETERS.CONCURRENCY_SOME, t -> {
+            for (long x = trimmed + t; x < RECORDS_PER_LOG_FILE - holes;
+                    x += PARAMETERS.CONCURRENCY_SOME) {
+                assertThat(log.read(x).getPayload(null)).isEqualTo("Payload".getBytes());
+            }
+        });
+        executeScheduled(PARAMETERS.CONCURRENCY_SOME + 2, PARAMETERS.TIMEOUT_LONG);
+
+        long sizeAfterCompact = file.length();
+        assertThat(sizeAfterCompact).isLessThan(sizeBeforeCompact);
+        assertThat(ServerContext.getMetrics().counter("logunit.compaction.bytes-reclaimed")
+                .getCount() - reclaimedBefore).isGreaterThan(0L);
+
+        // The replaced handle stays readable until it is released
+        assertThat(oldHandle.isRetired()).isTrue();
+        assertThat(oldHandle.getReadChannel().isOpen()).isTrue();
+        oldHandle.release();
+        assertThat(oldHandle.getReadChannel().isOpen()).isFalse();
+
+        for (long x = 0; x < RECORDS_PER_LOG_FILE; x++) {
+            if (x < trimmed) {
+                assertThat(log.read(x).isTrimmed()).isTrue();
+            } else {
+                assertThat(log.read(x).getPayload(null)).isEqualTo("Payload".getBytes());
+            }
+        }
+
+        // The compacted segment is reopened from its new index
+        log.close();
+        StreamLogFiles reopened = new StreamLogFiles(getContext(), false);
+        SegmentHandle sh = reopened.getSegmentHandleForAddress(0);
+        assertThat(sh.getTrimmedAddressCount()).isEqualTo((int) trimmed);
+        assertThat(sh.getKnownAddressCount()).isEqualTo((int) (RECORDS_PER_LOG_FILE - trimmed));
+        sh.release();
+        for (long x = trimmed; x < RECORDS_PER_LOG_FILE; x++) {
+            assertThat(reopened.read(x).getPayload(null)).isEqualTo("Payload".getBytes());
+        }
+    }
+
+    @Test
+    public void batchedTrimsArePersistedAsBitmaps() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        final long written = RECORDS_PER_LOG_FILE + PARAMETERS.NUM_ITERATIONS_LOW;
+        for (long x = 0; x < written; x++) {
+            writeToLog(log, x);
+        }
+
+        // Trim every other address of both segments, and an unwritten address
+        List<Long> addresses = new ArrayList<>();
+        for (long x = 0; x < written; x += 2) {
+            addresses.add(x);
+        }
+        addresses.add(written);
+        log.trim(addresses);
+        log.sync(true);
+
+        final long trimmed = addresses.size() - 1;
+        for (long x = 0; x < written; x++) {
+            assertThat(log.read(x).isTrimmed()).isEqualTo(x % 2 == 0);
+        }
+
+        // A bitmap takes a bit per address, rather than a record per trimmed address
+        SegmentHandle sh = log.getSegmentHandleForAddress(0);
+        File pending = new File(StreamLogFiles.getPendingTrimsFilePath(sh.getFileName()));
+        assertThat(pending.length()).isLessThan((long) RECORDS_PER_LOG_FILE);
+        sh.release();
+        log.close();
+
+        // Replace the bitmap of the first segment by trim entries of the previous format
+        ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        for (long x = 0; x < RECORDS_PER_LOG_FILE; x += 2) {
+            Types.TrimEntry.newBuilder()
+                    .setChecksum(StreamLogFiles.getChecksum(x))
+                    .setAddress(x)
+                    .build()
+                    .writeDelimitedTo(legacy);
+        }
+        FileUtils.writeByteArrayToFile(pending, legacy.toByteArray());
+
+        log = new StreamLogFiles(getContext(), false);
+        sh = log.getSegmentHandleForAddress(0);
+        assertThat(sh.getPendingTrimCount()).isEqualTo(RECORDS_PER_LOG_FILE / 2);
+        sh.release();
+        assertThat(pending.length()).isLessThan((long) legacy.size());
+
+        sh = log.getSegmentHandleForAddress(RECORDS_PER_LOG_FILE);
+        assertThat((long) sh.getPendingTrimCount()).isEqualTo(trimmed - RECORDS_PER_LOG_FILE / 2);
+        sh.release();
+        log.close();
+    }
+
+    @Test
+    public void segmentsAreStripedAcrossDataDirectories() throws Exception {
+        final int numSegments = 3;
+        final String disk1 = getDirPath() + File.separator + "disk1";
+        final String disk2 = getDirPath() + File.separator + "disk2";
+        ServerContext context = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setDataDirs(disk1 + "," + disk2)
+                .build();
+        StreamLogFiles log = new StreamLogFiles(context, false);
+        assertThat(log.getLogDirs()).containsExactly(log.logDir, disk1, disk2);
+
+        // Write the first address of each segment, and sync the segments of every disk
+        for (int segment = 0; segment < numSegments; segment++) {
+            writeToLog(log, (long) segment * RECORDS_PER_LOG_FILE);
+        }
+        assertThat(log.getChannelsToSync()).hasSize(numSegments);
+        log.sync(true);
+        assertThat(log.getChannelsToSync()).isEmpty();
+
+        for (int segment = 0; segment < numSegments; segment++) {
+            File file = new File(log.getLogDirs().get(segment), segment + ".log");
+            assertThat(file).exists();
+        }
+        log.close();
+
+        // The segments are found where they are, whatever the placement of new segments
+        context = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setDataDirs(disk1 + "," + disk2)
+                .setSegmentPlacement("free-space")
+                .build();
+        log = new StreamLogFiles(context, false);
+        for (int segment = 0; segment < numSegments; segment++) {
+            long address = (long) segment * RECORDS_PER_LOG_FILE;
+            assertThat(log.read(address).getPayload(null)).isEqualTo("Payload".getBytes());
+        }
+        log.close();
+    }
+
+    @Test
+    public void idleSealedSegmentsAreClosedAndReopenedFromTheirIndex() throws Exception {
+        final int maxOpenSegments = 2;
+        final int numSegments = 5;
+        StreamLogFiles log = new StreamLogFiles(new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setMaxOpenSegments(Integer.toString(maxOpenSegments))
+                .build(), false);
+
+        // Write an address of each segment, all but the last one are sealed
+        for (int segment = 0; segment < numSegments; segment++) {
+            writeToLog(log, (long) segment * RECORDS_PER_LOG_FILE);
+        }
+        log.sync(true);
+        assertThat(log.getSegmentHandles()).hasSize(maxOpenSegments);
+
+        // The segments which were closed were indexed, and are reopened on demand
+        for (int segment = 0; segment < numSegments - maxOpenSegments; segment++) {
+            String segmentPath = log.getLogDirs().get(0) + File.separator + segment + ".log";
+            assertThat(new File(SegmentIndex.getIndexFilePath(segmentPath))).exists();
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int segment = 0; segment < numSegments; segment++) {
+                long address = (long) segment * RECORDS_PER_LOG_FILE;
+                assertThat(log.read(address).getPayload(null)).isEqualTo("Payload".getBytes());
+                assertThat(log.getSegmentHandles().size()).isLessThanOrEqualTo(maxOpenSegments);
+            }
+        }
+
+        // A closed segment still accepts ranked writes and trims
+        log.trim(0L);
+        SegmentHandle sh = log.getSegmentHandleForAddress(0L);
+        assertThat(sh.isPendingTrim(0L)).isTrue();
+        sh.release();
+        log.close();
+    }
 }
\ No newline at end of file
@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -190,6 +191,28 @@ public class LogUnitHandlerTest extends AbstractClientTest {
         assertThat(trimmedAddress.getGlobalAddress()).isEqualTo(address0);
     }
 
+    @Test
+    public void trimmingMultipleAddresses() throws Exception {
+        byte[] testString = "hello world".getBytes();
+        final long numAddresses = 3;
+        for (long x = 0; x < numAddresses; x++) {
+            client.write(x, Collections.<UUID>emptySet(), null, testString,
+                    Collections.emptyMap()).get();
+        }
+
+        client.trim(Arrays.asList(0L, 2L)).get();
+
+        // For logunit cach flush
+        LogUnitServer server2 = new LogUnitServer(serverContext);
+        serverRouter.reset();
+        serverRouter.addServer(server2);
+
+        assertThat(client.read(0L).get().getAddresses().get(0L).isTrimmed()).isTrue();
+        assertThat(client.read(1L).get().getAddresses().get(1L).getType())
+                .isEqualTo(DataType.DATA);
+        assertThat(client.read(2L).get().getAddresses().get(2L).isTrimmed()).isTrue();
+    }
+
     @Test
     public void flushLogunitCache() throws Exception {
         LogUnitServer server2 = new LogUnitServer(serverContext);
@@ -1,11 +1,11 @@
 package org.corfudb.runtime.object.transactions;
 
-import com.github.benmanes.caffeine.cache.Cache;
 import com.google.common.reflect.TypeToken;
 
 import java.util.Collections;
 import java.util.Map;
 
+import org.corfudb.infrastructure.SequencerConflictCache;
 import org.corfudb.infrastructure.SequencerServer;
 import org.corfudb.infrastructure.TestLayoutBuilder;
 import org.corfudb.runtime.CorfuRuntime;
@@ -46,9 +46,9 @@ public class SequencerCacheTest extends AbstractObjectTest {
         }
 
         SequencerServer sequencerServer = getSequencer(0);
-        Cache<String, Long> cache = sequencerServer.getConflictToGlobalTailCache();
-        assertThat(cache.asMap().size()).isEqualTo(numTxn);
+        SequencerConflictCache cache = sequencerServer.getConflictToGlobalTailCache();
+        assertThat(cache.size()).isEqualTo(numTxn);
         getDefaultRuntime().getAddressSpaceView().prefixTrim(trimAddress);
-        assertThat(cache.asMap().size()).isEqualTo(trimAddress);
+        assertThat(cache.size()).isEqualTo(trimAddress);
     }
 }
@@ -3,12 +3,19 @@ package org.corfudb.runtime.view;
 import lombok.Getter;
 import org.corfudb.protocols.wireprotocol.Token;
 import org.corfudb.runtime.CorfuRuntime;
+import org.corfudb.runtime.CorfuRuntime.CorfuRuntimeParameters;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 /**
  * Created by mwei on 12/23/15.
@@ -70,14 +77,56 @@ public class SequencerViewTest extends AbstractViewTest {
         assertThat(r.getSequencerView().nextToken(Collections.singleton(streamA), 1).getBackpointerMap())
                 .containsEntry(streamA, Address.NON_EXIST);
         assertThat(r.getSequencerView().nextToken(Collections.singleton(streamA), 0).getBackpointerMap())
-                .isEmpty();
+                .containsOnly(entry(streamA, 0L));
         assertThat(r.getSequencerView().nextToken(Collections.singleton(streamB), 1).getBackpointerMap())
                 .containsEntry(streamB, Address.NON_EXIST);
         assertThat(r.getSequencerView().nextToken(Collections.singleton(streamB), 0).getBackpointerMap())
-                .isEmpty();
+                .containsOnly(entry(streamB, 1L));
         assertThat(r.getSequencerView().nextToken(Collections.singleton(streamA), 1).getBackpointerMap())
                 .containsEntry(streamA, 0L);
         assertThat(r.getSequencerView().nextToken(Collections.singleton(streamB), 1).getBackpointerMap())
                 .containsEntry(streamB, 1L);
     }
+
+    @Test
+    public void multiStreamQueryReturnsAllTails() {
+        CorfuRuntime r = getDefaultRuntime();
+        UUID streamA = UUID.nameUUIDFromBytes("stream A".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("stream B".getBytes());
+        UUID streamC = UUID.nameUUIDFromBytes("stream C".getBytes());
+
+        r.getSequencerView().nextToken(Collections.singleton(streamA), 1);
+        r.getSequencerView().nextToken(Collections.singleton(streamB), 1);
+        r.getSequencerView().nextToken(Collections.singleton(streamA), 1);
+
+        Set<UUID> streams = new HashSet<>(Arrays.asList(streamA, streamB, streamC));
+        assertThat(r.getSequencerView().nextToken(streams, 0).getToken())
+                .isEqualTo(new Token(2L, 0L));
+        assertThat(r.getSequencerView().getStreamTails(streams))
+                .containsOnly(entry(streamA, 2L), entry(streamB, 1L),
+                        entry(streamC, Address.NON_EXIST));
+    }
+
+    @Test
+    public void batchedTokensAreUnique() throws Exception {
+        getDefaultRuntime();
+        final int batchSize = 8;
+        CorfuRuntime r = getNewRuntime(CorfuRuntimeParameters.builder()
+                .tokenBatchWindow(Duration.ofMillis(1))
+                .tokenBatchSize(batchSize)
+                .build())
+                .parseConfigurationString(getDefaultConfigurationString())
+                .connect();
+        UUID streamA = UUID.nameUUIDFromBytes("stream A".getBytes());
+
+        Set<Long> tokens = ConcurrentHashMap.newKeySet();
+        scheduleConcurrently(PARAMETERS.NUM_ITERATIONS_LOW, t ->
+                tokens.add(r.getSequencerView().nextToken(Collections.singleton(streamA), 1)
+                        .getTokenValue()));
+        executeScheduled(PARAMETERS.CONCURRENCY_SOME, PARAMETERS.TIMEOUT_NORMAL);
+
+        assertThat(tokens).hasSize(PARAMETERS.NUM_ITERATIONS_LOW);
+        assertThat(r.getSequencerView().nextToken(Collections.singleton(streamA), 0)
+                .getTokenValue()).isEqualTo(PARAMETERS.NUM_ITERATIONS_LOW - 1);
+    }
 }